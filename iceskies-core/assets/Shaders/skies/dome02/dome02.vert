@@ -33,15 +33,27 @@ uniform mat4 g_WorldViewProjectionMatrix;
 uniform vec2 m_TopCoord;
 varying vec2 skyTexCoord;
 
+#ifdef CLOUDS_TIME
+        uniform float m_CloudsTime;
+#endif
+
 #ifdef HAS_CLOUDS0
         uniform float m_Clouds0Scale;
-        uniform vec2 m_Clouds0Offset;
+        #ifdef CLOUDS_TIME
+                uniform vec4 m_Clouds0Motion;
+        #else
+                uniform vec2 m_Clouds0Offset;
+        #endif
         varying vec2 clouds0Coord;
 #endif
 
 #ifdef HAS_CLOUDS1
         uniform float m_Clouds1Scale;
-        uniform vec2 m_Clouds1Offset;
+        #ifdef CLOUDS_TIME
+                uniform vec4 m_Clouds1Motion;
+        #else
+                uniform vec2 m_Clouds1Offset;
+        #endif
         varying vec2 clouds1Coord;
 #endif
 
@@ -50,13 +62,27 @@ void main(){
         /*
          * The following cloud texture coordinate calculations must be kept
          * consistent with those in SkyMaterial.getTransparency(int,Vector2f) .
+         * When CloudsTime is set, each offset is computed from the layer's
+         * motion (u0, uRate, v0, vRate) instead of being uploaded every frame.
          */
         #ifdef HAS_CLOUDS0
-                clouds0Coord = inTexCoord * m_Clouds0Scale + m_Clouds0Offset;
+                #ifdef CLOUDS_TIME
+                        vec2 clouds0Offset = fract(m_Clouds0Motion.xz
+                                + m_CloudsTime * m_Clouds0Motion.yw);
+                #else
+                        vec2 clouds0Offset = m_Clouds0Offset;
+                #endif
+                clouds0Coord = inTexCoord * m_Clouds0Scale + clouds0Offset;
         #endif
         #ifdef HAS_CLOUDS1
-                clouds1Coord = inTexCoord * m_Clouds1Scale + m_Clouds1Offset;
+                #ifdef CLOUDS_TIME
+                        vec2 clouds1Offset = fract(m_Clouds1Motion.xz
+                                + m_CloudsTime * m_Clouds1Motion.yw);
+                #else
+                        vec2 clouds1Offset = m_Clouds1Offset;
+                #endif
+                clouds1Coord = inTexCoord * m_Clouds1Scale + clouds1Offset;
         #endif
 
         gl_Position = g_WorldViewProjectionMatrix * vec4(inPosition, 1);
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -33,39 +33,67 @@ uniform mat4 g_WorldViewProjectionMatrix;
 uniform vec2 m_TopCoord;
 varying vec2 skyTexCoord;
 
+#ifdef CLOUDS_TIME
+        uniform float m_CloudsTime;
+#endif
+
 #ifdef HAS_CLOUDS0
         uniform float m_Clouds0Scale;
-        uniform vec2 m_Clouds0Offset;
+        #ifdef CLOUDS_TIME
+                uniform vec4 m_Clouds0Motion;
+        #else
+                uniform vec2 m_Clouds0Offset;
+        #endif
         varying vec2 clouds0Coord;
 #endif
 
 #ifdef HAS_CLOUDS1
         uniform float m_Clouds1Scale;
-        uniform vec2 m_Clouds1Offset;
+        #ifdef CLOUDS_TIME
+                uniform vec4 m_Clouds1Motion;
+        #else
+                uniform vec2 m_Clouds1Offset;
+        #endif
         varying vec2 clouds1Coord;
 #endif
 
 #ifdef HAS_CLOUDS2
         uniform float m_Clouds2Scale;
-        uniform vec2 m_Clouds2Offset;
+        #ifdef CLOUDS_TIME
+                uniform vec4 m_Clouds2Motion;
+        #else
+                uniform vec2 m_Clouds2Offset;
+        #endif
         varying vec2 clouds2Coord;
 #endif
 
 #ifdef HAS_CLOUDS3
         uniform float m_Clouds3Scale;
-        uniform vec2 m_Clouds3Offset;
+        #ifdef CLOUDS_TIME
+                uniform vec4 m_Clouds3Motion;
+        #else
+                uniform vec2 m_Clouds3Offset;
+        #endif
         varying vec2 clouds3Coord;
 #endif
 
 #ifdef HAS_CLOUDS4
         uniform float m_Clouds4Scale;
-        uniform vec2 m_Clouds4Offset;
+        #ifdef CLOUDS_TIME
+                uniform vec4 m_Clouds4Motion;
+        #else
+                uniform vec2 m_Clouds4Offset;
+        #endif
         varying vec2 clouds4Coord;
 #endif
 
 #ifdef HAS_CLOUDS5
         uniform float m_Clouds5Scale;
-        uniform vec2 m_Clouds5Offset;
+        #ifdef CLOUDS_TIME
+                uniform vec4 m_Clouds5Motion;
+        #else
+                uniform vec2 m_Clouds5Offset;
+        #endif
         varying vec2 clouds5Coord;
 #endif
 
@@ -74,25 +102,63 @@ void main(){
         /*
          * The following cloud texture coordinate calculations must be kept
          * consistent with those in SkyMaterial.getTransparency(int,Vector2f) .
+         * When CloudsTime is set, each offset is computed from the layer's
+         * motion (u0, uRate, v0, vRate) instead of being uploaded every frame.
          */
         #ifdef HAS_CLOUDS0
-                clouds0Coord = inTexCoord * m_Clouds0Scale + m_Clouds0Offset;
+                #ifdef CLOUDS_TIME
+                        vec2 clouds0Offset = fract(m_Clouds0Motion.xz
+                                + m_CloudsTime * m_Clouds0Motion.yw);
+                #else
+                        vec2 clouds0Offset = m_Clouds0Offset;
+                #endif
+                clouds0Coord = inTexCoord * m_Clouds0Scale + clouds0Offset;
         #endif
         #ifdef HAS_CLOUDS1
-                clouds1Coord = inTexCoord * m_Clouds1Scale + m_Clouds1Offset;
+                #ifdef CLOUDS_TIME
+                        vec2 clouds1Offset = fract(m_Clouds1Motion.xz
+                                + m_CloudsTime * m_Clouds1Motion.yw);
+                #else
+                        vec2 clouds1Offset = m_Clouds1Offset;
+                #endif
+                clouds1Coord = inTexCoord * m_Clouds1Scale + clouds1Offset;
         #endif
         #ifdef HAS_CLOUDS2
-                clouds2Coord = inTexCoord * m_Clouds2Scale + m_Clouds2Offset;
+                #ifdef CLOUDS_TIME
+                        vec2 clouds2Offset = fract(m_Clouds2Motion.xz
+                                + m_CloudsTime * m_Clouds2Motion.yw);
+                #else
+                        vec2 clouds2Offset = m_Clouds2Offset;
+                #endif
+                clouds2Coord = inTexCoord * m_Clouds2Scale + clouds2Offset;
         #endif
         #ifdef HAS_CLOUDS3
-                clouds3Coord = inTexCoord * m_Clouds3Scale + m_Clouds3Offset;
+                #ifdef CLOUDS_TIME
+                        vec2 clouds3Offset = fract(m_Clouds3Motion.xz
+                                + m_CloudsTime * m_Clouds3Motion.yw);
+                #else
+                        vec2 clouds3Offset = m_Clouds3Offset;
+                #endif
+                clouds3Coord = inTexCoord * m_Clouds3Scale + clouds3Offset;
         #endif
         #ifdef HAS_CLOUDS4
-                clouds4Coord = inTexCoord * m_Clouds4Scale + m_Clouds4Offset;
+                #ifdef CLOUDS_TIME
+                        vec2 clouds4Offset = fract(m_Clouds4Motion.xz
+                                + m_CloudsTime * m_Clouds4Motion.yw);
+                #else
+                        vec2 clouds4Offset = m_Clouds4Offset;
+                #endif
+                clouds4Coord = inTexCoord * m_Clouds4Scale + clouds4Offset;
         #endif
         #ifdef HAS_CLOUDS5
-                clouds5Coord = inTexCoord * m_Clouds5Scale + m_Clouds5Offset;
+                #ifdef CLOUDS_TIME
+                        vec2 clouds5Offset = fract(m_Clouds5Motion.xz
+                                + m_CloudsTime * m_Clouds5Motion.yw);
+                #else
+                        vec2 clouds5Offset = m_Clouds5Offset;
+                #endif
+                clouds5Coord = inTexCoord * m_Clouds5Scale + clouds5Offset;
         #endif
 
         gl_Position = g_WorldViewProjectionMatrix * vec4(inPosition, 1);
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -564,6 +564,48 @@ public class MySpatial
         }
     }
 
+    /**
+     * Alter the world location of a spatial without allocating any objects.
+     *
+     * @param spatial spatial to relocate (not null)
+     * @param newLocation desired world location (not null, unaffected)
+     * @param tempLocation temporary storage for the local translation (not
+     * null, modified)
+     * @param tempRotation temporary storage for the inverse of the parent's
+     * rotation (not null, modified)
+     */
+    public static void setWorldLocation(Spatial spatial, Vector3f newLocation,
+            Vector3f tempLocation, Quaternion tempRotation) {
+        Validate.nonNull(newLocation, "location");
+        Validate.nonNull(tempLocation, "storage");
+        Validate.nonNull(tempRotation, "storage");
+
+        tempLocation.set(newLocation);
+        Spatial parent = spatial.getParent();
+        if (parent != null) {
+            /*
+             * Equivalent to parent.worldToLocal(), which allocates.
+             */
+            tempLocation.subtractLocal(parent.getWorldTranslation());
+            tempRotation.set(parent.getWorldRotation());
+            tempRotation.inverseLocal();
+            tempRotation.mult(tempLocation, tempLocation);
+            tempLocation.divideLocal(parent.getWorldScale());
+        }
+        /*
+         * Apply to the spatial.
+         */
+        spatial.setLocalTranslation(tempLocation);
+        /*
+         * Apply to the physical object, if any.
+         */
+        RigidBodyControl rigidBodyControl =
+                spatial.getControl(RigidBodyControl.class);
+        if (rigidBodyControl != null) {
+            rigidBodyControl.setPhysicsLocation(newLocation);
+        }
+    }
+
     /**
      * Alter the world orientation of a spatial.
      *
@@ -595,6 +637,43 @@ public class MySpatial
         }
     }
 
+    /**
+     * Alter the world orientation of a spatial without allocating any objects.
+     *
+     * @param spatial spatial to reorient (not null)
+     * @param newOrientation desired world orientation (not null, unaffected)
+     * @param tempRotation temporary storage for the local rotation (not null,
+     * modified)
+     */
+    public static void setWorldOrientation(Spatial spatial,
+            Quaternion newOrientation, Quaternion tempRotation) {
+        Validate.nonNull(newOrientation, "orientation");
+        Validate.nonNull(tempRotation, "storage");
+
+        Spatial parent = spatial.getParent();
+        if (parent != null) {
+            Quaternion forward = parent.getWorldRotation();
+            tempRotation.set(forward);
+            tempRotation.inverseLocal();
+            tempRotation.multLocal(newOrientation);
+            tempRotation.normalizeLocal();
+        } else {
+            tempRotation.set(newOrientation);
+        }
+        /*
+         * Apply to the spatial.
+         */
+        spatial.setLocalRotation(tempRotation);
+        /*
+         * Apply to the physical object, if any.
+         */
+        RigidBodyControl rigidBodyControl =
+                spatial.getControl(RigidBodyControl.class);
+        if (rigidBodyControl != null) {
+            rigidBodyControl.setPhysicsRotation(newOrientation);
+        }
+    }
+
     /**
      * Alter the world scaling of a spatial.
      *
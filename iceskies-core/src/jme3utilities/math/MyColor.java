@@ -69,6 +69,25 @@ final public class MyColor {
      */
     public static ColorRGBA interpolateLinear(float fraction, ColorRGBA start,
             ColorRGBA end) {
+        ColorRGBA result = interpolateLinear(fraction, start, end, null);
+        return result;
+    }
+
+    /**
+     * Interpolate linearly between two colors, storing the result in an
+     * optional existing instance.
+     *
+     * @param fraction (&le;1, &ge;0)
+     * @param start 1st input color (not null, unaffected unless it's also
+     * storeResult)
+     * @param end 2nd input color (not null, unaffected unless it's also
+     * storeResult)
+     * @param storeResult (modified if not null)
+     * @return start*(1-fraction) + end*fraction (either storeResult or a new
+     * instance)
+     */
+    public static ColorRGBA interpolateLinear(float fraction, ColorRGBA start,
+            ColorRGBA end, ColorRGBA storeResult) {
         Validate.fraction(fraction, "fraction");
         Validate.nonNull(start, "start");
         Validate.nonNull(end, "end");
@@ -77,9 +96,13 @@ final public class MyColor {
         float g = FastMath.interpolateLinear(fraction, start.g, end.g);
         float b = FastMath.interpolateLinear(fraction, start.b, end.b);
         float a = FastMath.interpolateLinear(fraction, start.a, end.a);
-        ColorRGBA result = new ColorRGBA(r, g, b, a);
+        if (storeResult == null) {
+            storeResult = new ColorRGBA(r, g, b, a);
+        } else {
+            storeResult.set(r, g, b, a);
+        }
 
-        return result;
+        return storeResult;
     }
 
     /**
@@ -91,11 +114,34 @@ final public class MyColor {
      * saturation
      */
     public static ColorRGBA saturate(ColorRGBA baseColor) {
+        ColorRGBA result = saturate(baseColor, null);
+        return result;
+    }
+
+    /**
+     * Generate a brightened and saturated version of a specified color,
+     * storing the result in an optional existing instance.
+     *
+     * @param baseColor input color (not null, unaffected unless it's also
+     * storeResult)
+     * @param storeResult (modified if not null)
+     * @return color with the same hue, but full brightness and full saturation
+     * (either storeResult or a new instance)
+     */
+    public static ColorRGBA saturate(ColorRGBA baseColor,
+            ColorRGBA storeResult) {
+        if (storeResult == null) {
+            storeResult = new ColorRGBA();
+        }
+
         float max = MyMath.max(baseColor.r, baseColor.g, baseColor.b);
         if (max <= 0f) {
-            return new ColorRGBA(1f, 1f, 1f, baseColor.a);
+            storeResult.set(1f, 1f, 1f, baseColor.a);
+        } else {
+            storeResult.set(baseColor);
+            storeResult.multLocal(1f / max);
         }
-        ColorRGBA result = baseColor.mult(1f / max);
-        return result;
+
+        return storeResult;
     }
 }
\ No newline at end of file
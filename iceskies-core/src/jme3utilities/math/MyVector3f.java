@@ -130,8 +130,7 @@ public class MyVector3f {
     public static float distanceFrom(Vector3f from, Vector3f to) {
         Validate.nonNull(from, "vector");
 
-        Vector3f offset = to.subtract(from);
-        float distance = offset.length();
+        float distance = from.distance(to);
         return distance;
     }
 
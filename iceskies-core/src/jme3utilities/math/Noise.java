@@ -105,6 +105,71 @@ final public class Noise {
         return total;
     }
 
+    /**
+     * Sample fractional Brownian motion (FBM) noise at each point of a
+     * rectangular grid. The grid points are (x0 + column*dx, y0 + row*dy).
+     * Each result matches fbmNoise() at the same point (apart from rounding),
+     * but the arguments are checked once per grid instead of once per point.
+     *
+     * @param generator base noise generator (not null)
+     * @param x0 1st coordinate of the 1st grid point
+     * @param y0 2nd coordinate of the 1st grid point
+     * @param dx spacing between columns
+     * @param dy spacing between rows
+     * @param numColumns number of columns (&ge;0)
+     * @param numRows number of rows (&ge;0)
+     * @param numOctaves number of noise components (&gt;0)
+     * @param fundamental frequency for the 1st component (&gt;0)
+     * @param gain amplitude ratio between octaves (&gt;0, &lt;1)
+     * @param lacunarity frequency ratio between octaves (&gt;1)
+     * @param storeResult array for the results (length&ge;numColumns*numRows,
+     * modified) or null
+     * @return noise values, row by row (range depends on parameters), either
+     * storeResult or a new array
+     */
+    public static float[] fbmGrid(Perlin2 generator, float x0, float y0,
+            float dx, float dy, int numColumns, int numRows, int numOctaves,
+            float fundamental, float gain, float lacunarity,
+            float[] storeResult) {
+        Validate.nonNull(generator, "generator");
+        Validate.positive(numOctaves, "octaves");
+        Validate.positive(fundamental, "fundamental");
+        if (!(gain > 0f && gain < 1f)) {
+            logger.log(Level.SEVERE, "gain={0}", gain);
+            throw new IllegalArgumentException(
+                    "gain should be between 0 and 1");
+        }
+        if (!(lacunarity > 1f)) {
+            logger.log(Level.SEVERE, "lacunarity={0}", lacunarity);
+            throw new IllegalArgumentException(
+                    "lacunarity should be greater than 1");
+        }
+
+        float[] result = generator.sampleGrid(x0 * fundamental,
+                y0 * fundamental, dx * fundamental, dy * fundamental,
+                numColumns, numRows, storeResult);
+        /*
+         * Scale the 1st octave to match sampleNormalized(), then add the
+         * others.
+         */
+        float normalize = 1f / MyMath.rootHalf;
+        int numPoints = numColumns * numRows;
+        for (int index = 0; index < numPoints; index++) {
+            result[index] *= normalize;
+        }
+        float amplitude = gain;
+        float frequency = fundamental * lacunarity;
+        for (int octave = 1; octave < numOctaves; octave++) {
+            generator.accumulateGrid(x0 * frequency, y0 * frequency,
+                    dx * frequency, dy * frequency, numColumns, numRows,
+                    amplitude * normalize, result);
+            frequency *= lacunarity;
+            amplitude *= gain;
+        }
+
+        return result;
+    }
+
     /**
      * Get the next uniformly distributed, pseudo-random, single-precision value
      * from the shared generator.
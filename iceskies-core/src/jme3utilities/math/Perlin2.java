@@ -25,6 +25,7 @@
  */
 package jme3utilities.math;
 
+import java.util.Arrays;
 import java.util.Random;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -32,6 +33,8 @@ import java.util.logging.Logger;
 import com.jme3.math.FastMath;
 import com.jme3.math.Vector2f;
 
+import jme3utilities.Validate;
+
 /**
  * Two-dimensional Perlin noise generator.
  *
@@ -49,6 +52,25 @@ public class Perlin2
             Logger.getLogger(Perlin2.class.getName());
     // *************************************************************************
     // fields
+    /**
+     * x-component of the gradient for each hash value, for batch sampling:
+     * set by constructor
+     */
+    final private float[] hashGradientXs;
+    /**
+     * y-component of the gradient for each hash value, for batch sampling:
+     * set by constructor
+     */
+    final private float[] hashGradientYs;
+    /**
+     * period of the noise function (&ge;2): set by constructor
+     */
+    final private int period;
+    /**
+     * permutation unrolled to twice the period, so that batch sampling can
+     * hash without wrapping: set by constructor
+     */
+    final private int[] hashTable;
     /**
      * permutation for hashing: set by constructor
      */
@@ -86,10 +108,98 @@ public class Perlin2
 
         generateGradients(numGradients, gSeed);
         permutation = new Permutation(period, pSeed);
+        this.period = period;
+        /*
+         * Pre-compute primitive tables for batch sampling.
+         */
+        hashTable = new int[2 * period];
+        for (int index = 0; index < 2 * period; index++) {
+            hashTable[index] = permutation.permute(index);
+        }
+        hashGradientXs = new float[period];
+        hashGradientYs = new float[period];
+        for (int hash = 0; hash < period; hash++) {
+            Vector2f gradient = gradients[hash % numGradients];
+            hashGradientXs[hash] = gradient.x;
+            hashGradientYs[hash] = gradient.y;
+        }
     }
     // *************************************************************************
     // new methods exposed
 
+    /**
+     * Sample the noise function at each point of a rectangular grid and add
+     * the weighted samples to an array. The grid points are (x0 + column*dx,
+     * y0 + row*dy). No objects are allocated and arguments are checked only
+     * once per invocation, so this is much faster than invoking sample() for
+     * each point.
+     *
+     * @param x0 1st coordinate of the 1st grid point
+     * @param y0 2nd coordinate of the 1st grid point
+     * @param dx spacing between columns
+     * @param dy spacing between rows
+     * @param numColumns number of columns (&ge;0)
+     * @param numRows number of rows (&ge;0)
+     * @param weight factor applied to each sample
+     * @param accumulator array of sums, row by row (not null,
+     * length&ge;numColumns*numRows, modified)
+     */
+    public void accumulateGrid(float x0, float y0, float dx, float dy,
+            int numColumns, int numRows, float weight, float[] accumulator) {
+        Validate.nonNegative(numColumns, "number of columns");
+        Validate.nonNegative(numRows, "number of rows");
+        Validate.nonNull(accumulator, "array");
+        if (accumulator.length < numColumns * numRows) {
+            logger.log(Level.SEVERE, "length={0}, numPoints={1}",
+                    new Object[]{accumulator.length, numColumns * numRows});
+            throw new IllegalArgumentException(
+                    "array too short for the number of points");
+        }
+
+        int index = 0;
+        for (int row = 0; row < numRows; row++) {
+            float sampleY = y0 + row * dy;
+            int squareY = floor(sampleY);
+            float offsetY = sampleY - squareY;
+            float fadeY = fade(offsetY);
+            int y0Hash = hashTable[wrap(squareY)];
+            int y1Hash = hashTable[wrap(squareY + 1)];
+
+            for (int column = 0; column < numColumns; column++) {
+                float sampleX = x0 + column * dx;
+                int squareX = floor(sampleX);
+                float offsetX = sampleX - squareX;
+                int x0Wrapped = wrap(squareX);
+                int x1Wrapped = wrap(squareX + 1);
+                /*
+                 * Compute the noise contribution of each corner.
+                 */
+                int hash = hashTable[x0Wrapped + y0Hash];
+                float n00 = hashGradientXs[hash] * offsetX
+                        + hashGradientYs[hash] * offsetY;
+                hash = hashTable[x0Wrapped + y1Hash];
+                float n01 = hashGradientXs[hash] * offsetX
+                        + hashGradientYs[hash] * (offsetY - 1f);
+                hash = hashTable[x1Wrapped + y0Hash];
+                float n10 = hashGradientXs[hash] * (offsetX - 1f)
+                        + hashGradientYs[hash] * offsetY;
+                hash = hashTable[x1Wrapped + y1Hash];
+                float n11 = hashGradientXs[hash] * (offsetX - 1f)
+                        + hashGradientYs[hash] * (offsetY - 1f);
+                /*
+                 * 2-D interpolation between the four corners of the square.
+                 */
+                float fadeX = fade(offsetX);
+                float nx0 = (1f - fadeX) * n00 + fadeX * n10;
+                float nx1 = (1f - fadeX) * n01 + fadeX * n11;
+                float noise = (1f - fadeY) * nx0 + fadeY * nx1;
+
+                accumulator[index] += weight * noise;
+                index++;
+            }
+        }
+    }
+
     /**
      * Sample the noise function at a specified point.
      *
@@ -144,9 +254,70 @@ public class Perlin2
         assert noise <= 1f : noise;
         return noise;
     }
+
+    /**
+     * Sample the noise function at each point of a rectangular grid. See
+     * accumulateGrid() for details.
+     *
+     * @param x0 1st coordinate of the 1st grid point
+     * @param y0 2nd coordinate of the 1st grid point
+     * @param dx spacing between columns
+     * @param dy spacing between rows
+     * @param numColumns number of columns (&ge;0)
+     * @param numRows number of rows (&ge;0)
+     * @param storeResult array for the results (length&ge;numColumns*numRows,
+     * modified) or null
+     * @return noise values, row by row (each &le;sqrt(0.5), &ge;-sqrt(0.5)),
+     * either storeResult or a new array
+     */
+    public float[] sampleGrid(float x0, float y0, float dx, float dy,
+            int numColumns, int numRows, float[] storeResult) {
+        Validate.nonNegative(numColumns, "number of columns");
+        Validate.nonNegative(numRows, "number of rows");
+        int numPoints = numColumns * numRows;
+        float[] result = storeResult;
+        if (result == null) {
+            result = new float[numPoints];
+        } else {
+            Arrays.fill(result, 0, Math.min(numPoints, result.length), 0f);
+        }
+        accumulateGrid(x0, y0, dx, dy, numColumns, numRows, 1f, result);
+
+        return result;
+    }
     // *************************************************************************
     // private methods
 
+    /**
+     * Evaluate the fade curve without validating the argument. Must be kept
+     * consistent with MyMath.fade().
+     *
+     * @param t input value (&le;1, &ge;0)
+     * @return faded value (&le;1, &ge;0)
+     */
+    private static float fade(float t) {
+        double tt = (double) t;
+        double ff = tt * tt * tt * (10.0 + tt * (-15.0 + 6.0 * tt));
+        float result = (float) ff;
+
+        return result;
+    }
+
+    /**
+     * Round a value down to an integer, without the overhead of Math.floor().
+     *
+     * @param value input value (within the range of an int)
+     * @return the largest integer &le; value
+     */
+    private static int floor(float value) {
+        int result = (int) value;
+        if (value < result) {
+            result--;
+        }
+
+        return result;
+    }
+
     /**
      * Generate an array of pseudo-random 2-D gradients for a specified seed.
      *
@@ -196,4 +367,94 @@ public class Perlin2
 
         return result;
     }
+
+    /**
+     * Wrap a grid coordinate to the period of the noise function.
+     *
+     * @param gridCoordinate input value
+     * @return wrapped value (&lt;period, &ge;0)
+     */
+    private int wrap(int gridCoordinate) {
+        int result = gridCoordinate % period;
+        if (result < 0) {
+            result += period;
+        }
+
+        return result;
+    }
+    // *************************************************************************
+    // test cases
+
+    /**
+     * A console application to test this class: compare the batch API with
+     * the per-point path for accuracy and speed.
+     *
+     * @param ignored
+     */
+    public static void main(String[] ignored) {
+        logger.setLevel(Level.INFO);
+        System.out.print("Test results for class Perlin2:\n\n");
+
+        Perlin2 generator = new Perlin2(256, 64, 1L, 2L);
+        int numColumns = 512;
+        int numRows = 512;
+        int numPoints = numColumns * numRows;
+        float x0 = -3.37f;
+        float y0 = 11.9f;
+        float dx = 0.0731f;
+        float dy = 0.0419f;
+        /*
+         * accuracy of the raw noise
+         */
+        float[] batch = generator.sampleGrid(x0, y0, dx, dy, numColumns,
+                numRows, null);
+        float maxError = 0f;
+        int index = 0;
+        for (int row = 0; row < numRows; row++) {
+            for (int column = 0; column < numColumns; column++) {
+                float single = generator.sample(x0 + column * dx,
+                        y0 + row * dy);
+                maxError = Math.max(maxError,
+                        FastMath.abs(single - batch[index]));
+                index++;
+            }
+        }
+        System.out.printf("max error of sampleGrid() = %g%n", maxError);
+        /*
+         * speed of 6-octave FBM, after a few repetitions to warm up the JIT
+         */
+        int numOctaves = 6;
+        float[] perPoint = new float[numPoints];
+        long perPointNanos = 0L;
+        long batchNanos = 0L;
+        for (int repetition = 0; repetition < 10; repetition++) {
+            long startTime = System.nanoTime();
+            index = 0;
+            for (int row = 0; row < numRows; row++) {
+                for (int column = 0; column < numColumns; column++) {
+                    perPoint[index] = Noise.fbmNoise(generator,
+                            x0 + column * dx, y0 + row * dy, numOctaves, 1f,
+                            0.5f, 2f);
+                    index++;
+                }
+            }
+            perPointNanos = System.nanoTime() - startTime;
+
+            startTime = System.nanoTime();
+            Noise.fbmGrid(generator, x0, y0, dx, dy, numColumns, numRows,
+                    numOctaves, 1f, 0.5f, 2f, batch);
+            batchNanos = System.nanoTime() - startTime;
+        }
+        maxError = 0f;
+        for (index = 0; index < numPoints; index++) {
+            maxError = Math.max(maxError,
+                    FastMath.abs(perPoint[index] - batch[index]));
+        }
+        System.out.printf("max error of fbmGrid() = %g%n", maxError);
+        float samples = numPoints * numOctaves;
+        System.out.printf("per-point: %.1f nsec per sample%n",
+                perPointNanos / samples);
+        System.out.printf("batch: %.1f nsec per sample%n",
+                batchNanos / samples);
+    }
 }
\ No newline at end of file
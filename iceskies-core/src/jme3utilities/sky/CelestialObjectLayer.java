@@ -0,0 +1,429 @@
+/*
+ Copyright (c) 2014, Stephen Gold
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+ * Stephen Gold's name may not be used to endorse or promote products
+ derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL STEPHEN GOLD BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3utilities.sky;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.bounding.BoundingSphere;
+import com.jme3.material.Material;
+import com.jme3.material.RenderState;
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.util.BufferUtils;
+
+import jme3utilities.MyAsset;
+import jme3utilities.Validate;
+
+/**
+ * Layer of extra astronomical objects (planets, extra moons, comets, ...)
+ * rendered as textured quads in a single mesh, and thus a single draw call.
+ * <p>
+ * Unlike the sun and moon, which are implemented by SkyMaterial and limited
+ * by its material definitions, these objects have no per-object material
+ * parameters: each object's position, size, and color live in the vertex
+ * buffers, which are refreshed in bulk by update().
+ * <p>
+ * Objects are positioned by ecliptical coordinates, converted to world
+ * directions using SunAndStars. The quads lie on the unit sphere, like the
+ * domes of the sky node.
+ *
+ * @author Stephen Gold <sgold@sonic.net>
+ */
+public class CelestialObjectLayer {
+    // *************************************************************************
+    // constants
+
+    /**
+     * number of vertices per object
+     */
+    final private static int verticesPerObject = 4;
+    /**
+     * largest number of objects whose vertices can be indexed by shorts
+     */
+    final private static int maxMaxObjects = Short.MAX_VALUE / 4;
+    /**
+     * message logger for this class
+     */
+    final private static Logger logger =
+            Logger.getLogger(CelestialObjectLayer.class.getName());
+    /**
+     * name for the geometry
+     */
+    final private static String geometryName = "celestial objects";
+    // *************************************************************************
+    // fields
+    /**
+     * half-widths of the objects' quads (tangent of each object's angular
+     * radius), indexed by object
+     */
+    final private float[] halfWidths;
+    /**
+     * world directions of the objects, packed as (x, y, z) triples: updated
+     * by update()
+     */
+    final private float[] directions;
+    /**
+     * celestial latitudes of the objects (radians north of the ecliptic),
+     * indexed by object
+     */
+    final private float[] latitudes;
+    /**
+     * celestial longitudes of the objects (radians east of the vernal
+     * equinox), indexed by object
+     */
+    final private float[] longitudes;
+    /**
+     * vertex colors, 4 floats per vertex: set by constructor
+     */
+    final private FloatBuffer colorBuffer;
+    /**
+     * vertex positions, 3 floats per vertex: set by constructor
+     */
+    final private FloatBuffer positionBuffer;
+    /**
+     * geometry which renders all objects: set by constructor
+     */
+    final private Geometry geometry;
+    /**
+     * number of objects added so far (&ge;0)
+     */
+    private int numObjects = 0;
+    /**
+     * mesh which contains all objects: set by constructor
+     */
+    final private Mesh mesh;
+    /**
+     * reusable offset toward the 1st texture axis of a quad - not serialized
+     */
+    final private Vector3f tmpAxisU = new Vector3f();
+    /**
+     * reusable offset toward the 2nd texture axis of a quad - not serialized
+     */
+    final private Vector3f tmpAxisV = new Vector3f();
+    /**
+     * reusable direction of an object - not serialized
+     */
+    final private Vector3f tmpDirection = new Vector3f();
+    // *************************************************************************
+    // constructors
+
+    /**
+     * Instantiate an empty layer with room for the specified number of
+     * objects, all sharing the specified texture.
+     *
+     * @param assetManager for loading the texture (not null)
+     * @param textureAssetPath asset path to the objects' texture, which is
+     * modulated by each object's color (not null)
+     * @param maxObjects maximum number of objects (&gt;0)
+     */
+    public CelestialObjectLayer(AssetManager assetManager,
+            String textureAssetPath, int maxObjects) {
+        Validate.nonNull(assetManager, "asset manager");
+        Validate.nonNull(textureAssetPath, "path");
+        Validate.positive(maxObjects, "max objects");
+        if (maxObjects > maxMaxObjects) {
+            logger.log(Level.SEVERE, "maxObjects={0}", maxObjects);
+            throw new IllegalArgumentException(
+                    "too many objects for 16-bit indices");
+        }
+
+        halfWidths = new float[maxObjects];
+        directions = new float[3 * maxObjects];
+        latitudes = new float[maxObjects];
+        longitudes = new float[maxObjects];
+        /*
+         * Create the mesh. Until objects are added, every quad is
+         * degenerate (all its vertices at the origin).
+         */
+        int numVertices = verticesPerObject * maxObjects;
+        positionBuffer = BufferUtils.createFloatBuffer(3 * numVertices);
+        colorBuffer = BufferUtils.createFloatBuffer(4 * numVertices);
+        FloatBuffer texCoords = BufferUtils.createFloatBuffer(2 * numVertices);
+        ShortBuffer indices = BufferUtils.createShortBuffer(6 * maxObjects);
+        for (int objectIndex = 0; objectIndex < maxObjects; objectIndex++) {
+            texCoords.put(0f).put(0f);
+            texCoords.put(1f).put(0f);
+            texCoords.put(1f).put(1f);
+            texCoords.put(0f).put(1f);
+
+            int base = verticesPerObject * objectIndex;
+            indices.put((short) base);
+            indices.put((short) (base + 1));
+            indices.put((short) (base + 2));
+            indices.put((short) base);
+            indices.put((short) (base + 2));
+            indices.put((short) (base + 3));
+        }
+        texCoords.flip();
+        indices.flip();
+
+        mesh = new Mesh();
+        mesh.setBuffer(VertexBuffer.Type.Position, 3, positionBuffer);
+        mesh.setBuffer(VertexBuffer.Type.Color, 4, colorBuffer);
+        mesh.setBuffer(VertexBuffer.Type.TexCoord, 2, texCoords);
+        mesh.setBuffer(VertexBuffer.Type.Index, 3, indices);
+        mesh.getBuffer(VertexBuffer.Type.Position).setUsage(
+                VertexBuffer.Usage.Stream);
+        /*
+         * Every quad lies within a sphere of radius 2, so the bound
+         * never needs updating.
+         */
+        mesh.setBound(new BoundingSphere(2f, Vector3f.ZERO));
+        /*
+         * Create the material and geometry.
+         */
+        Material material =
+                MyAsset.createUnshadedMaterial(assetManager, textureAssetPath);
+        material.setBoolean("VertexColor", true);
+        RenderState additional = material.getAdditionalRenderState();
+        additional.setBlendMode(RenderState.BlendMode.Alpha);
+        additional.setDepthWrite(false);
+
+        geometry = new Geometry(geometryName, mesh);
+        geometry.setMaterial(material);
+    }
+    // *************************************************************************
+    // new methods exposed
+
+    /**
+     * Add an object to this layer.
+     *
+     * @param latitude celestial latitude (radians north of the ecliptic,
+     * &le;Pi/2, &ge;-Pi/2)
+     * @param longitude celestial longitude (radians east of the vernal equinox,
+     * &le;2*Pi, &ge;0)
+     * @param angularDiameter apparent size (in radians, &lt;Pi, &gt;0)
+     * @param color color to modulate the texture (not null, unaffected)
+     * @return index of the new object (&ge;0)
+     */
+    public int addObject(float latitude, float longitude,
+            float angularDiameter, ColorRGBA color) {
+        if (numObjects >= latitudes.length) {
+            logger.log(Level.SEVERE, "maxObjects={0}", latitudes.length);
+            throw new IllegalStateException("layer is full");
+        }
+        validateCoordinates(latitude, longitude);
+        validateDiameter(angularDiameter);
+        Validate.nonNull(color, "color");
+
+        int objectIndex = numObjects;
+        numObjects++;
+        setObjectCoordinates(objectIndex, latitude, longitude);
+        setObjectSize(objectIndex, angularDiameter);
+        setObjectColor(objectIndex, color);
+
+        return objectIndex;
+    }
+
+    /**
+     * Access the geometry which renders this layer.
+     *
+     * @return pre-existing instance
+     */
+    public Geometry getGeometry() {
+        assert geometry != null;
+        return geometry;
+    }
+
+    /**
+     * Read the number of objects in this layer.
+     *
+     * @return count (&ge;0)
+     */
+    public int getObjectCount() {
+        assert numObjects >= 0 : numObjects;
+        return numObjects;
+    }
+
+    /**
+     * Alter the color of an object.
+     *
+     * @param objectIndex index of the object (&ge;0, &lt;objectCount)
+     * @param newColor (not null, unaffected)
+     */
+    public void setObjectColor(int objectIndex, ColorRGBA newColor) {
+        validateObjectIndex(objectIndex);
+        Validate.nonNull(newColor, "color");
+
+        int position = 4 * verticesPerObject * objectIndex;
+        for (int vertex = 0; vertex < verticesPerObject; vertex++) {
+            colorBuffer.put(position, newColor.r);
+            colorBuffer.put(position + 1, newColor.g);
+            colorBuffer.put(position + 2, newColor.b);
+            colorBuffer.put(position + 3, newColor.a);
+            position += 4;
+        }
+        mesh.getBuffer(VertexBuffer.Type.Color).setUpdateNeeded();
+    }
+
+    /**
+     * Alter the ecliptical coordinates of an object.
+     *
+     * @param objectIndex index of the object (&ge;0, &lt;objectCount)
+     * @param latitude celestial latitude (radians north of the ecliptic,
+     * &le;Pi/2, &ge;-Pi/2)
+     * @param longitude celestial longitude (radians east of the vernal equinox,
+     * &le;2*Pi, &ge;0)
+     */
+    public void setObjectCoordinates(int objectIndex, float latitude,
+            float longitude) {
+        validateObjectIndex(objectIndex);
+        validateCoordinates(latitude, longitude);
+
+        latitudes[objectIndex] = latitude;
+        longitudes[objectIndex] = longitude;
+    }
+
+    /**
+     * Alter the apparent size of an object.
+     *
+     * @param objectIndex index of the object (&ge;0, &lt;objectCount)
+     * @param angularDiameter (in radians, &lt;Pi, &gt;0)
+     */
+    public void setObjectSize(int objectIndex, float angularDiameter) {
+        validateObjectIndex(objectIndex);
+        validateDiameter(angularDiameter);
+
+        halfWidths[objectIndex] = FastMath.tan(angularDiameter / 2f);
+    }
+
+    /**
+     * Reposition all objects for the current time and place, rewriting the
+     * position buffer in a single pass.
+     *
+     * @param sunAndStars source of the ecliptic-to-world rotation (not null)
+     */
+    public void update(SunAndStars sunAndStars) {
+        Validate.nonNull(sunAndStars, "sun and stars");
+
+        sunAndStars.convertToWorld(latitudes, longitudes, numObjects,
+                directions);
+
+        for (int objectIndex = 0; objectIndex < numObjects; objectIndex++) {
+            int base = 3 * objectIndex;
+            Vector3f direction = tmpDirection.set(directions[base],
+                    directions[base + 1], directions[base + 2]);
+            /*
+             * Choose quad axes perpendicular to the direction, with the
+             * 2nd axis as close to the zenith as possible.
+             */
+            if (FastMath.abs(direction.y) < 0.999f) {
+                direction.cross(Vector3f.UNIT_Y, tmpAxisU);
+            } else {
+                direction.cross(Vector3f.UNIT_X, tmpAxisU);
+            }
+            tmpAxisU.normalizeLocal();
+            tmpAxisU.cross(direction, tmpAxisV);
+
+            float halfWidth = halfWidths[objectIndex];
+            tmpAxisU.multLocal(halfWidth);
+            tmpAxisV.multLocal(halfWidth);
+
+            int position = 3 * verticesPerObject * objectIndex;
+            putCorner(position, direction, -1f, -1f);
+            putCorner(position + 3, direction, 1f, -1f);
+            putCorner(position + 6, direction, 1f, 1f);
+            putCorner(position + 9, direction, -1f, 1f);
+        }
+        mesh.getBuffer(VertexBuffer.Type.Position).setUpdateNeeded();
+    }
+    // *************************************************************************
+    // private methods
+
+    /**
+     * Write one corner of an object's quad into the position buffer.
+     *
+     * @param position index of the corner's 1st float in the buffer
+     * @param center center of the quad (not null, unaffected)
+     * @param uSign sign of the offset along the 1st axis (&plusmn;1)
+     * @param vSign sign of the offset along the 2nd axis (&plusmn;1)
+     */
+    private void putCorner(int position, Vector3f center, float uSign,
+            float vSign) {
+        float x = center.x + uSign * tmpAxisU.x + vSign * tmpAxisV.x;
+        float y = center.y + uSign * tmpAxisU.y + vSign * tmpAxisV.y;
+        float z = center.z + uSign * tmpAxisU.z + vSign * tmpAxisV.z;
+        positionBuffer.put(position, x);
+        positionBuffer.put(position + 1, y);
+        positionBuffer.put(position + 2, z);
+    }
+
+    /**
+     * Validate ecliptical coordinates.
+     *
+     * @param latitude celestial latitude (radians north of the ecliptic)
+     * @param longitude celestial longitude (radians east of the vernal equinox)
+     * @throws IllegalArgumentException if either coordinate is out of range
+     */
+    private static void validateCoordinates(float latitude, float longitude) {
+        if (!(latitude >= -FastMath.HALF_PI && latitude <= FastMath.HALF_PI)) {
+            logger.log(Level.SEVERE, "latitude={0}", latitude);
+            throw new IllegalArgumentException(
+                    "latitude should be between -Pi/2 and Pi/2, inclusive");
+        }
+        if (!(longitude >= 0f && longitude <= FastMath.TWO_PI)) {
+            logger.log(Level.SEVERE, "longitude={0}", longitude);
+            throw new IllegalArgumentException(
+                    "longitude should be between 0 and 2*Pi, inclusive");
+        }
+    }
+
+    /**
+     * Validate an angular diameter.
+     *
+     * @param angularDiameter apparent size (in radians)
+     * @throws IllegalArgumentException if the diameter is out of range
+     */
+    private static void validateDiameter(float angularDiameter) {
+        if (!(angularDiameter > 0f && angularDiameter < FastMath.PI)) {
+            logger.log(Level.SEVERE, "diameter={0}", angularDiameter);
+            throw new IllegalArgumentException(
+                    "diameter should be between 0 and Pi");
+        }
+    }
+
+    /**
+     * Validate an object index.
+     *
+     * @param objectIndex the index of an object
+     * @throws IllegalArgumentException if the index is out of range
+     */
+    private void validateObjectIndex(int objectIndex) {
+        if (objectIndex < 0 || objectIndex >= numObjects) {
+            logger.log(Level.SEVERE, "objectIndex={0}, numObjects={1}",
+                    new Object[]{objectIndex, numObjects});
+            throw new IllegalArgumentException("object index out of range");
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,541 @@
+/*
+ Copyright (c) 2014, Stephen Gold
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+ * Stephen Gold's name may not be used to endorse or promote products
+ derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL STEPHEN GOLD BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3utilities.sky;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.jme3.app.Application;
+import com.jme3.app.state.AppStateManager;
+import com.jme3.math.FastMath;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.Renderer;
+import com.jme3.texture.Image;
+import com.jme3.texture.Texture;
+import com.jme3.texture.Texture2D;
+import com.jme3.util.BufferUtils;
+
+import jme3utilities.SimpleAppState;
+import jme3utilities.Validate;
+import jme3utilities.math.MyMath;
+
+/**
+ * App state which evolves a cloud layer's alpha map over time, so that clouds
+ * visibly form and dissipate instead of merely fading in and out.
+ * <p>
+ * The map morphs between a sequence of keyframes, each the noise of a
+ * CloudMapGenerator with a different seed. A worker thread blends the current
+ * pair of keyframes one tile of rows at a time, and generates the next
+ * keyframe between tiles. Finished tiles are handed to the render thread,
+ * which copies a few of them per frame into the texture using partial
+ * (sub-image) uploads, so the full texture is never re-uploaded.
+ *
+ * @author Stephen Gold <sgold@sonic.net>
+ */
+public class CloudEvolution
+        extends SimpleAppState {
+    // *************************************************************************
+    // constants
+
+    /**
+     * maximum number of rows in a tile
+     */
+    final private static int maxRowsPerTile = 16;
+    /**
+     * number of tiles in circulation between the threads
+     */
+    final private static int numTiles = 8;
+    /**
+     * message logger for this class
+     */
+    final private static Logger logger =
+            Logger.getLogger(CloudEvolution.class.getName());
+    // *************************************************************************
+    // fields
+    /**
+     * finished tiles waiting to be uploaded
+     */
+    final private BlockingQueue<Tile> readyTiles =
+            new ArrayBlockingQueue<>(numTiles);
+    /**
+     * tiles available to the worker thread
+     */
+    final private BlockingQueue<Tile> freeTiles =
+            new ArrayBlockingQueue<>(numTiles);
+    /**
+     * cloud layer which displays the map: set by constructor
+     */
+    final private CloudLayer layer;
+    /**
+     * view of the map's image data used to copy finished tiles, or null if
+     * not yet created
+     */
+    private ByteBuffer mapView = null;
+    /**
+     * image data from which mapView was duplicated, or null if none
+     */
+    private ByteBuffer mapViewSource = null;
+    /**
+     * fraction of the sky covered by clouds (&le;1, &ge;0), shared with the
+     * worker thread
+     */
+    private volatile float coverage;
+    /**
+     * duration of each morph between keyframes (in seconds, &gt;0)
+     */
+    private float keyframeDuration;
+    /**
+     * number of keyframes elapsed since the evolution began, shared with the
+     * worker thread
+     */
+    private volatile float progress = 0f;
+    /**
+     * steepness of the transition from clear sky to cloud (&gt;0): set by
+     * constructor
+     */
+    final private float sharpness;
+    /**
+     * noise levels of the keyframe being morphed from: accessed only by the
+     * worker thread after construction
+     */
+    private float[] fromLevels;
+    /**
+     * noise levels of the keyframe being generated: accessed only by the
+     * worker thread
+     */
+    private float[] nextLevels;
+    /**
+     * noise levels of the keyframe being morphed toward: accessed only by the
+     * worker thread after construction
+     */
+    private float[] toLevels;
+    /**
+     * maximum number of tiles uploaded per frame (&gt;0)
+     */
+    private int maxTilesPerFrame = 2;
+    /**
+     * number of rows in each tile (&gt;0): set by constructor
+     */
+    final private int rowsPerTile;
+    /**
+     * number of texels per side of the map (&gt;0): set by constructor
+     */
+    final private int size;
+    /**
+     * index of the keyframe being morphed from: accessed only by the worker
+     * thread after construction
+     */
+    private long fromIndex = 0L;
+    /**
+     * generator for the keyframes, with the seed of the 1st keyframe: set by
+     * constructor
+     */
+    final private CloudMapGenerator generator;
+    /**
+     * texture being evolved: set by constructor
+     */
+    final private Texture2D texture;
+    /**
+     * worker thread, or null if not running
+     */
+    private Thread worker = null;
+    // *************************************************************************
+    // constructors
+
+    /**
+     * Instantiate an evolution for the specified cloud layer. The first two
+     * keyframes are generated immediately and the layer's texture is
+     * replaced. Evolution begins when the state is attached.
+     *
+     * @param layer cloud layer to evolve (not null)
+     * @param scale texture scaling factor for the layer (&gt;0, typically
+     * &le;2)
+     * @param generator generator for the keyframes (not null)
+     * @param keyframeDuration duration of each morph between keyframes (in
+     * seconds, &gt;0)
+     */
+    public CloudEvolution(CloudLayer layer, float scale,
+            CloudMapGenerator generator, float keyframeDuration) {
+        Validate.nonNull(layer, "layer");
+        Validate.positive(scale, "scale");
+        Validate.nonNull(generator, "generator");
+        Validate.positive(keyframeDuration, "duration");
+
+        this.layer = layer;
+        this.generator = generator;
+        this.keyframeDuration = keyframeDuration;
+        coverage = generator.getCoverage();
+        sharpness = generator.getSharpness();
+        size = generator.getSize();
+        /*
+         * Use the largest tile height which divides the map evenly.
+         */
+        int rows = Math.min(size, maxRowsPerTile);
+        while (size % rows != 0) {
+            rows--;
+        }
+        rowsPerTile = rows;
+
+        fromLevels = generateKeyframe(0L);
+        toLevels = generateKeyframe(1L);
+        nextLevels = new float[size * size];
+        /*
+         * Start with the 1st keyframe.
+         */
+        ByteBuffer data = BufferUtils.createByteBuffer(size * size);
+        for (float level : fromLevels) {
+            float density =
+                    CloudMapGenerator.density(level, coverage, sharpness);
+            data.put((byte) Math.round(255f * density));
+        }
+        data.flip();
+        Image image = new Image(Image.Format.Luminance8, size, size, data);
+        texture = new Texture2D(image);
+        texture.setWrap(Texture.WrapMode.Repeat);
+        layer.setTexture(texture, scale);
+
+        for (int tileIndex = 0; tileIndex < numTiles; tileIndex++) {
+            freeTiles.add(new Tile());
+        }
+    }
+    // *************************************************************************
+    // new methods exposed
+
+    /**
+     * Read the fraction of the sky covered by clouds.
+     *
+     * @return fraction (&le;1, &ge;0)
+     */
+    public float getCoverage() {
+        float result = coverage;
+
+        assert result >= 0f : result;
+        assert result <= 1f : result;
+        return result;
+    }
+
+    /**
+     * Access the evolving texture.
+     *
+     * @return pre-existing instance
+     */
+    public Texture2D getTexture() {
+        assert texture != null;
+        return texture;
+    }
+
+    /**
+     * Alter the fraction of the sky covered by clouds. The change spreads
+     * across the map as tiles are regenerated, so clouds form or dissipate
+     * gradually.
+     *
+     * @param newCoverage (&le;1, &ge;0)
+     */
+    public void setCoverage(float newCoverage) {
+        Validate.fraction(newCoverage, "coverage");
+        coverage = newCoverage;
+    }
+
+    /**
+     * Alter the duration of each morph between keyframes.
+     *
+     * @param newDuration (in seconds, &gt;0)
+     */
+    public void setKeyframeDuration(float newDuration) {
+        Validate.positive(newDuration, "duration");
+        keyframeDuration = newDuration;
+    }
+
+    /**
+     * Alter the maximum number of tiles uploaded per frame.
+     *
+     * @param newLimit (&gt;0)
+     */
+    public void setMaxTilesPerFrame(int newLimit) {
+        Validate.positive(newLimit, "limit");
+        maxTilesPerFrame = newLimit;
+    }
+    // *************************************************************************
+    // SimpleAppState methods
+
+    /**
+     * Clean up this state on detach: stop the worker thread.
+     */
+    @Override
+    public void cleanup() {
+        stopWorker();
+        super.cleanup();
+    }
+
+    /**
+     * Initialize this state prior to its first update.
+     *
+     * @param stateManager (not null)
+     * @param application attaching application (not null)
+     */
+    @Override
+    public void initialize(AppStateManager stateManager,
+            Application application) {
+        super.initialize(stateManager, application);
+        if (isEnabled()) {
+            startWorker();
+        }
+    }
+
+    /**
+     * Upload finished tiles to the texture. Invoked once per frame.
+     *
+     * @param renderManager (not null)
+     */
+    @Override
+    public void render(RenderManager renderManager) {
+        super.render(renderManager);
+        if (!isEnabled()) {
+            return;
+        }
+
+        Renderer renderer = renderManager.getRenderer();
+        ByteBuffer mapData = texture.getImage().getData(0);
+        if (mapData != mapViewSource) {
+            mapView = mapData.duplicate();
+            mapViewSource = mapData;
+        }
+        for (int count = 0; count < maxTilesPerFrame; count++) {
+            Tile tile = readyTiles.poll();
+            if (tile == null) {
+                break;
+            }
+            /*
+             * Upload only the tile's rows, and copy them into the map's
+             * image data for transmission estimates and serialization.
+             */
+            renderer.modifyTexture(texture, tile.image, 0, tile.firstRow);
+
+            mapView.clear();
+            mapView.position(tile.firstRow * size);
+            tile.data.rewind();
+            mapView.put(tile.data);
+            layer.refreshRows(tile.firstRow, rowsPerTile);
+
+            freeTiles.add(tile);
+        }
+    }
+
+    /**
+     * Enable or disable this state. The worker thread runs only while the
+     * state is both enabled and initialized.
+     *
+     * @param newState true to enable, false to disable
+     */
+    @Override
+    public void setEnabled(boolean newState) {
+        super.setEnabled(newState);
+        if (!isInitialized()) {
+            return;
+        }
+        if (newState) {
+            startWorker();
+        } else {
+            stopWorker();
+        }
+    }
+
+    /**
+     * Advance the evolution. Invoked once per frame.
+     *
+     * @param elapsedTime since the previous update (in seconds, &ge;0)
+     */
+    @Override
+    public void update(float elapsedTime) {
+        super.update(elapsedTime);
+        progress += elapsedTime / keyframeDuration;
+    }
+    // *************************************************************************
+    // private methods
+
+    /**
+     * Generate the noise levels of the indexed keyframe on the current thread.
+     *
+     * @param keyframeIndex index of the keyframe (&ge;0)
+     * @return new array of levels, row by row
+     */
+    private float[] generateKeyframe(long keyframeIndex) {
+        CloudMapGenerator keyGenerator =
+                generator.withSeed(generator.getSeed() + keyframeIndex);
+        float[] result = new float[size * size];
+        float[] rowLevels = new float[size];
+        for (int row = 0; row < size; row++) {
+            keyGenerator.sampleLevels(row, rowLevels);
+            System.arraycopy(rowLevels, 0, result, row * size, size);
+        }
+
+        return result;
+    }
+
+    /**
+     * Start the worker thread, unless it's already running.
+     */
+    private void startWorker() {
+        if (worker != null) {
+            return;
+        }
+        worker = new Thread(new Worker(), "CloudEvolution");
+        worker.setDaemon(true);
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+    }
+
+    /**
+     * Stop the worker thread and wait for it to finish, so that it never runs
+     * concurrently with its successor.
+     */
+    private void stopWorker() {
+        if (worker == null) {
+            return;
+        }
+        worker.interrupt();
+        try {
+            worker.join();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        worker = null;
+    }
+    // *************************************************************************
+    // nested classes
+
+    /**
+     * A tile of rows in transit from the worker thread to the render thread.
+     */
+    private class Tile {
+        /**
+         * texels of the tile, row by row
+         */
+        final ByteBuffer data =
+                BufferUtils.createByteBuffer(size * rowsPerTile);
+        /**
+         * image wrapping the data, for partial uploads
+         */
+        final Image image =
+                new Image(Image.Format.Luminance8, size, rowsPerTile, data);
+        /**
+         * index of the map row corresponding to the tile's 1st row
+         */
+        int firstRow = 0;
+    }
+
+    /**
+     * The worker thread's task: alternately blend a tile of the map and
+     * generate a tile of the next keyframe, until interrupted.
+     */
+    private class Worker
+            implements Runnable {
+        /**
+         * Evolve the map until interrupted.
+         */
+        @Override
+        public void run() {
+            float[] rowLevels = new float[size];
+            CloudMapGenerator nextGenerator = null;
+            int nextRow = 0;
+            int outputRow = 0;
+
+            while (!Thread.currentThread().isInterrupted()) {
+                float weight = progress - fromIndex;
+                if (weight >= 1f && nextRow >= size) {
+                    /*
+                     * The morph is complete and the next keyframe is ready:
+                     * rotate the keyframes.
+                     */
+                    float[] recycled = fromLevels;
+                    fromLevels = toLevels;
+                    toLevels = nextLevels;
+                    nextLevels = recycled;
+                    fromIndex++;
+                    nextGenerator = null;
+                    nextRow = 0;
+                    continue;
+                }
+                if (nextRow < size) {
+                    /*
+                     * Generate a tile of the next keyframe.
+                     */
+                    if (nextGenerator == null) {
+                        long seed = generator.getSeed() + fromIndex + 2L;
+                        nextGenerator = generator.withSeed(seed);
+                    }
+                    for (int i = 0; i < rowsPerTile; i++) {
+                        nextGenerator.sampleLevels(nextRow, rowLevels);
+                        System.arraycopy(rowLevels, 0, nextLevels,
+                                nextRow * size, size);
+                        nextRow++;
+                    }
+                }
+
+                Tile tile;
+                try {
+                    tile = freeTiles.take();
+                } catch (InterruptedException exception) {
+                    break;
+                }
+                blendTile(tile, outputRow, FastMath.saturate(weight));
+                readyTiles.add(tile);
+                outputRow = (outputRow + rowsPerTile) % size;
+            }
+
+            logger.log(Level.INFO, "cloud evolution stopped");
+        }
+
+        /**
+         * Blend the current pair of keyframes into a tile.
+         *
+         * @param tile tile to fill (not null)
+         * @param firstRow index of the map row for the tile's 1st row
+         * @param weight progress of the morph (&le;1, &ge;0)
+         */
+        private void blendTile(Tile tile, int firstRow, float weight) {
+            float fade = MyMath.fade(weight);
+            float cover = coverage;
+            int texelIndex = firstRow * size;
+            int numTexels = rowsPerTile * size;
+
+            tile.firstRow = firstRow;
+            tile.data.clear();
+            for (int i = 0; i < numTexels; i++) {
+                float level = FastMath.interpolateLinear(fade,
+                        fromLevels[texelIndex], toLevels[texelIndex]);
+                float density =
+                        CloudMapGenerator.density(level, cover, sharpness);
+                tile.data.put((byte) Math.round(255f * density));
+                texelIndex++;
+            }
+            tile.data.flip();
+        }
+    }
+}
\ No newline at end of file
@@ -34,6 +34,7 @@ import com.jme3.export.JmeImporter;
 import com.jme3.export.OutputCapsule;
 import com.jme3.export.Savable;
 import com.jme3.math.ColorRGBA;
+import com.jme3.texture.Texture;
 
 import jme3utilities.Validate;
 import jme3utilities.math.MyMath;
@@ -59,6 +60,10 @@ public class CloudLayer
             Logger.getLogger(CloudLayer.class.getName());
     // *************************************************************************
     // fields
+    /**
+     * reusable color for updating the material - not serialized
+     */
+    final private ColorRGBA layerColor = new ColorRGBA();
     /**
      * opacity of the layer: 0 &rarr; transparent/cloudless, 1 &rarr; maximum
      * opacity
@@ -149,13 +154,24 @@ public class CloudLayer
         material.addClouds(layerIndex, "Textures/skies/clouds/clear.png");
     }
 
+    /**
+     * Re-read a range of rows of this layer's alpha map after they were
+     * modified in place.
+     *
+     * @param firstRow index of the 1st modified row (&ge;0)
+     * @param numRows number of modified rows (&ge;0)
+     */
+    void refreshRows(int firstRow, int numRows) {
+        material.refreshClouds(layerIndex, firstRow, numRows);
+    }
+
     /**
      * Alter the color of this layer.
      *
      * @param newColor (not null, unaffected, alpha is ignored)
      */
     public void setColor(ColorRGBA newColor) {
-        ColorRGBA layerColor = newColor.clone();
+        layerColor.set(newColor);
         layerColor.a = opacity;
 
         material.setCloudsColor(layerIndex, layerColor);
@@ -174,6 +190,10 @@ public class CloudLayer
         this.uRate = uRate;
         this.v0 = v0;
         this.vRate = vRate;
+
+        if (material.isGpuCloudMotion()) {
+            updateMotion();
+        }
     }
 
     /**
@@ -201,6 +221,28 @@ public class CloudLayer
         material.setCloudsScale(layerIndex, scale);
     }
 
+    /**
+     * Change the texture and scale of this layer to a pre-existing alpha map,
+     * such as one produced by a CloudMapGenerator.
+     *
+     * @param alphaMap the new alpha map texture (not null)
+     * @param scale texture scaling factor (&gt;0, typically &le;2)
+     */
+    public void setTexture(Texture alphaMap, float scale) {
+        Validate.nonNull(alphaMap, "texture");
+        Validate.positive(scale, "scale");
+
+        material.addClouds(layerIndex, alphaMap);
+        material.setCloudsScale(layerIndex, scale);
+    }
+
+    /**
+     * Copy this layer's motion to the material, for animation by the shaders.
+     */
+    void updateMotion() {
+        material.setCloudsMotion(layerIndex, u0, uRate, v0, vRate);
+    }
+
     /**
      * Update this layer's texture offset in the material.
      *
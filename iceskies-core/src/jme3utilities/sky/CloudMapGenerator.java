@@ -0,0 +1,531 @@
+/*
+ Copyright (c) 2014, Stephen Gold
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+ * Stephen Gold's name may not be used to endorse or promote products
+ derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL STEPHEN GOLD BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3utilities.sky;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.jme3.math.FastMath;
+import com.jme3.texture.Image;
+import com.jme3.texture.Texture;
+import com.jme3.texture.Texture2D;
+import com.jme3.util.BufferUtils;
+
+import jme3utilities.Validate;
+import jme3utilities.math.Noise;
+import jme3utilities.math.Perlin2;
+
+/**
+ * Generator for procedural cloud maps: square, tileable, grayscale textures
+ * filled with fractional Brownian motion (FBM) noise, for use as cloud layer
+ * alpha maps in place of texture assets.
+ * <p>
+ * The output depends only on the generator's parameters (including its seed),
+ * so identical generators produce identical maps. Rows are generated in
+ * parallel using fork/join. If a cache directory is set, each map is also
+ * saved to a file keyed by the parameters and re-used by later generators.
+ * <p>
+ * The base noise repeats after cellsAcross grid cells and each octave's
+ * frequency is an integer multiple of the previous one, so every map tiles
+ * seamlessly.
+ *
+ * @author Stephen Gold <sgold@sonic.net>
+ */
+public class CloudMapGenerator {
+    // *************************************************************************
+    // constants
+
+    /**
+     * version of the cache file format
+     */
+    final private static int cacheVersion = 2;
+    /**
+     * maximum number of distinct noise gradients
+     */
+    final private static int maxGradients = 64;
+    /**
+     * number of rows below which a task is not split further
+     */
+    final private static int rowsPerTask = 16;
+    /**
+     * message logger for this class
+     */
+    final private static Logger logger =
+            Logger.getLogger(CloudMapGenerator.class.getName());
+    // *************************************************************************
+    // fields
+    /**
+     * directory for cached maps, or null to disable caching
+     */
+    private File cacheDirectory = null;
+    /**
+     * fraction of the sky covered by clouds (&le;1, &ge;0): set by
+     * constructor
+     */
+    final private float coverage;
+    /**
+     * amplitude ratio between octaves (&gt;0, &lt;1): set by constructor
+     */
+    final private float gain;
+    /**
+     * reciprocal of the largest possible FBM value: set by constructor
+     */
+    final private float normalization;
+    /**
+     * steepness of the transition from clear sky to cloud (&gt;0): set by
+     * constructor
+     */
+    final private float sharpness;
+    /**
+     * number of grid cells across the map for the 1st octave (&ge;2): set by
+     * constructor
+     */
+    final private int cellsAcross;
+    /**
+     * frequency ratio between octaves (&ge;2): set by constructor
+     */
+    final private int lacunarity;
+    /**
+     * number of noise octaves (&gt;0): set by constructor
+     */
+    final private int numOctaves;
+    /**
+     * number of texels per side of the map (&gt;0): set by constructor
+     */
+    final private int size;
+    /**
+     * seed for the noise gradients and permutation: set by constructor
+     */
+    final private long seed;
+    /**
+     * base noise generator: set by constructor
+     */
+    final private Perlin2 noise;
+    // *************************************************************************
+    // constructors
+
+    /**
+     * Instantiate a generator with the specified parameters.
+     *
+     * @param size number of texels per side of the map (&gt;0)
+     * @param cellsAcross number of grid cells across the map for the 1st
+     * octave (&ge;2)
+     * @param numOctaves number of noise octaves (&gt;0)
+     * @param gain amplitude ratio between octaves (&gt;0, &lt;1)
+     * @param lacunarity frequency ratio between octaves (&ge;2)
+     * @param coverage fraction of the sky covered by clouds (&le;1, &ge;0)
+     * @param sharpness steepness of the transition from clear sky to cloud
+     * (&gt;0, typically 2 to 8)
+     * @param seed seed for the noise
+     */
+    public CloudMapGenerator(int size, int cellsAcross, int numOctaves,
+            float gain, int lacunarity, float coverage, float sharpness,
+            long seed) {
+        Validate.positive(size, "size");
+        Validate.positive(numOctaves, "octaves");
+        Validate.fraction(coverage, "coverage");
+        Validate.positive(sharpness, "sharpness");
+        if (cellsAcross < 2) {
+            logger.log(Level.SEVERE, "cellsAcross={0}", cellsAcross);
+            throw new IllegalArgumentException(
+                    "cellsAcross should be greater than 1");
+        }
+        if (!(gain > 0f && gain < 1f)) {
+            logger.log(Level.SEVERE, "gain={0}", gain);
+            throw new IllegalArgumentException(
+                    "gain should be between 0 and 1");
+        }
+        if (lacunarity < 2) {
+            logger.log(Level.SEVERE, "lacunarity={0}", lacunarity);
+            throw new IllegalArgumentException(
+                    "lacunarity should be greater than 1");
+        }
+
+        this.size = size;
+        this.cellsAcross = cellsAcross;
+        this.numOctaves = numOctaves;
+        this.gain = gain;
+        this.lacunarity = lacunarity;
+        this.coverage = coverage;
+        this.sharpness = sharpness;
+        this.seed = seed;
+
+        float maxAmplitude = 0f;
+        float amplitude = 1f;
+        for (int octave = 0; octave < numOctaves; octave++) {
+            maxAmplitude += amplitude;
+            amplitude *= gain;
+        }
+        normalization = 1f / maxAmplitude;
+        /*
+         * Derive separate seeds for the gradients and the permutation.
+         */
+        Random seedGenerator = new Random(seed);
+        long gSeed = seedGenerator.nextLong();
+        long pSeed = seedGenerator.nextLong();
+        int numGradients = Math.min(cellsAcross, maxGradients);
+        noise = new Perlin2(cellsAcross, numGradients, gSeed, pSeed);
+    }
+    // *************************************************************************
+    // new methods exposed
+
+    /**
+     * Convert a noise level to a cloud density.
+     *
+     * @param level noise level (&le;1, &ge;0)
+     * @param coverage fraction of the sky covered by clouds (&le;1, &ge;0)
+     * @param sharpness steepness of the transition from clear sky to cloud
+     * (&gt;0)
+     * @return density (&le;1, &ge;0)
+     */
+    static float density(float level, float coverage, float sharpness) {
+        /*
+         * Threshold the level so that the requested fraction of the map is
+         * cloudy.
+         */
+        float result = (level - 1f + coverage) * sharpness;
+        result = FastMath.saturate(result);
+
+        return result;
+    }
+
+    /**
+     * Generate a map (or load it from the cache) as a single-channel image.
+     *
+     * @return new image in Luminance8 format
+     */
+    public Image generateImage() {
+        byte[] texels = null;
+        String key = cacheKey();
+        File cacheFile = null;
+        if (cacheDirectory != null) {
+            cacheFile = DataCache.file(cacheDirectory, "clouds", key);
+            texels = DataCache.read(cacheFile, cacheVersion, key, size * size);
+        }
+        if (texels == null) {
+            texels = new byte[size * size];
+            generateRows(texels, 0, size);
+            if (cacheFile != null) {
+                DataCache.write(cacheFile, "clouds", cacheVersion, key, texels);
+            }
+        }
+
+        ByteBuffer data = BufferUtils.createByteBuffer(texels);
+        Image result = new Image(Image.Format.Luminance8, size, size, data);
+
+        return result;
+    }
+
+    /**
+     * Generate a range of rows of the map in parallel, bypassing the cache.
+     *
+     * @param store array to fill, row by row (not null,
+     * length&ge;size*size, modified)
+     * @param firstRow index of the 1st row to generate (&ge;0)
+     * @param numRows number of rows to generate (&ge;0, firstRow+numRows
+     * &le;size)
+     */
+    public void generateRows(byte[] store, int firstRow, int numRows) {
+        Validate.nonNull(store, "array");
+        Validate.nonNegative(firstRow, "row");
+        Validate.nonNegative(numRows, "number of rows");
+        if (firstRow + numRows > size) {
+            logger.log(Level.SEVERE, "firstRow={0}, numRows={1}, size={2}",
+                    new Object[]{firstRow, numRows, size});
+            throw new IllegalArgumentException("rows out of range");
+        }
+        if (store.length < size * size) {
+            logger.log(Level.SEVERE, "length={0}, size={1}",
+                    new Object[]{store.length, size});
+            throw new IllegalArgumentException("array too short for the map");
+        }
+
+        RowTask task = new RowTask(store, firstRow, firstRow + numRows);
+        Constants.forkJoinPool.invoke(task);
+    }
+
+    /**
+     * Generate a map (or load it from the cache) as a repeating texture,
+     * suitable for CloudLayer.setTexture().
+     *
+     * @return new texture
+     */
+    public Texture2D generateTexture() {
+        Image image = generateImage();
+        Texture2D result = new Texture2D(image);
+        result.setWrap(Texture.WrapMode.Repeat);
+
+        return result;
+    }
+
+    /**
+     * Read the fraction of the sky covered by clouds.
+     *
+     * @return fraction (&le;1, &ge;0)
+     */
+    public float getCoverage() {
+        assert coverage >= 0f : coverage;
+        assert coverage <= 1f : coverage;
+        return coverage;
+    }
+
+    /**
+     * Read the seed for the noise.
+     *
+     * @return seed
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Read the steepness of the transition from clear sky to cloud.
+     *
+     * @return sharpness (&gt;0)
+     */
+    public float getSharpness() {
+        assert sharpness > 0f : sharpness;
+        return sharpness;
+    }
+
+    /**
+     * Read the number of texels per side of the map.
+     *
+     * @return size (&gt;0)
+     */
+    public int getSize() {
+        assert size > 0 : size;
+        return size;
+    }
+
+    /**
+     * Sample the noise levels of a single row, sampling at the center of each
+     * texel. Thread-safe.
+     *
+     * @param row index of the row (&ge;0, &lt;size)
+     * @param store array to fill (not null, length&ge;size, modified)
+     */
+    void sampleLevels(int row, float[] store) {
+        assert row >= 0 : row;
+        assert row < size : row;
+        assert store != null;
+        assert store.length >= size : store.length;
+
+        float spacing = (float) cellsAcross / size;
+        float x0 = 0.5f * spacing;
+        float y = (row + 0.5f) * spacing;
+        Noise.fbmGrid(noise, x0, y, spacing, 0f, size, 1, numOctaves, 1f,
+                gain, lacunarity, store);
+        /*
+         * Map the noise to [0, 1].
+         */
+        for (int column = 0; column < size; column++) {
+            store[column] = 0.5f + 0.5f * store[column] * normalization;
+        }
+    }
+
+    /**
+     * Alter the directory for cached maps.
+     *
+     * @param newDirectory an existing, writable directory, or null to disable
+     * caching
+     */
+    public void setCacheDirectory(File newDirectory) {
+        cacheDirectory = newDirectory;
+    }
+
+    /**
+     * Create a generator which differs from this one only in its seed. The
+     * cache directory is shared.
+     *
+     * @param newSeed seed for the new generator's noise
+     * @return new instance
+     */
+    public CloudMapGenerator withSeed(long newSeed) {
+        CloudMapGenerator result = new CloudMapGenerator(size, cellsAcross,
+                numOctaves, gain, lacunarity, coverage, sharpness, newSeed);
+        result.setCacheDirectory(cacheDirectory);
+
+        return result;
+    }
+    // *************************************************************************
+    // private methods
+
+    /**
+     * Generate the key which identifies this generator's maps in the cache.
+     *
+     * @return new string
+     */
+    private String cacheKey() {
+        String result = String.format(
+                "size=%d cells=%d octaves=%d gain=%s lacunarity=%d "
+                + "coverage=%s sharpness=%s seed=%d",
+                size, cellsAcross, numOctaves, Float.toString(gain),
+                lacunarity, Float.toString(coverage),
+                Float.toString(sharpness), seed);
+        return result;
+    }
+
+    // *************************************************************************
+    // nested classes
+
+    /**
+     * Fork/join task to generate a range of rows, splitting the range in half
+     * until it's small.
+     */
+    private class RowTask
+            extends RecursiveAction {
+        /**
+         * version number for serialization
+         */
+        static final long serialVersionUID = 1L;
+        /**
+         * array of texels being filled (not null)
+         */
+        final private byte[] store;
+        /**
+         * index of the 1st row in the range
+         */
+        final private int firstRow;
+        /**
+         * index of the row just after the range
+         */
+        final private int endRow;
+
+        /**
+         * Instantiate a task for the specified range of rows.
+         *
+         * @param store array of texels to fill (not null)
+         * @param firstRow index of the 1st row (&ge;0)
+         * @param endRow index of the row just after the range (&ge;firstRow)
+         */
+        RowTask(byte[] store, int firstRow, int endRow) {
+            assert store != null;
+            assert firstRow >= 0 : firstRow;
+            assert endRow >= firstRow : endRow;
+
+            this.store = store;
+            this.firstRow = firstRow;
+            this.endRow = endRow;
+        }
+
+        /**
+         * Generate the rows, either directly or by splitting the range.
+         */
+        @Override
+        protected void compute() {
+            int numRows = endRow - firstRow;
+            if (numRows <= rowsPerTask) {
+                float[] levels = new float[size];
+                for (int row = firstRow; row < endRow; row++) {
+                    generateRow(row, levels);
+                }
+            } else {
+                int middleRow = firstRow + numRows / 2;
+                invokeAll(new RowTask(store, firstRow, middleRow),
+                        new RowTask(store, middleRow, endRow));
+            }
+        }
+
+        /**
+         * Generate a single row, sampling at the center of each texel.
+         *
+         * @param row index of the row (&ge;0, &lt;size)
+         * @param levels array for noise levels (not null, length&ge;size,
+         * modified)
+         */
+        private void generateRow(int row, float[] levels) {
+            sampleLevels(row, levels);
+
+            int texelIndex = row * size;
+            for (int column = 0; column < size; column++) {
+                float density = density(levels[column], coverage, sharpness);
+                store[texelIndex] = (byte) Math.round(255f * density);
+                texelIndex++;
+            }
+        }
+    }
+    // *************************************************************************
+    // test cases
+
+    /**
+     * A console application to test this class: check that generation is
+     * deterministic, that the maps tile, and that the cache round-trips.
+     *
+     * @param ignored
+     * @throws IOException if the temporary cache directory can't be created
+     */
+    public static void main(String[] ignored)
+            throws IOException {
+        logger.setLevel(Level.INFO);
+        System.out.print("Test results for class CloudMapGenerator:\n\n");
+
+        int size = 256;
+        CloudMapGenerator first =
+                new CloudMapGenerator(size, 8, 6, 0.5f, 2, 0.5f, 4f, 12345L);
+        CloudMapGenerator second =
+                new CloudMapGenerator(size, 8, 6, 0.5f, 2, 0.5f, 4f, 12345L);
+        byte[] texels1 = new byte[size * size];
+        byte[] texels2 = new byte[size * size];
+        long startTime = System.nanoTime();
+        first.generateRows(texels1, 0, size);
+        long elapsedNanos = System.nanoTime() - startTime;
+        second.generateRows(texels2, 0, size);
+        System.out.printf("generated %dx%d map in %.1f msec%n", size, size,
+                elapsedNanos * 1e-6);
+        System.out.printf("deterministic: %s%n",
+                Arrays.equals(texels1, texels2));
+        /*
+         * Compare the step across the seam with typical steps inside the map.
+         */
+        int maxSeamStep = 0;
+        int maxInnerStep = 0;
+        for (int row = 0; row < size; row++) {
+            int left = texels1[row * size] & 0xff;
+            int right = texels1[row * size + size - 1] & 0xff;
+            int next = texels1[row * size + 1] & 0xff;
+            maxSeamStep = Math.max(maxSeamStep, Math.abs(left - right));
+            maxInnerStep = Math.max(maxInnerStep, Math.abs(left - next));
+        }
+        System.out.printf("max step across seam = %d, inside map = %d%n",
+                maxSeamStep, maxInnerStep);
+
+        File cacheDirectory = Files.createTempDirectory("clouds").toFile();
+        first.setCacheDirectory(cacheDirectory);
+        second.setCacheDirectory(cacheDirectory);
+        Image generated = first.generateImage();
+        Image cached = second.generateImage();
+        boolean match = generated.getData(0).equals(cached.getData(0));
+        System.out.printf("cache round-trip: %s%n", match);
+    }
+}
\ No newline at end of file
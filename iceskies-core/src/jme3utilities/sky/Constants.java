@@ -25,6 +25,8 @@
  */
 package jme3utilities.sky;
 
+import java.util.concurrent.ForkJoinPool;
+
 import com.jme3.math.FastMath;
 import com.jme3.math.Vector2f;
 
@@ -84,10 +86,19 @@ final public class Constants {
      * the duration of a full day (in hours)
      */
     final public static int hoursPerDay = 24;
+    /**
+     * maximum number of cloud layers
+     */
+    final static int numCloudLayers = 6;
     /**
      * texture coordinates of the top of a DomeMesh
      */
     final public static Vector2f topUV = new Vector2f(topU, topV);
+    /**
+     * fork/join pool shared by all parallel computations in this package, so
+     * that they don't compete with one another for cores
+     */
+    final static ForkJoinPool forkJoinPool = new ForkJoinPool();
     // *************************************************************************
     // constructors
 
@@ -0,0 +1,167 @@
+/*
+ Copyright (c) 2014, Stephen Gold
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+ * Stephen Gold's name may not be used to endorse or promote products
+ derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL STEPHEN GOLD BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3utilities.sky;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Utility methods to read and write the files used to cache generated data,
+ * such as cloud maps and scattering tables.
+ * <p>
+ * Each file starts with a format version and a key string which identifies
+ * the generator's parameters, followed by the data. A file is only used if
+ * both match. New files are written to a temporary file and then moved into
+ * place, so that other processes never see a partial file.
+ *
+ * @author Stephen Gold <sgold@sonic.net>
+ */
+final class DataCache {
+    // *************************************************************************
+    // constants
+
+    /**
+     * message logger for this class
+     */
+    final private static Logger logger =
+            Logger.getLogger(DataCache.class.getName());
+    // *************************************************************************
+    // constructors
+
+    /**
+     * A private constructor to inhibit instantiation of this class.
+     */
+    private DataCache() {
+    }
+    // *************************************************************************
+    // new methods exposed
+
+    /**
+     * Locate the cache file for the specified kind of data and key.
+     *
+     * @param directory cache directory (not null)
+     * @param prefix prefix for the file name and temporary files (not null,
+     * at least 3 characters)
+     * @param key string which identifies the data (not null)
+     * @return new file
+     */
+    static File file(File directory, String prefix, String key) {
+        assert directory != null;
+        assert prefix != null;
+        assert prefix.length() >= 3 : prefix;
+        assert key != null;
+
+        String name = String.format("%s-%08x.bin", prefix, key.hashCode());
+        File result = new File(directory, name);
+
+        return result;
+    }
+
+    /**
+     * Read data from a cache file.
+     *
+     * @param cacheFile (not null)
+     * @param version expected version of the file format
+     * @param key expected key (not null)
+     * @param numBytes expected size of the data (in bytes, &ge;0)
+     * @return new array of data, or null if the file is missing, unreadable,
+     * or doesn't match
+     */
+    static byte[] read(File cacheFile, int version, String key, int numBytes) {
+        assert cacheFile != null;
+        assert key != null;
+        assert numBytes >= 0 : numBytes;
+
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+        byte[] result = null;
+        try (DataInputStream stream = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(cacheFile)))) {
+            int fileVersion = stream.readInt();
+            String fileKey = stream.readUTF();
+            if (fileVersion == version && fileKey.equals(key)) {
+                result = new byte[numBytes];
+                stream.readFully(result);
+            }
+        } catch (IOException exception) {
+            logger.log(Level.WARNING, "failed to read cached data from {0}",
+                    cacheFile);
+            result = null;
+        }
+
+        return result;
+    }
+
+    /**
+     * Write data to a cache file, replacing any existing file.
+     *
+     * @param cacheFile (not null)
+     * @param prefix prefix for the temporary file (not null, at least 3
+     * characters)
+     * @param version version of the file format
+     * @param key string which identifies the data (not null)
+     * @param data data to write (not null, unaffected)
+     */
+    static void write(File cacheFile, String prefix, int version, String key,
+            byte[] data) {
+        assert cacheFile != null;
+        assert prefix != null;
+        assert prefix.length() >= 3 : prefix;
+        assert key != null;
+        assert data != null;
+
+        File directory = cacheFile.getParentFile();
+        File tempFile = null;
+        try {
+            tempFile = File.createTempFile(prefix, ".tmp", directory);
+            try (DataOutputStream stream = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                stream.writeInt(version);
+                stream.writeUTF(key);
+                stream.write(data);
+            }
+            Files.move(tempFile.toPath(), cacheFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException exception) {
+            logger.log(Level.WARNING, "failed to cache data in {0}",
+                    cacheFile);
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+}
\ No newline at end of file
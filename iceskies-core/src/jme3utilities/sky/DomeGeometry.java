@@ -0,0 +1,81 @@
+/*
+ Copyright (c) 2014, Stephen Gold
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+ * Stephen Gold's name may not be used to endorse or promote products
+ derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL STEPHEN GOLD BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3utilities.sky;
+
+/**
+ * Immutable vertex data for a DomeMesh, shared by all meshes generated from the
+ * same parameters.
+ * <p>
+ * The arrays must not be modified after construction.
+ *
+ * @author Stephen Gold <sgold@sonic.net>
+ */
+final class DomeGeometry {
+    // *************************************************************************
+    // fields
+    /**
+     * local coordinates of each vertex (3 floats per vertex)
+     */
+    final float[] locations;
+    /**
+     * normal vector of each vertex (3 floats per vertex)
+     */
+    final float[] normals;
+    /**
+     * texture coordinates of each vertex (2 floats per vertex)
+     */
+    final float[] texCoords;
+    /**
+     * vertex indices of each triangle (3 shorts per triangle)
+     */
+    final short[] indices;
+    // *************************************************************************
+    // constructors
+
+    /**
+     * Instantiate a set of vertex data. The arrays are used directly, not
+     * copied.
+     *
+     * @param locations local coordinates of each vertex (not null)
+     * @param normals normal vector of each vertex (not null)
+     * @param texCoords texture coordinates of each vertex (not null)
+     * @param indices vertex indices of each triangle (not null)
+     */
+    DomeGeometry(float[] locations, float[] normals, float[] texCoords,
+            short[] indices) {
+        assert locations != null;
+        assert normals != null;
+        assert normals.length == locations.length : normals.length;
+        assert texCoords != null;
+        assert 3 * texCoords.length == 2 * locations.length : texCoords.length;
+        assert indices != null;
+
+        this.locations = locations;
+        this.normals = normals;
+        this.texCoords = texCoords;
+        this.indices = indices;
+    }
+}
\ No newline at end of file
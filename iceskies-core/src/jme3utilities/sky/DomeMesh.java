@@ -28,6 +28,9 @@ package jme3utilities.sky;
 import java.io.IOException;
 import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -66,15 +69,57 @@ public class DomeMesh
     // *************************************************************************
     // constants
 
+    /**
+     * number of intervals in the direction lookup table
+     */
+    final private static int lookupIntervals = 1024;
     /**
      * number of vertices per triangle
      */
     final private static int vpt = 3;
+    /**
+     * lowest Y-coordinate covered by the direction lookup table: further below
+     * the equator, the tabulated function grows too steeply to interpolate, so
+     * directionUV() computes those directions exactly
+     */
+    final private static float lookupMinY = -0.75f;
+    /**
+     * upper bound on the UV error of directionUV() when the lookup table is
+     * used, for unit-length directions, per unit of uvScale: the error is
+     * dominated by rounding in directions near the top, where the XZ length
+     * of a normalized vector disagrees slightly with its Y-coordinate, so it
+     * grows with uvScale and doesn't shrink with a larger table
+     */
+    final public static float lookupErrorPerUVScale = 3e-5f;
+    /**
+     * direction lookup table: acos(y)/sqrt(1-y^2) sampled at equal intervals
+     * of y from lookupMinY to 1, so that directionUV() needs neither inverse
+     * trig nor a square root
+     */
+    final private static float[] lookupTable = createLookupTable();
     /**
      * message logger for this class
      */
     final private static Logger logger =
             Logger.getLogger(DomeMesh.class.getName());
+    /**
+     * maximum number of entries in the geometry cache
+     */
+    final private static int maxCachedGeometries = 32;
+    /**
+     * process-wide cache of vertex data, keyed by the parameters which
+     * determine it, so that identical domes share their trigonometry: access
+     * must be synchronized on the cache
+     */
+    final private static Map<String, DomeGeometry> geometryCache =
+            new LinkedHashMap<String, DomeGeometry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(
+                Map.Entry<String, DomeGeometry> eldest) {
+            boolean result = size() > maxCachedGeometries;
+            return result;
+        }
+    };
     // *************************************************************************
     // fields
     /**
@@ -82,6 +127,11 @@ public class DomeMesh
      * of a dome
      */
     protected boolean complete;
+    /**
+     * if true, directionUV() interpolates in a lookup table; if false, it
+     * computes texture coordinates exactly
+     */
+    protected boolean directionLookup = false;
     /**
      * if true, vertex normals point inward; if false, they point outward
      */
@@ -200,6 +250,74 @@ public class DomeMesh
     // *************************************************************************
     // new methods exposed
 
+    /**
+     * Compute the texture coordinates where a ray from the observer meets a
+     * cloud dome that's been flattened and offset vertically (as in
+     * SkyControlCore), assuming the dome uses the texture coordinate-system of
+     * DomeMesh(int, int). Both SkyControl and SkySimulation locate lights on
+     * their clouds this way.
+     *
+     * @param x X-component of the ray's direction (length=1)
+     * @param y Y-component of the ray's direction (length=1, &ge;0)
+     * @param z Z-component of the ray's direction (length=1)
+     * @param deltaY vertical offset of the dome's center (&le;0,
+     * &gt;-semiMinorAxis)
+     * @param semiMinorAxis vertical scale of the dome (&gt;0)
+     * @param storeResult (not null, modified)
+     * @return texture coordinates (storeResult)
+     */
+    public static Vector2f cloudDomeUV(float x, float y, float z,
+            float deltaY, float semiMinorAxis, Vector2f storeResult) {
+        Validate.nonNegative(y, "y");
+        Validate.positive(semiMinorAxis, "semi-minor axis");
+        if (!(deltaY <= 0f && deltaY > -semiMinorAxis)) {
+            logger.log(Level.SEVERE, "deltaY={0}", deltaY);
+            throw new IllegalArgumentException(
+                    "deltaY should be between -semiMinorAxis and 0");
+        }
+        Validate.nonNull(storeResult, "store result");
+
+        double cosSquared = MyMath.sumOfSquares(x, z);
+        if (cosSquared == 0.0) {
+            /*
+             * Special case for a ray directly overhead.
+             */
+            return storeResult.set(Constants.topU, Constants.topV);
+        }
+        /*
+         * A point on the unflattened mesh at distance w from the Y-axis
+         * lies at height sqrt(1 - w^2) * semiMinorAxis + deltaY in the sky.
+         * Solve for the most positive root of the resulting quadratic
+         * equation in w.  Use double precision arithmetic.
+         */
+        double cosAltitude = Math.sqrt(cosSquared);
+        double tanAltitude = y / cosAltitude;
+        double smaSquared = semiMinorAxis * semiMinorAxis;
+        double a = tanAltitude * tanAltitude + smaSquared;
+        double b = -2.0 * deltaY * tanAltitude;
+        double c = deltaY * deltaY - smaSquared;
+        double discriminant = MyMath.discriminant(a, b, c);
+        assert discriminant >= 0.0 : discriminant;
+        double w = (-b + Math.sqrt(discriminant)) / (2.0 * a);
+        if (w > 1.0) {
+            /*
+             * Squash rounding errors.
+             */
+            w = 1.0;
+        }
+        /*
+         * The point is on the upper half of the mesh, so its angle from
+         * the top is asin(w), and its azimuth is that of the ray.
+         */
+        double uvDistance = Constants.uvScale * Math.asin(w) / FastMath.HALF_PI;
+        double uvPerXZ = uvDistance / cosAltitude;
+        float u = (float) (Constants.topU + uvPerXZ * x);
+        float v = (float) (Constants.topV - uvPerXZ * z);
+        Vector2f result = storeResult.set(u, v);
+
+        return result;
+    }
+
     /**
      * Compute the texture coordinate of a point on this mesh that's in the
      * specified direction from the center of the mesh.
@@ -208,6 +326,24 @@ public class DomeMesh
      * @return new vector, or null if direction is too far below the equator
      */
     public Vector2f directionUV(Vector3f direction) {
+        Vector2f result = directionUV(direction, null);
+        return result;
+    }
+
+    /**
+     * Compute the texture coordinate of a point on this mesh that's in the
+     * specified direction from the center of the mesh, storing the result in an
+     * optional existing vector.
+     * <p>
+     * If the lookup table is enabled, the result is within maxLookupError()
+     * of the exact value.
+     *
+     * @param direction (length=1, unaffected)
+     * @param storeResult (modified if not null and the result is not null)
+     * @return texture coordinates (either storeResult or a new vector), or null
+     * if direction is too far below the equator
+     */
+    public Vector2f directionUV(Vector3f direction, Vector2f storeResult) {
         Validate.nonNull(direction, "direction");
         if (!direction.isUnitVector()) {
             logger.log(Level.SEVERE, "direction={0}", direction);
@@ -215,6 +351,31 @@ public class DomeMesh
                     "direction should have length=1");
         }
 
+        if (directionLookup && direction.y >= lookupMinY) {
+            /*
+             * For a unit vector, the UV distance from the top divided by
+             * the XZ distance depends only on Y.
+             */
+            float y = Math.min(direction.y, 1f);
+            float position = (y - lookupMinY)
+                    * (lookupIntervals / (1f - lookupMinY));
+            int index = Math.min((int) position, lookupIntervals - 1);
+            float fraction = position - index;
+            float ratio = lookupTable[index]
+                    + fraction * (lookupTable[index + 1] - lookupTable[index]);
+            float uvPerXZ = uvScale * ratio / FastMath.HALF_PI;
+            float u = topU + uvPerXZ * direction.x;
+            float v = topV - uvPerXZ * direction.z;
+            if (u < Constants.uvMin || u > Constants.uvMax
+                    || v < Constants.uvMin || v > Constants.uvMax) {
+                return null;
+            }
+            if (storeResult == null) {
+                return new Vector2f(u, v);
+            }
+            return storeResult.set(u, v);
+        }
+
         float angleFromTop = FastMath.acos(direction.y);
         float uvDistance = uvScale * angleFromTop / FastMath.HALF_PI;
 
@@ -228,7 +389,10 @@ public class DomeMesh
             if (direction.y < 0f) {
                 return null;
             } else { // top
-                return new Vector2f(topU, topV);
+                if (storeResult == null) {
+                    return new Vector2f(topU, topV);
+                }
+                return storeResult.set(topU, topV);
             }
         }
         float cosLongitude = x / xzDistance;
@@ -239,7 +403,10 @@ public class DomeMesh
                 || v > Constants.uvMax) {
             return null;
         }
-        return new Vector2f(u, v);
+        if (storeResult == null) {
+            return new Vector2f(u, v);
+        }
+        return storeResult.set(u, v);
     }
 
     /**
@@ -263,6 +430,29 @@ public class DomeMesh
         return elevationAngle;
     }
 
+    /**
+     * Compute the upper bound on the UV error of directionUV() when the
+     * lookup table is enabled.
+     *
+     * @return bound (&gt;0)
+     */
+    public float maxLookupError() {
+        float result = lookupErrorPerUVScale * uvScale;
+
+        assert result > 0f : result;
+        return result;
+    }
+
+    /**
+     * Enable or disable the lookup table used by directionUV().
+     *
+     * @param newState true to interpolate in the table (faster, but with
+     * errors up to maxLookupError()), false to compute exactly
+     */
+    public void setDirectionLookup(boolean newState) {
+        directionLookup = newState;
+    }
+
     /**
      * Regenerate the mesh for a new segment angle: 2*Pi produces a complete
      * dome, and Pi results in a quarter of a dome, and so on.
@@ -311,6 +501,7 @@ public class DomeMesh
 
         InputCapsule capsule = importer.getCapsule(this);
 
+        directionLookup = capsule.readBoolean("directionLookup", false);
         inwardFacing = capsule.readBoolean("inwardFacing", true);
         quadrantSamples = capsule.readInt("quadrantSamples", 2);
         rimSamples = capsule.readInt("rimSamples", 3);
@@ -337,6 +528,7 @@ public class DomeMesh
 
         OutputCapsule capsule = exporter.getCapsule(this);
 
+        capsule.write(directionLookup, "directionLookup", false);
         capsule.write(inwardFacing, "inwardFacing", true);
         capsule.write(quadrantSamples, "quadrantSamples", 2);
         capsule.write(rimSamples, "rimSamples", 3);
@@ -350,38 +542,38 @@ public class DomeMesh
     // private methods
 
     /**
-     * Rebuild this dome after a parameter change.
+     * Tabulate acos(y)/sqrt(1-y^2) for the direction lookup table. The
+     * function approaches 1 as y approaches 1.
+     *
+     * @return new array of lookupIntervals+1 values
      */
-    private void updateAll() {
-        /*
-         * Recompute the derived properties.
-         */
-        updateDerivedProperties();
-        /*
-         * Update each buffer.
-         */
-        updateCoordinates();
-        updateIndices();
-        updateNormals();
-        /*
-         * Update the bounds of the mesh.
-         */
-        updateBound();
+    private static float[] createLookupTable() {
+        float[] result = new float[lookupIntervals + 1];
+        for (int index = 0; index < lookupIntervals; index++) {
+            double y = lookupMinY
+                    + (1.0 - lookupMinY) * index / lookupIntervals;
+            result[index] = (float) (Math.acos(y) / Math.sqrt(1.0 - y * y));
+        }
+        result[lookupIntervals] = 1f;
+
+        return result;
     }
 
     /**
-     * Update the buffered locations and texture coordinates of each vertex in
-     * this dome.
+     * Generate vertex data for the current parameters of this dome.
+     *
+     * @return new instance
      */
-    private void updateCoordinates() {
-        /*
-         * Allocate an array to hold the local (XYZ) coordinates.
-         */
-        Vector3f[] locationArray = new Vector3f[vertexCount];
+    private DomeGeometry generateGeometry() {
+        float[] locations = new float[3 * vertexCount];
+        float[] normals = new float[3 * vertexCount];
+        float[] texCoords = new float[2 * vertexCount];
         /*
-         * Allocate an array to hold the texture (UV) coordinates.
+         * The normal at each vertex is simply its local coordinates (for an
+         * outward facing dome) or the negative of its local coordinates (for
+         * an inward facing dome).
          */
-        Vector2f[] texCoordArray = new Vector2f[vertexCount];
+        float normalSign = inwardFacing ? -1f : 1f;
         /*
          * Compute the non-polar vertices 1st. Vertices are arranged 1st
          * by latitude (starting from the rim).
@@ -398,6 +590,8 @@ public class DomeMesh
                     + quadHeight * parallel;
             float y = FastMath.sin(latitude);
             float xzDistance = FastMath.cos(latitude);
+            float angleFromTop = FastMath.HALF_PI - latitude;
+            float uvDistance = uvScale * angleFromTop / FastMath.HALF_PI;
             /*
              * Within each latitude, vertices are arranged by longitude
              * (starting from the +X meridian and proceeding counterclockwise
@@ -411,62 +605,49 @@ public class DomeMesh
                 float z = xzDistance * sinLongitude;
 
                 int vertexIndex = parallel * rimSamples + meridian;
-                logger.log(Level.FINE, "coords {0}", vertexIndex);
-                Vector3f location = new Vector3f(x, y, z);
-                locationArray[vertexIndex] = location;
-
-                Vector2f uv = directionUV(location);
-                texCoordArray[vertexIndex] = uv;
+                int base3 = 3 * vertexIndex;
+                locations[base3] = x;
+                locations[base3 + 1] = y;
+                locations[base3 + 2] = z;
+                normals[base3] = normalSign * x;
+                normals[base3 + 1] = normalSign * y;
+                normals[base3 + 2] = normalSign * z;
+                /*
+                 * Vertices which map outside the texture get (0,0),
+                 * same as the mesh has always done.
+                 */
+                float u = topU + uvDistance * cosLongitude;
+                float v = topV - uvDistance * sinLongitude;
+                if (u >= Constants.uvMin && u <= Constants.uvMax
+                        && v >= Constants.uvMin && v <= Constants.uvMax) {
+                    int base2 = 2 * vertexIndex;
+                    texCoords[base2] = u;
+                    texCoords[base2 + 1] = v;
+                }
             }
         }
         /*
          * The final vertex is at the top.
          */
         int topIndex = vertexCount - 1;
-        logger.log(Level.INFO, "coords {0}", topIndex);
-        locationArray[topIndex] = new Vector3f(0f, 1f, 0f);
-        texCoordArray[topIndex] = new Vector2f(topU, topV);
-        /*
-         * Allocate and assign buffers for locations and texture coordinates.
-         */
-        FloatBuffer locBuffer = BufferUtils.createFloatBuffer(locationArray);
-        setBuffer(VertexBuffer.Type.Position, 3, locBuffer);
-        FloatBuffer tcBuffer = BufferUtils.createFloatBuffer(texCoordArray);
-        setBuffer(VertexBuffer.Type.TexCoord, 2, tcBuffer);
-    }
+        locations[3 * topIndex + 1] = 1f;
+        normals[3 * topIndex + 1] = normalSign;
+        texCoords[2 * topIndex] = topU;
+        texCoords[2 * topIndex + 1] = topV;
 
-    /**
-     * Update some basic properties of the mesh: complete, triangleCount, and
-     * vertexCount.
-     */
-    private void updateDerivedProperties() {
-        if (rimSamples < 3) {
-            logger.log(Level.SEVERE, "rimSamples={0}", rimSamples);
-            throw new IllegalStateException(
-                    "need at least 3 samples on the rim");
-        }
-        if (quadrantSamples < 2) {
-            logger.log(Level.SEVERE, "quadrantSamples={0}", quadrantSamples);
-            throw new IllegalStateException("need at least "
-                    + "2 samples per longitudinal quadrant");
-        }
+        short[] indices = generateIndices();
+        DomeGeometry result =
+                new DomeGeometry(locations, normals, texCoords, indices);
 
-        complete = (segmentAngle > 1.999f * FastMath.PI);
-
-        int quadsPerGore = quadrantSamples - 2;
-        int trianglesPerGore = 2 * quadsPerGore + 1;
-        triangleCount = trianglesPerGore * rimSamples;
-        logger.log(Level.INFO, "{0} triangles", triangleCount);
-
-        vertexCount = (quadrantSamples - 1) * rimSamples + 1;
-        logger.log(Level.INFO, "{0} vertices", vertexCount);
-        assert vertexCount <= Short.MAX_VALUE : vertexCount;
+        return result;
     }
 
     /**
-     * Update the buffered indices of each triangle in this dome.
+     * Generate the vertex indices of each triangle in this dome.
+     *
+     * @return new array
      */
-    private void updateIndices() {
+    private short[] generateIndices() {
         /*
          * Allocate an array to hold the three vertex indices of each triangle.
          */
@@ -504,8 +685,7 @@ public class DomeMesh
                  */
                 int triIndex = 2 * v0Index;
                 int baseIndex = vpt * triIndex;
-                logger.log(Level.FINE, "index {0}", triIndex);
-                indexArray[vpt * triIndex] = (short) v0Index;
+                indexArray[baseIndex] = (short) v0Index;
                 if (inwardFacing) {
                     indexArray[baseIndex + 1] = (short) v1Index;
                     indexArray[baseIndex + 2] = (short) v3Index;
@@ -516,7 +696,6 @@ public class DomeMesh
 
                 triIndex++;
                 baseIndex = vpt * triIndex;
-                logger.log(Level.FINE, "index {0}", triIndex);
                 indexArray[baseIndex] = (short) v0Index;
                 if (inwardFacing) {
                     indexArray[baseIndex + 1] = (short) v3Index;
@@ -541,7 +720,6 @@ public class DomeMesh
 
             int triIndex = 2 * quadsPerGore * rimSamples + meridian;
             int baseIndex = vpt * triIndex;
-            logger.log(Level.FINE, "index {0}", triIndex);
             indexArray[baseIndex] = (short) v0Index;
             if (inwardFacing) {
                 indexArray[baseIndex + 1] = (short) v1Index;
@@ -551,46 +729,194 @@ public class DomeMesh
                 indexArray[baseIndex + 2] = (short) v1Index;
             }
         }
-        /*
-         * Allocate and assign a buffer for indices.
-         */
-        ShortBuffer indexBuffer = BufferUtils.createShortBuffer(indexArray);
-        setBuffer(VertexBuffer.Type.Index, vpt, indexBuffer);
+
+        return indexArray;
     }
 
     /**
-     * Update the buffered vertex normals of each vertex in this dome.
-     * <p>
-     * Assumes that the coordinates have already been updated.
+     * Find the vertex data for the current parameters of this dome in the
+     * process-wide cache, generating (and caching) it if necessary.
+     *
+     * @return shared instance (not null)
      */
-    private void updateNormals() {
+    private DomeGeometry lookupGeometry() {
+        String key = String.format("%d %d %s %s %s %s %s %b", rimSamples,
+                quadrantSamples, Float.toString(verticalAngle),
+                Float.toString(segmentAngle), Float.toString(topU),
+                Float.toString(topV), Float.toString(uvScale), inwardFacing);
+
+        DomeGeometry result;
+        synchronized (geometryCache) {
+            result = geometryCache.get(key);
+        }
+        if (result == null) {
+            /*
+             * Generate outside the lock. If another thread generates the
+             * same data meanwhile, the duplicate is harmless.
+             */
+            result = generateGeometry();
+            synchronized (geometryCache) {
+                geometryCache.put(key, result);
+            }
+        } else {
+            logger.log(Level.FINE, "reused cached geometry {0}", key);
+        }
+
+        return result;
+    }
+
+    /**
+     * Rebuild this dome after a parameter change.
+     */
+    private void updateAll() {
         /*
-         * Allocate an array to hold the normal of each vertex.
+         * Recompute the derived properties.
          */
-        Vector3f[] normalArray = new Vector3f[vertexCount];
+        updateDerivedProperties();
         /*
-         * Compute the normal at each vertex, which is simply its local
-         * coordinates (for an outward facing dome) or the negative of its local
-         * coordinates (for an inward facing dome).
+         * Update each buffer from the (possibly cached) vertex data.
          */
-        FloatBuffer locationBuffer = getFloatBuffer(VertexBuffer.Type.Position);
-        locationBuffer.rewind();
-        float[] vertex = new float[3];
-        for (int vertexIndex = 0; vertexIndex < vertexCount; vertexIndex++) {
-            locationBuffer.get(vertex, 0, 3);
-            Vector3f normal = new Vector3f(vertex[0], vertex[1], vertex[2]);
-            assert normal.isUnitVector() : normal;
-            if (inwardFacing) {
-                normal.negateLocal();
-            }
+        DomeGeometry geometry = lookupGeometry();
+        updateBuffer(VertexBuffer.Type.Position, 3, geometry.locations);
+        updateBuffer(VertexBuffer.Type.TexCoord, 2, geometry.texCoords);
+        updateBuffer(VertexBuffer.Type.Normal, 3, geometry.normals);
+        updateIndexBuffer(geometry.indices);
+        /*
+         * Update the bounds of the mesh.
+         */
+        updateBound();
+    }
 
-            logger.log(Level.FINE, "normal {0}", vertexIndex);
-            normalArray[vertexIndex] = normal;
+    /**
+     * Copy vertex data into a float buffer of this mesh, reusing the existing
+     * direct buffer if it has the right capacity.
+     *
+     * @param type which buffer to update (not null)
+     * @param numComponents number of components per vertex (&gt;0)
+     * @param data vertex data to copy (not null, unaffected)
+     */
+    private void updateBuffer(VertexBuffer.Type type, int numComponents,
+            float[] data) {
+        FloatBuffer buffer = getFloatBuffer(type);
+        if (buffer == null || buffer.capacity() != data.length) {
+            buffer = BufferUtils.createFloatBuffer(data.length);
+        }
+        buffer.clear();
+        buffer.put(data);
+        buffer.flip();
+        setBuffer(type, numComponents, buffer);
+    }
+
+    /**
+     * Update some basic properties of the mesh: complete, triangleCount, and
+     * vertexCount.
+     */
+    private void updateDerivedProperties() {
+        if (rimSamples < 3) {
+            logger.log(Level.SEVERE, "rimSamples={0}", rimSamples);
+            throw new IllegalStateException(
+                    "need at least 3 samples on the rim");
+        }
+        if (quadrantSamples < 2) {
+            logger.log(Level.SEVERE, "quadrantSamples={0}", quadrantSamples);
+            throw new IllegalStateException("need at least "
+                    + "2 samples per longitudinal quadrant");
+        }
+
+        complete = (segmentAngle > 1.999f * FastMath.PI);
+
+        int quadsPerGore = quadrantSamples - 2;
+        int trianglesPerGore = 2 * quadsPerGore + 1;
+        triangleCount = trianglesPerGore * rimSamples;
+        logger.log(Level.FINE, "{0} triangles", triangleCount);
+
+        vertexCount = (quadrantSamples - 1) * rimSamples + 1;
+        logger.log(Level.FINE, "{0} vertices", vertexCount);
+        assert vertexCount <= Short.MAX_VALUE : vertexCount;
+    }
+
+    /**
+     * Copy triangle indices into the index buffer of this mesh, reusing the
+     * existing direct buffer if it has the right capacity.
+     *
+     * @param indices vertex indices to copy (not null, unaffected)
+     */
+    private void updateIndexBuffer(short[] indices) {
+        ShortBuffer buffer = getShortBuffer(VertexBuffer.Type.Index);
+        if (buffer == null || buffer.capacity() != indices.length) {
+            buffer = BufferUtils.createShortBuffer(indices.length);
         }
+        buffer.clear();
+        buffer.put(indices);
+        buffer.flip();
+        setBuffer(VertexBuffer.Type.Index, vpt, buffer);
+    }
+    // *************************************************************************
+    // test cases
+
+    /**
+     * A console application to test the precision of the direction lookup
+     * table against the exact computation.
+     *
+     * @param ignored
+     */
+    public static void main(String[] ignored) {
+        System.out.print("Test results for class DomeMesh:\n\n");
         /*
-         * Allocate and assign a buffer for normals.
+         * The interpolation error grows with uvScale, so test the default
+         * scale and the largest legal one.
          */
-        FloatBuffer nomalBuffer = BufferUtils.createFloatBuffer(normalArray);
-        setBuffer(VertexBuffer.Type.Normal, 3, nomalBuffer);
+        float largestScale = Math.nextAfter(0.5f, 0.0);
+        float[] scales = {Constants.uvScale, largestScale};
+        for (float scale : scales) {
+            DomeMesh exact = new DomeMesh(60, 16, Constants.topU,
+                    Constants.topV, scale, true);
+            DomeMesh fast = new DomeMesh(60, 16, Constants.topU,
+                    Constants.topV, scale, true);
+            fast.setDirectionLookup(true);
+
+            Random random = new Random(98765L);
+            Vector3f direction = new Vector3f();
+            Vector2f exactUV = new Vector2f();
+            Vector2f fastUV = new Vector2f();
+            int numSamples = 1000000;
+            int numCompared = 0;
+            int numEdgeCases = 0;
+            float maxError = 0f;
+            for (int sample = 0; sample < numSamples; sample++) {
+                direction.set((float) random.nextGaussian(),
+                        (float) random.nextGaussian(),
+                        (float) random.nextGaussian());
+                if (direction.lengthSquared() < 1e-6f) {
+                    continue;
+                }
+                direction.normalizeLocal();
+
+                Vector2f e = exact.directionUV(direction, exactUV);
+                Vector2f f = fast.directionUV(direction, fastUV);
+                if (e == null && f == null) {
+                    continue;
+                } else if (e == null || f == null) {
+                    /*
+                     * Near the edge of the texture, a tiny error can
+                     * decide whether the direction is in range.
+                     */
+                    numEdgeCases++;
+                    continue;
+                }
+                float error = Math.max(FastMath.abs(e.x - f.x),
+                        FastMath.abs(e.y - f.y));
+                maxError = Math.max(maxError, error);
+                numCompared++;
+            }
+
+            float bound = fast.maxLookupError();
+            boolean pass = (maxError <= bound);
+            System.out.printf("uvScale=%s: compared %d directions "
+                    + "(%d edge cases)%n", Float.toString(scale),
+                    numCompared, numEdgeCases);
+            System.out.printf(" max UV error %g (bound %g):  %s%n", maxError,
+                    bound, pass ? "pass" : "FAIL");
+        }
     }
 }
\ No newline at end of file
@@ -58,6 +58,17 @@ import jme3utilities.math.MyVector3f;
 /**
  * Simple app state to generate a dynamic texture for an object by rendering an
  * off-screen globe. Each instance has its own camera and root node.
+ * <p>
+ * To save rendering, the globe is re-rendered only when its phase, spin, light
+ * intensity, or gamma has changed by more than a threshold (see
+ * setRefreshThresholds()), when the texture becomes older than a maximum age
+ * (see setMaxAge()), or when a refresh is requested. Between refreshes the
+ * off-screen viewport is disabled, which also skips its gamma filter. With the
+ * default thresholds of zero, any change at all causes a refresh.
+ * <p>
+ * For a texture that never changes, invoke setDetachAfterRender(true): the
+ * renderer then detaches itself after its 1st render, releasing its viewport
+ * and filter but keeping the texture.
  *
  * @author Stephen Gold <sgold@sonic.net>
  */
@@ -89,22 +100,89 @@ public class GlobeRenderer
     final private static Vector3f globeCenter = Vector3f.ZERO;
     // *************************************************************************
     // fields
+    /**
+     * true to detach this renderer after its next render, false to keep
+     * re-rendering as needed (the default)
+     */
+    private boolean detachAfterRender = false;
+    /**
+     * true if the next update should re-render regardless of thresholds
+     */
+    private boolean refreshRequested = true;
     /**
      * camera for off-screen render: set by constructor
      */
     private Camera camera = null;
+    /**
+     * reusable light color - not serialized
+     */
+    final private ColorRGBA tmpLightColor = new ColorRGBA();
     /**
      * light source for the scene: set by constructor
      */
     private DirectionalLight light = null;
+    /**
+     * time since the texture was last rendered (in seconds, &ge;0)
+     */
+    private float age = 0f;
+    /**
+     * current gamma value of the filter (&gt;0)
+     */
+    private float gamma = 2f;
+    /**
+     * smallest change in gamma which triggers a refresh (&ge;0)
+     */
+    private float gammaThreshold = 0f;
     /**
      * gamma value to set in initialize(): afterwards it's ignored
      */
     private float initialGamma = 2f;
+    /**
+     * smallest change in light intensity which triggers a refresh (&ge;0)
+     */
+    private float intensityThreshold = 0f;
+    /**
+     * current intensity of the light (&ge;0)
+     */
+    private float lightIntensity = 0f;
+    /**
+     * maximum age of the texture before it's refreshed regardless of
+     * thresholds (in seconds, &ge;0; 0 &rarr; no maximum)
+     */
+    private float maxAge = 0f;
+    /**
+     * current lighting phase of the globe (in radians, &le;2*Pi, &ge;0)
+     */
+    private float phaseAngle = 0f;
+    /**
+     * smallest change in phase angle which triggers a refresh (in radians,
+     * &ge;0)
+     */
+    private float phaseThreshold = 0f;
+    /**
+     * gamma value at the most recent render
+     */
+    private float renderedGamma = 0f;
+    /**
+     * light intensity at the most recent render
+     */
+    private float renderedIntensity = 0f;
+    /**
+     * phase angle at the most recent render
+     */
+    private float renderedPhase = 0f;
+    /**
+     * total spin since the most recent render (in radians, &ge;0)
+     */
+    private float spinSinceRender = 0f;
     /**
      * spin rate (in radians per second) default is 0
      */
     private float spinRate = 0f;
+    /**
+     * smallest accumulated spin which triggers a refresh (in radians, &ge;0)
+     */
+    private float spinThreshold = 0f;
     /**
      * frame buffer for off-screen render: set by constructor
      */
@@ -121,6 +199,10 @@ public class GlobeRenderer
      * root of the the off-screen scene graph
      */
     final private Node offscreenRootNode = new Node("off-screen root node");
+    /**
+     * reusable rotation for phase and spin updates - not serialized
+     */
+    final private Quaternion tmpRotation = new Quaternion();
     /**
      * name for the off-screen render of the globe
      */
@@ -129,10 +211,18 @@ public class GlobeRenderer
      * dynamic output texture: set by constructor
      */
     final private Texture2D outputTexture;
+    /**
+     * viewport for off-screen render: set by initialize()
+     */
+    private ViewPort offscreenViewPort = null;
     /**
      * spin axis (length=1)
      */
     final private Vector3f spinAxis = Vector3f.UNIT_Z.clone();
+    /**
+     * reusable light direction - not serialized
+     */
+    final private Vector3f tmpLightDirection = new Vector3f();
     // *************************************************************************
     // constructors
 
@@ -235,6 +325,26 @@ public class GlobeRenderer
 
         camera.setLocation(newLocation);
         camera.lookAt(globeCenter, newUpDirection);
+        refreshRequested = true;
+    }
+
+    /**
+     * Re-render the globe on the next update, regardless of thresholds.
+     * Invoke this after altering the globe's material.
+     */
+    public void requestRefresh() {
+        refreshRequested = true;
+    }
+
+    /**
+     * Alter whether this renderer detaches itself after its next render. Once
+     * detached, it no longer updates or renders, but its texture remains
+     * valid. Attach it again to re-render.
+     *
+     * @param newSetting true to detach after rendering, false to stay attached
+     */
+    public void setDetachAfterRender(boolean newSetting) {
+        detachAfterRender = newSetting;
     }
 
     /**
@@ -245,6 +355,7 @@ public class GlobeRenderer
     final public void setGamma(float newGamma) {
         Validate.positive(newGamma, "gamma");
 
+        gamma = newGamma;
         if (isInitialized()) {
             filter.setGamma(newGamma);
         } else {
@@ -262,6 +373,7 @@ public class GlobeRenderer
         Validate.positive(newRadius, "radius");
 
         MySpatial.setWorldScale(globe, newRadius);
+        refreshRequested = true;
     }
 
     /**
@@ -272,8 +384,10 @@ public class GlobeRenderer
     final public void setLightIntensity(float intensity) {
         Validate.nonNegative(intensity, "intensity");
 
-        ColorRGBA lightColor = ColorRGBA.White.mult(intensity);
-        light.setColor(lightColor);
+        lightIntensity = intensity;
+        tmpLightColor.set(ColorRGBA.White);
+        tmpLightColor.multLocal(intensity);
+        light.setColor(tmpLightColor);
     }
 
     /**
@@ -289,11 +403,45 @@ public class GlobeRenderer
                     "angle should be between 0 and 2*Pi");
         }
 
-        Quaternion turn = new Quaternion().fromAngles(-newAngle, 0f, 0f);
-        Vector3f lightDirection = turn.mult(Vector3f.UNIT_Z);
+        phaseAngle = newAngle;
+        Quaternion turn = tmpRotation.fromAngles(-newAngle, 0f, 0f);
+        Vector3f lightDirection = turn.mult(Vector3f.UNIT_Z, tmpLightDirection);
         light.setDirection(lightDirection);
     }
 
+    /**
+     * Alter the maximum age of the texture: once it's this old, the globe is
+     * re-rendered even if no threshold has been exceeded.
+     *
+     * @param newMaxAge (in seconds, &ge;0; 0 &rarr; no maximum)
+     */
+    public void setMaxAge(float newMaxAge) {
+        Validate.nonNegative(newMaxAge, "age");
+        maxAge = newMaxAge;
+    }
+
+    /**
+     * Alter the thresholds which trigger a re-render of the globe. A threshold
+     * of zero means that any change triggers a re-render.
+     *
+     * @param phase smallest change in phase angle (in radians, &ge;0)
+     * @param spin smallest accumulated spin (in radians, &ge;0)
+     * @param intensity smallest change in light intensity (&ge;0)
+     * @param newGamma smallest change in gamma (&ge;0)
+     */
+    public void setRefreshThresholds(float phase, float spin, float intensity,
+            float newGamma) {
+        Validate.nonNegative(phase, "phase threshold");
+        Validate.nonNegative(spin, "spin threshold");
+        Validate.nonNegative(intensity, "intensity threshold");
+        Validate.nonNegative(newGamma, "gamma threshold");
+
+        phaseThreshold = phase;
+        spinThreshold = spin;
+        intensityThreshold = intensity;
+        gammaThreshold = newGamma;
+    }
+
     /**
      * Alter the spin axis of the globe.
      *
@@ -307,6 +455,7 @@ public class GlobeRenderer
         }
 
         spinAxis.set(newAxis);
+        refreshRequested = true;
     }
 
     /**
@@ -328,6 +477,14 @@ public class GlobeRenderer
         ViewPort preView = renderManager.getPreView(preViewName);
         boolean success = renderManager.removePreView(preView);
         assert success;
+        /*
+         * Release the filter and its frame buffer. A new filter gets created
+         * if this renderer is attached again.
+         */
+        offscreenViewPort.clearProcessors();
+        offscreenViewPort = null;
+        filter = null;
+        initialGamma = gamma;
 
         super.cleanup();
     }
@@ -347,8 +504,7 @@ public class GlobeRenderer
 
         super.initialize(stateManager, application);
 
-        ViewPort offscreenViewPort =
-                renderManager.createPreView(preViewName, camera);
+        offscreenViewPort = renderManager.createPreView(preViewName, camera);
         offscreenViewPort.attachScene(offscreenRootNode);
         offscreenViewPort.setClearFlags(true, true, true);
         offscreenViewPort.setOutputFrameBuffer(frameBuffer);
@@ -358,6 +514,39 @@ public class GlobeRenderer
         FilterPostProcessor fpp = Misc.getFpp(offscreenViewPort, assetManager);
         filter = new GammaCorrectionFilter(initialGamma);
         fpp.addFilter(filter);
+        gamma = initialGamma;
+        refreshRequested = true;
+    }
+
+    /**
+     * Callback after each render: detach this renderer if it just rendered
+     * and is set to detach after rendering.
+     */
+    @Override
+    public void postRender() {
+        super.postRender();
+
+        if (detachAfterRender && offscreenViewPort.isEnabled()) {
+            offscreenViewPort.setEnabled(false);
+            stateManager.detach(this);
+        }
+    }
+
+    /**
+     * Enable or disable this renderer. While disabled, the off-screen viewport
+     * is disabled too.
+     *
+     * @param newState true to enable, false to disable
+     */
+    @Override
+    public void setEnabled(boolean newState) {
+        super.setEnabled(newState);
+
+        if (newState) {
+            refreshRequested = true;
+        } else if (offscreenViewPort != null) {
+            offscreenViewPort.setEnabled(false);
+        }
     }
 
     /**
@@ -372,13 +561,38 @@ public class GlobeRenderer
          * spin the globe on its axis
          */
         float angle = spinRate * elapsedTime;
-        Quaternion spin = new Quaternion().fromAngleNormalAxis(angle, spinAxis);
-        globe.rotate(spin);
+        if (angle != 0f) {
+            Quaternion spin = tmpRotation.fromAngleNormalAxis(angle, spinAxis);
+            globe.rotate(spin);
+            spinSinceRender += FastMath.abs(angle);
+        }
+        age += elapsedTime;
+        /*
+         * Decide whether the texture needs to be re-rendered.
+         */
+        boolean refresh = refreshRequested
+                || FastMath.abs(phaseAngle - renderedPhase) > phaseThreshold
+                || spinSinceRender > spinThreshold
+                || FastMath.abs(lightIntensity - renderedIntensity)
+                > intensityThreshold
+                || FastMath.abs(gamma - renderedGamma) > gammaThreshold
+                || maxAge > 0f && age >= maxAge;
+        offscreenViewPort.setEnabled(refresh);
+        if (!refresh) {
+            return;
+        }
 
         updateFrustum();
 
         offscreenRootNode.updateLogicalState(elapsedTime);
         offscreenRootNode.updateGeometricState();
+
+        age = 0f;
+        refreshRequested = false;
+        renderedGamma = gamma;
+        renderedIntensity = lightIntensity;
+        renderedPhase = phaseAngle;
+        spinSinceRender = 0f;
     }
     // *************************************************************************
     // private methods
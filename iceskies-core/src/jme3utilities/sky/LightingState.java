@@ -0,0 +1,149 @@
+/*
+ Copyright (c) 2014, Stephen Gold
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+ * Stephen Gold's name may not be used to endorse or promote products
+ derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL STEPHEN GOLD BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3utilities.sky;
+
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+
+import jme3utilities.math.MyColor;
+
+/**
+ * The lighting values which SkyControl passes to its Updater: colors for the
+ * ambient light, the viewport backgrounds, and the main light, plus bloom and
+ * shadow intensities and the direction to the main light source.
+ * <p>
+ * SkyControl keeps one instance per simulation tick so that it can
+ * interpolate between ticks.
+ *
+ * @author Stephen Gold <sgold@sonic.net>
+ */
+class LightingState {
+    // *************************************************************************
+    // fields
+    /**
+     * color for the ambient light (not null)
+     */
+    final ColorRGBA ambientColor = new ColorRGBA();
+    /**
+     * color for viewport backgrounds (not null)
+     */
+    final ColorRGBA backgroundColor = new ColorRGBA();
+    /**
+     * color for the main directional light (not null)
+     */
+    final ColorRGBA mainColor = new ColorRGBA();
+    /**
+     * intensity for bloom filters (&ge;0)
+     */
+    float bloomIntensity = 0f;
+    /**
+     * intensity for shadow filters and renderers (&le;1, &ge;0)
+     */
+    float shadowIntensity = 0f;
+    /**
+     * world direction to the main light source (length=1)
+     */
+    final Vector3f direction = new Vector3f(Vector3f.UNIT_Y);
+    // *************************************************************************
+    // new methods exposed
+
+    /**
+     * Interpolate linearly between two states. The direction is interpolated
+     * linearly and then re-normalized.
+     *
+     * @param fraction (&le;1, &ge;0; 0 &rarr; start, 1 &rarr; end)
+     * @param start state at fraction=0 (not null, unaffected)
+     * @param end state at fraction=1 (not null, unaffected)
+     */
+    void interpolate(float fraction, LightingState start, LightingState end) {
+        assert fraction >= 0f : fraction;
+        assert fraction <= 1f : fraction;
+
+        MyColor.interpolateLinear(fraction, start.ambientColor,
+                end.ambientColor, ambientColor);
+        MyColor.interpolateLinear(fraction, start.backgroundColor,
+                end.backgroundColor, backgroundColor);
+        MyColor.interpolateLinear(fraction, start.mainColor, end.mainColor,
+                mainColor);
+        bloomIntensity = FastMath.interpolateLinear(fraction,
+                start.bloomIntensity, end.bloomIntensity);
+        shadowIntensity = FastMath.interpolateLinear(fraction,
+                start.shadowIntensity, end.shadowIntensity);
+
+        FastMath.interpolateLinear(fraction, start.direction, end.direction,
+                direction);
+        float lengthSquared = direction.lengthSquared();
+        if (lengthSquared > 0.0001f) {
+            direction.divideLocal(FastMath.sqrt(lengthSquared));
+        } else {
+            /*
+             * The directions are nearly opposite, so jump to the end.
+             */
+            direction.set(end.direction);
+        }
+    }
+
+    /**
+     * Copy all values from another instance.
+     *
+     * @param source (not null, unaffected)
+     */
+    void set(LightingState source) {
+        assert source != null;
+        set(source.ambientColor, source.backgroundColor, source.mainColor,
+                source.bloomIntensity, source.shadowIntensity,
+                source.direction);
+    }
+
+    /**
+     * Alter all values.
+     *
+     * @param ambientColor color for the ambient light (not null, unaffected)
+     * @param backgroundColor color for viewport backgrounds (not null,
+     * unaffected)
+     * @param mainColor color for the main light (not null, unaffected)
+     * @param bloomIntensity intensity for bloom filters (&ge;0)
+     * @param shadowIntensity intensity for shadows (&le;1, &ge;0)
+     * @param direction world direction to the main light source (length=1,
+     * unaffected)
+     */
+    void set(ColorRGBA ambientColor, ColorRGBA backgroundColor,
+            ColorRGBA mainColor, float bloomIntensity, float shadowIntensity,
+            Vector3f direction) {
+        assert bloomIntensity >= 0f : bloomIntensity;
+        assert shadowIntensity >= 0f : shadowIntensity;
+        assert shadowIntensity <= 1f : shadowIntensity;
+        assert direction.isUnitVector() : direction;
+
+        this.ambientColor.set(ambientColor);
+        this.backgroundColor.set(backgroundColor);
+        this.mainColor.set(mainColor);
+        this.bloomIntensity = bloomIntensity;
+        this.shadowIntensity = shadowIntensity;
+        this.direction.set(direction);
+    }
+}
\ No newline at end of file
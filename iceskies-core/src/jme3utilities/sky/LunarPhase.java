@@ -109,6 +109,25 @@ public enum LunarPhase {
         return null;
     }
 
+    /**
+     * Compute the contribution of the moon to the nighttime illumination mix
+     * for the specified phase angle, assuming it is above the horizon.
+     * Thread-safe.
+     *
+     * @param phaseAngle celestial longitude of the moon relative to the sun (in
+     * radians, &le;2*Pi, &ge;0)
+     * @return fraction (&le;1, &ge;0) 1 &rarr; full moon, 0 &rarr; no
+     * contribution
+     */
+    public static float illumination(float phaseAngle) {
+        float fullAngle = FastMath.abs(phaseAngle - FastMath.PI);
+        float weight = 1f - FastMath.saturate(fullAngle * 0.6f);
+
+        assert weight >= 0f : weight;
+        assert weight <= 1f : weight;
+        return weight;
+    }
+
     /**
      * Look up the path to the color map for this phase.
      *
@@ -0,0 +1,223 @@
+/*
+ Copyright (c) 2014, Stephen Gold
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+ * Stephen Gold's name may not be used to endorse or promote products
+ derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL STEPHEN GOLD BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3utilities.sky;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.jme3.app.state.AppStateManager;
+import com.jme3.material.Material;
+import com.jme3.math.FastMath;
+import com.jme3.texture.Image;
+import com.jme3.texture.Texture2D;
+
+import jme3utilities.Validate;
+import jme3utilities.math.MyMath;
+
+/**
+ * A set of pre-rendered moon textures, one for each of several evenly spaced
+ * phase angles, to use in place of a live globe renderer. A phase angle
+ * selects the frame with the nearest phase angle: frames are not blended, so
+ * use enough frames that the steps between them aren't noticeable.
+ * <p>
+ * Each frame is baked by its own globe renderer, which renders once (after
+ * being attached) and then detaches itself, releasing its viewport and
+ * filter. After that, the frames cost only their textures, and selecting a
+ * phase costs a table lookup.
+ *
+ * @author Stephen Gold <sgold@sonic.net>
+ */
+public class LunarPhaseFrames {
+    // *************************************************************************
+    // constants
+
+    /**
+     * message logger for this class
+     */
+    final private static Logger logger =
+            Logger.getLogger(LunarPhaseFrames.class.getName());
+    // *************************************************************************
+    // fields
+    /**
+     * renderers which bake the frames, indexed by frame: set by constructor
+     */
+    final private GlobeRenderer[] renderers;
+    // *************************************************************************
+    // constructors
+
+    /**
+     * Instantiate a set of frames with the specified globe material and
+     * resolution. The frames aren't rendered until attach() is invoked.
+     *
+     * @param globeMaterial suitable for equirectangular projection (not null)
+     * @param outputFormat (not null, ABGR8 &rarr; color, Luminance8Alpha8
+     * &rarr; grayscale)
+     * @param equatorSamples number of samples around the globe's middle (&ge;3)
+     * @param meridianSamples number of samples from pole to pole (&ge;3)
+     * @param resolution number of pixels per side of each texture (&gt;0)
+     * @param numFrames number of phase angles to bake (&ge;2)
+     */
+    public LunarPhaseFrames(Material globeMaterial, Image.Format outputFormat,
+            int equatorSamples, int meridianSamples, int resolution,
+            int numFrames) {
+        if (numFrames < 2) {
+            logger.log(Level.SEVERE, "numFrames={0}", numFrames);
+            throw new IllegalArgumentException("need at least 2 frames");
+        }
+
+        renderers = new GlobeRenderer[numFrames];
+        for (int frameIndex = 0; frameIndex < numFrames; frameIndex++) {
+            GlobeRenderer renderer = new GlobeRenderer(globeMaterial,
+                    outputFormat, equatorSamples, meridianSamples, resolution);
+            /*
+             * Light each frame the way SkyControl would light a live render.
+             */
+            float phaseAngle = frameAngle(frameIndex);
+            float intensity = 2f + FastMath.abs(phaseAngle - FastMath.PI);
+            renderer.setLightIntensity(intensity);
+            renderer.setPhase(phaseAngle);
+            renderer.setDetachAfterRender(true);
+
+            renderers[frameIndex] = renderer;
+        }
+    }
+    // *************************************************************************
+    // new methods exposed
+
+    /**
+     * Attach the renderers to an app state manager, so that each frame gets
+     * baked during the next render. Each renderer detaches itself once its
+     * frame is baked. To re-bake the frames (for instance, after altering
+     * their globe material), invoke this method again.
+     *
+     * @param stateManager (not null)
+     */
+    public void attach(AppStateManager stateManager) {
+        Validate.nonNull(stateManager, "state manager");
+
+        for (GlobeRenderer renderer : renderers) {
+            stateManager.attach(renderer);
+        }
+    }
+
+    /**
+     * Detach any renderers which haven't yet baked their frames from an app
+     * state manager.
+     *
+     * @param stateManager (not null)
+     */
+    public void detach(AppStateManager stateManager) {
+        Validate.nonNull(stateManager, "state manager");
+
+        for (GlobeRenderer renderer : renderers) {
+            stateManager.detach(renderer);
+        }
+    }
+
+    /**
+     * Compute the phase angle of the indexed frame.
+     *
+     * @param frameIndex (&ge;0, &lt;numFrames)
+     * @return angle (in radians, &lt;2*Pi, &ge;0)
+     */
+    public float frameAngle(int frameIndex) {
+        validateFrameIndex(frameIndex);
+
+        float result = FastMath.TWO_PI * frameIndex / renderers.length;
+        return result;
+    }
+
+    /**
+     * Read the number of frames.
+     *
+     * @return count (&ge;2)
+     */
+    public int getFrameCount() {
+        assert renderers.length >= 2 : renderers.length;
+        return renderers.length;
+    }
+
+    /**
+     * Access the renderer for the indexed frame, for instance to alter its
+     * gamma. Changes take effect when the frames are next baked (see
+     * attach()).
+     *
+     * @param frameIndex (&ge;0, &lt;numFrames)
+     * @return pre-existing instance
+     */
+    public GlobeRenderer getRenderer(int frameIndex) {
+        validateFrameIndex(frameIndex);
+
+        GlobeRenderer result = renderers[frameIndex];
+        assert result != null;
+        return result;
+    }
+
+    /**
+     * Access the texture of the indexed frame.
+     *
+     * @param frameIndex (&ge;0, &lt;numFrames)
+     * @return pre-existing instance
+     */
+    public Texture2D getTexture(int frameIndex) {
+        GlobeRenderer renderer = getRenderer(frameIndex);
+        Texture2D result = renderer.getTexture();
+
+        return result;
+    }
+
+    /**
+     * Find the frame whose phase angle is nearest the specified angle.
+     *
+     * @param phaseAngle (in radians, &le;2*Pi, &ge;0)
+     * @return frame index (&ge;0, &lt;numFrames)
+     */
+    public int nearestFrame(float phaseAngle) {
+        int numFrames = renderers.length;
+        int index = Math.round(phaseAngle * numFrames / FastMath.TWO_PI);
+        int result = MyMath.modulo(index, numFrames);
+
+        assert result >= 0 : result;
+        assert result < numFrames : result;
+        return result;
+    }
+    // *************************************************************************
+    // private methods
+
+    /**
+     * Validate a frame index.
+     *
+     * @param frameIndex the index of a frame
+     * @throws IllegalArgumentException if the index is out of range
+     */
+    private void validateFrameIndex(int frameIndex) {
+        if (frameIndex < 0 || frameIndex >= renderers.length) {
+            logger.log(Level.SEVERE, "frameIndex={0}, numFrames={1}",
+                    new Object[]{frameIndex, renderers.length});
+            throw new IllegalArgumentException("frame index out of range");
+        }
+    }
+}
\ No newline at end of file
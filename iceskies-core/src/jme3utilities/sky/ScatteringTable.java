@@ -0,0 +1,679 @@
+/*
+ Copyright (c) 2014, Stephen Gold
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+ * Stephen Gold's name may not be used to endorse or promote products
+ derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL STEPHEN GOLD BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3utilities.sky;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.FastMath;
+
+import jme3utilities.math.MyMath;
+
+/**
+ * Precomputed lookup table of sky colors derived from single Rayleigh and Mie
+ * scattering in a spherical-shell atmosphere, indexed by the sine of the sun's
+ * altitude.
+ * <p>
+ * For each tabulated altitude, the table holds the color of the sun's direct
+ * light (its transmittance through the atmosphere), the color of the haze just
+ * above the horizon, and the hue of the upper sky. The haze and sky colors are
+ * averaged over all azimuths.
+ * The table is generated once, in parallel using fork/join. If a cache
+ * directory is specified, the table is also saved to a file keyed by its
+ * parameters and re-used by later instances. Lookups interpolate linearly
+ * between two entries, so they are cheap enough for every tick.
+ * <p>
+ * Instances are immutable and thread-safe once constructed.
+ *
+ * @author Stephen Gold <sgold@sonic.net>
+ */
+public class ScatteringTable {
+    // *************************************************************************
+    // constants
+
+    /**
+     * version of the cache file format
+     */
+    final private static int cacheVersion = 1;
+    /**
+     * number of floats per table entry: sun, haze, and sky colors
+     */
+    final private static int floatsPerEntry = 9;
+    /**
+     * offset of the haze color within an entry
+     */
+    final private static int hazeOffset = 3;
+    /**
+     * number of view azimuths averaged for the haze color
+     */
+    final private static int numAzimuths = 8;
+    /**
+     * number of integration steps along each ray toward the sun
+     */
+    final private static int numSunSteps = 8;
+    /**
+     * number of integration steps along each viewing ray
+     */
+    final private static int numViewSteps = 16;
+    /**
+     * number of entries below which a task is not split further
+     */
+    final private static int entriesPerTask = 8;
+    /**
+     * offset of the sky color within an entry
+     */
+    final private static int skyOffset = 6;
+    /**
+     * offset of the sun color within an entry
+     */
+    final private static int sunOffset = 0;
+    /**
+     * radius of the top of the atmosphere (in km)
+     */
+    final private static double atmosphereRadius = 6420.0;
+    /**
+     * radius of the planet (in km)
+     */
+    final private static double planetRadius = 6360.0;
+    /**
+     * height of the observer above the surface (in km)
+     */
+    final private static double observerHeight = 0.001;
+    /**
+     * sine of the elevation of the viewing rays for the haze color
+     */
+    final private static double sineHazeElevation = 0.05;
+    /**
+     * sine of the elevation of the viewing rays for the sky color
+     */
+    final private static double sineSkyElevation = 0.87;
+    /**
+     * scale height of aerosols (in km)
+     */
+    final private static double mieHeight = 1.2;
+    /**
+     * scattering coefficient of aerosols at sea level (per km)
+     */
+    final private static double mieScattering = 0.021;
+    /**
+     * ratio of aerosol extinction to aerosol scattering
+     */
+    final private static double mieExtinctionRatio = 1.11;
+    /**
+     * asymmetry of the aerosol phase function (&lt;1, &gt;-1)
+     */
+    final private static double mieAsymmetry = 0.76;
+    /**
+     * scale height of air molecules (in km)
+     */
+    final private static double rayleighHeight = 8.0;
+    /**
+     * scattering coefficients of air molecules at sea level for red, green,
+     * and blue light (per km)
+     */
+    final private static double[] rayleighScattering = {
+        0.0058, 0.0135, 0.0331
+    };
+    /**
+     * lowest tabulated sine of the sun's altitude, when the sky is nearly
+     * dark
+     */
+    final public static float minSine = -0.2f;
+    /**
+     * brightness (maximum component) of the haze color when the sun is
+     * overhead
+     */
+    final private static float hazeBrightness = 0.8f;
+    /**
+     * message logger for this class
+     */
+    final private static Logger logger =
+            Logger.getLogger(ScatteringTable.class.getName());
+    // *************************************************************************
+    // fields
+    /**
+     * table entries, indexed by entry and then by color component: set by
+     * constructor
+     */
+    final private float[] entries;
+    /**
+     * number of table entries (&ge;2): set by constructor
+     */
+    final private int numEntries;
+    // *************************************************************************
+    // constructors
+
+    /**
+     * Instantiate a table with the specified resolution, generating it or
+     * loading it from the cache.
+     *
+     * @param numEntries number of tabulated altitudes (&ge;2)
+     * @param cacheDirectory an existing, writable directory, or null to
+     * disable caching
+     */
+    public ScatteringTable(int numEntries, File cacheDirectory) {
+        if (numEntries < 2) {
+            logger.log(Level.SEVERE, "numEntries={0}", numEntries);
+            throw new IllegalArgumentException(
+                    "numEntries should be greater than 1");
+        }
+
+        this.numEntries = numEntries;
+        entries = new float[numEntries * floatsPerEntry];
+        int numBytes = 4 * entries.length;
+        byte[] loaded = null;
+        String key = cacheKey();
+        File cacheFile = null;
+        if (cacheDirectory != null) {
+            cacheFile = DataCache.file(cacheDirectory, "scattering", key);
+            loaded = DataCache.read(cacheFile, cacheVersion, key, numBytes);
+        }
+        if (loaded == null) {
+            Constants.forkJoinPool.invoke(new EntryTask(0, numEntries));
+            normalize();
+            if (cacheFile != null) {
+                byte[] bytes = new byte[numBytes];
+                ByteBuffer.wrap(bytes).asFloatBuffer().put(entries);
+                DataCache.write(cacheFile, "scattering", cacheVersion, key,
+                        bytes);
+            }
+        } else {
+            ByteBuffer.wrap(loaded).asFloatBuffer().get(entries);
+        }
+    }
+    // *************************************************************************
+    // new methods exposed
+
+    /**
+     * Read the number of tabulated altitudes.
+     *
+     * @return count (&ge;2)
+     */
+    public int getNumEntries() {
+        assert numEntries >= 2 : numEntries;
+        return numEntries;
+    }
+
+    /**
+     * Look up the color of the haze just above the horizon. Thread-safe.
+     *
+     * @param sineSolarAltitude sine of the sun's altitude (&le;1, &ge;-1)
+     * @param storeResult (not null, modified)
+     * @return storeResult (alpha=1)
+     */
+    public ColorRGBA hazeColor(float sineSolarAltitude,
+            ColorRGBA storeResult) {
+        ColorRGBA result = lookup(sineSolarAltitude, hazeOffset, storeResult);
+        return result;
+    }
+
+    /**
+     * Look up the hue of the upper sky, normalized so that its brightest
+     * component is 1 (unless the sky is black). Thread-safe.
+     *
+     * @param sineSolarAltitude sine of the sun's altitude (&le;1, &ge;-1)
+     * @param storeResult (not null, modified)
+     * @return storeResult (alpha=1)
+     */
+    public ColorRGBA skyColor(float sineSolarAltitude, ColorRGBA storeResult) {
+        ColorRGBA result = lookup(sineSolarAltitude, skyOffset, storeResult);
+        return result;
+    }
+
+    /**
+     * Look up the color of the sun's direct light, normalized so that its
+     * brightest component is 1 when the sun is overhead. Thread-safe.
+     *
+     * @param sineSolarAltitude sine of the sun's altitude (&le;1, &ge;-1)
+     * @param storeResult (not null, modified)
+     * @return storeResult (alpha=1)
+     */
+    public ColorRGBA sunColor(float sineSolarAltitude, ColorRGBA storeResult) {
+        ColorRGBA result = lookup(sineSolarAltitude, sunOffset, storeResult);
+        return result;
+    }
+    // *************************************************************************
+    // private methods
+
+    /**
+     * Compute the single-scattered radiance reaching the observer, averaged
+     * over all azimuths at the specified elevation.
+     *
+     * @param sineElevation sine of the viewing elevation (&le;1, &ge;0)
+     * @param sun direction to the sun (length=1, not null, unaffected)
+     * @param store storage for the radiance (not null, length=3, modified)
+     */
+    private static void averageScattering(double sineElevation, double[] sun,
+            double[] store) {
+        double cosElevation = MyMath.circle(sineElevation);
+        double[] view = new double[3];
+        double[] radiance = new double[3];
+        Arrays.fill(store, 0.0);
+        for (int azimuthIndex = 0; azimuthIndex < numAzimuths;
+                azimuthIndex++) {
+            double azimuth = (azimuthIndex + 0.5) * 2.0 * Math.PI
+                    / numAzimuths;
+            view[0] = cosElevation * Math.cos(azimuth);
+            view[1] = sineElevation;
+            view[2] = cosElevation * Math.sin(azimuth);
+            singleScattering(view, sun, radiance);
+            for (int channel = 0; channel < 3; channel++) {
+                store[channel] += radiance[channel] / numAzimuths;
+            }
+        }
+    }
+
+    /**
+     * Generate the key which identifies this table in the cache.
+     *
+     * @return new string
+     */
+    private String cacheKey() {
+        String result = String.format("entries=%d minSine=%s", numEntries,
+                Float.toString(minSine));
+        return result;
+    }
+
+    /**
+     * Compute a single table entry.
+     *
+     * @param entryIndex (&ge;0, &lt;numEntries)
+     * @param radiance temporary storage for a color (not null, length=3,
+     * modified)
+     */
+    private void computeEntry(int entryIndex, double[] radiance) {
+        double sine = minSine + entryIndex * (1.0 - minSine) / (numEntries - 1);
+        double cosine = Math.sqrt(1.0 - sine * sine);
+        /*
+         * The sun lies in the X-Y plane, with +Y up.
+         */
+        double[] sun = {cosine, sine, 0.0};
+        int base = entryIndex * floatsPerEntry;
+        /*
+         * the sun's direct light
+         */
+        double[] observer = {0.0, planetRadius + observerHeight, 0.0};
+        double[] depth = new double[2];
+        boolean lit = opticalDepth(observer, sun, depth);
+        for (int channel = 0; channel < 3; channel++) {
+            double transmit = 0.0;
+            if (lit) {
+                transmit = Math.exp(-extinction(channel, depth[0], depth[1]));
+            }
+            entries[base + sunOffset + channel] = (float) transmit;
+        }
+        /*
+         * the haze and the upper sky, averaged over azimuths
+         */
+        averageScattering(sineHazeElevation, sun, radiance);
+        for (int channel = 0; channel < 3; channel++) {
+            entries[base + hazeOffset + channel] = (float) radiance[channel];
+        }
+        averageScattering(sineSkyElevation, sun, radiance);
+        for (int channel = 0; channel < 3; channel++) {
+            entries[base + skyOffset + channel] = (float) radiance[channel];
+        }
+    }
+
+    /**
+     * Compute the dot product of two 3-D vectors.
+     *
+     * @param v1 (not null, length=3, unaffected)
+     * @param v2 (not null, length=3, unaffected)
+     * @return dot product
+     */
+    private static double dot(double[] v1, double[] v2) {
+        double result = v1[0] * v2[0] + v1[1] * v2[1] + v1[2] * v2[2];
+        return result;
+    }
+
+    /**
+     * Compute the optical thickness for one color channel.
+     *
+     * @param channel 0 &rarr; red, 1 &rarr; green, 2 &rarr; blue
+     * @param rayleighDepth density-weighted path length for molecules (in km)
+     * @param mieDepth density-weighted path length for aerosols (in km)
+     * @return optical thickness (&ge;0)
+     */
+    private static double extinction(int channel, double rayleighDepth,
+            double mieDepth) {
+        double result = rayleighScattering[channel] * rayleighDepth
+                + mieScattering * mieExtinctionRatio * mieDepth;
+        return result;
+    }
+
+    /**
+     * Compute the height above the surface of a point along a ray.
+     *
+     * @param start starting point (relative to the planet's center, in km,
+     * not null, unaffected)
+     * @param direction direction of the ray (length=1, not null, unaffected)
+     * @param t distance along the ray (in km)
+     * @return height (in km)
+     */
+    private static double height(double[] start, double[] direction,
+            double t) {
+        double x = start[0] + t * direction[0];
+        double y = start[1] + t * direction[1];
+        double z = start[2] + t * direction[2];
+        double result = Math.sqrt(x * x + y * y + z * z) - planetRadius;
+
+        return result;
+    }
+
+    /**
+     * Interpolate a color between the two table entries nearest the specified
+     * altitude.
+     *
+     * @param sineSolarAltitude sine of the sun's altitude
+     * @param offset offset of the color within each entry
+     * @param storeResult (not null, modified)
+     * @return storeResult (alpha=1)
+     */
+    private ColorRGBA lookup(float sineSolarAltitude, int offset,
+            ColorRGBA storeResult) {
+        assert storeResult != null;
+
+        float sine = FastMath.clamp(sineSolarAltitude, minSine, 1f);
+        float position = (sine - minSine) * (numEntries - 1) / (1f - minSine);
+        int index = Math.min((int) position, numEntries - 2);
+        float fraction = position - index;
+        int base = index * floatsPerEntry + offset;
+        int next = base + floatsPerEntry;
+
+        float r = entries[base] + fraction * (entries[next] - entries[base]);
+        float g = entries[base + 1]
+                + fraction * (entries[next + 1] - entries[base + 1]);
+        float b = entries[base + 2]
+                + fraction * (entries[next + 2] - entries[base + 2]);
+        ColorRGBA result = storeResult.set(r, g, b, Constants.alphaMax);
+
+        return result;
+    }
+
+    /**
+     * Scale the colors of each kind so that they are suitable for direct use:
+     * sun colors so that the overhead sun's brightest component is 1, haze
+     * colors by an exponential tone map which gives the overhead sun's haze a
+     * brightest component of hazeBrightness, and sky colors individually so
+     * that each one's brightest component is 1.
+     */
+    private void normalize() {
+        int topBase = (numEntries - 1) * floatsPerEntry;
+        float maxSun = MyMath.max(entries[topBase + sunOffset],
+                entries[topBase + sunOffset + 1],
+                entries[topBase + sunOffset + 2]);
+        float maxHaze = MyMath.max(entries[topBase + hazeOffset],
+                entries[topBase + hazeOffset + 1],
+                entries[topBase + hazeOffset + 2]);
+        assert maxSun > 0f : maxSun;
+        assert maxHaze > 0f : maxHaze;
+        double exposure = -Math.log(1.0 - hazeBrightness) / maxHaze;
+
+        for (int base = 0; base < entries.length; base += floatsPerEntry) {
+            float maxSky = MyMath.max(entries[base + skyOffset],
+                    entries[base + skyOffset + 1],
+                    entries[base + skyOffset + 2]);
+            for (int channel = 0; channel < 3; channel++) {
+                entries[base + sunOffset + channel] /= maxSun;
+
+                int hazeIndex = base + hazeOffset + channel;
+                double haze = entries[hazeIndex];
+                entries[hazeIndex] = (float) (1.0 - Math.exp(-exposure * haze));
+
+                if (maxSky > 0f) {
+                    entries[base + skyOffset + channel] /= maxSky;
+                }
+            }
+        }
+    }
+
+    /**
+     * Integrate the density of molecules and aerosols along a ray from a point
+     * in the atmosphere to the top of the atmosphere.
+     *
+     * @param start starting point (relative to the planet's center, in km,
+     * not null, unaffected)
+     * @param direction direction of the ray (length=1, not null, unaffected)
+     * @param store storage for the Rayleigh and Mie depths (not null,
+     * length=2, modified)
+     * @return true if the ray reaches the top of the atmosphere, false if it
+     * hits the planet
+     */
+    private static boolean opticalDepth(double[] start, double[] direction,
+            double[] store) {
+        double b = dot(start, direction);
+        double c = dot(start, start) - planetRadius * planetRadius;
+        if (b < 0.0 && b * b - c > 0.0) {
+            return false;
+        }
+
+        double length = rayLength(start, direction);
+        double stepLength = length / numSunSteps;
+        double rayleighDepth = 0.0;
+        double mieDepth = 0.0;
+        for (int step = 0; step < numSunSteps; step++) {
+            double t = (step + 0.5) * stepLength;
+            double height = height(start, direction, t);
+            rayleighDepth += Math.exp(-height / rayleighHeight);
+            mieDepth += Math.exp(-height / mieHeight);
+        }
+        store[0] = rayleighDepth * stepLength;
+        store[1] = mieDepth * stepLength;
+
+        return true;
+    }
+
+    /**
+     * Compute the distance from a point inside the atmosphere to the top of
+     * the atmosphere along a ray.
+     *
+     * @param start starting point (relative to the planet's center, in km,
+     * not null, unaffected)
+     * @param direction direction of the ray (length=1, not null, unaffected)
+     * @return distance (in km, &ge;0)
+     */
+    private static double rayLength(double[] start, double[] direction) {
+        double b = dot(start, direction);
+        double c = dot(start, start) - atmosphereRadius * atmosphereRadius;
+        assert c <= 0.0 : c;
+        double result = -b + Math.sqrt(b * b - c);
+
+        assert result >= 0.0 : result;
+        return result;
+    }
+
+    /**
+     * Compute the single-scattered radiance reaching the observer from a
+     * viewing direction, relative to the sun's irradiance.
+     *
+     * @param view viewing direction (length=1, y&ge;0, not null, unaffected)
+     * @param sun direction to the sun (length=1, not null, unaffected)
+     * @param store storage for the radiance (not null, length=3, modified)
+     */
+    private static void singleScattering(double[] view, double[] sun,
+            double[] store) {
+        double[] observer = {0.0, planetRadius + observerHeight, 0.0};
+        double length = rayLength(observer, view);
+        double stepLength = length / numViewSteps;
+        double viewRayleigh = 0.0;
+        double viewMie = 0.0;
+        double[] sumRayleigh = new double[3];
+        double[] sumMie = new double[3];
+        double[] point = new double[3];
+        double[] sunDepth = new double[2];
+
+        for (int step = 0; step < numViewSteps; step++) {
+            double t = (step + 0.5) * stepLength;
+            double height = height(observer, view, t);
+            double rayleighDensity = Math.exp(-height / rayleighHeight);
+            double mieDensity = Math.exp(-height / mieHeight);
+            /*
+             * Accumulate the depth along the viewing ray up to the
+             * middle of this step.
+             */
+            viewRayleigh += 0.5 * rayleighDensity * stepLength;
+            viewMie += 0.5 * mieDensity * stepLength;
+
+            for (int axis = 0; axis < 3; axis++) {
+                point[axis] = observer[axis] + t * view[axis];
+            }
+            if (opticalDepth(point, sun, sunDepth)) {
+                double totalRayleigh = viewRayleigh + sunDepth[0];
+                double totalMie = viewMie + sunDepth[1];
+                for (int channel = 0; channel < 3; channel++) {
+                    double attenuation = Math.exp(
+                            -extinction(channel, totalRayleigh, totalMie));
+                    sumRayleigh[channel] +=
+                            rayleighDensity * attenuation * stepLength;
+                    sumMie[channel] += mieDensity * attenuation * stepLength;
+                }
+            }
+
+            viewRayleigh += 0.5 * rayleighDensity * stepLength;
+            viewMie += 0.5 * mieDensity * stepLength;
+        }
+        /*
+         * Apply the phase functions: Rayleigh and Cornette-Shanks.
+         */
+        double mu = dot(view, sun);
+        double rayleighPhase = 3.0 / (16.0 * Math.PI) * (1.0 + mu * mu);
+        double g = mieAsymmetry;
+        double g2 = g * g;
+        double mieDenominator = Math.pow(1.0 + g2 - 2.0 * g * mu, 1.5);
+        double miePhase = 3.0 / (8.0 * Math.PI) * (1.0 - g2) * (1.0 + mu * mu)
+                / ((2.0 + g2) * mieDenominator);
+        for (int channel = 0; channel < 3; channel++) {
+            store[channel] = sumRayleigh[channel]
+                    * rayleighScattering[channel] * rayleighPhase
+                    + sumMie[channel] * mieScattering * miePhase;
+        }
+    }
+
+    // *************************************************************************
+    // nested classes
+
+    /**
+     * Fork/join task to compute a range of table entries, splitting the range
+     * in half until it's small.
+     */
+    private class EntryTask
+            extends RecursiveAction {
+        /**
+         * version number for serialization
+         */
+        static final long serialVersionUID = 1L;
+        /**
+         * index of the 1st entry in the range
+         */
+        final private int firstEntry;
+        /**
+         * index of the entry just after the range
+         */
+        final private int endEntry;
+
+        /**
+         * Instantiate a task for the specified range of entries.
+         *
+         * @param firstEntry index of the 1st entry (&ge;0)
+         * @param endEntry index of the entry just after the range
+         * (&ge;firstEntry)
+         */
+        EntryTask(int firstEntry, int endEntry) {
+            assert firstEntry >= 0 : firstEntry;
+            assert endEntry >= firstEntry : endEntry;
+
+            this.firstEntry = firstEntry;
+            this.endEntry = endEntry;
+        }
+
+        /**
+         * Compute the entries, either directly or by splitting the range.
+         */
+        @Override
+        protected void compute() {
+            int count = endEntry - firstEntry;
+            if (count <= entriesPerTask) {
+                double[] radiance = new double[3];
+                for (int entry = firstEntry; entry < endEntry; entry++) {
+                    computeEntry(entry, radiance);
+                }
+            } else {
+                int middleEntry = firstEntry + count / 2;
+                invokeAll(new EntryTask(firstEntry, middleEntry),
+                        new EntryTask(middleEntry, endEntry));
+            }
+        }
+    }
+    // *************************************************************************
+    // test cases
+
+    /**
+     * A console application to test this class: time the generation, check
+     * that the cache round-trips, and print the colors at a few altitudes.
+     *
+     * @param ignored
+     * @throws IOException if the temporary cache directory can't be created
+     */
+    public static void main(String[] ignored)
+            throws IOException {
+        logger.setLevel(Level.INFO);
+        System.out.print("Test results for class ScatteringTable:\n\n");
+
+        int numEntries = 128;
+        File cacheDirectory = Files.createTempDirectory("scattering").toFile();
+        long startTime = System.nanoTime();
+        ScatteringTable generated =
+                new ScatteringTable(numEntries, cacheDirectory);
+        long elapsedNanos = System.nanoTime() - startTime;
+        System.out.printf("generated %d entries in %.1f msec%n", numEntries,
+                elapsedNanos * 1e-6);
+
+        startTime = System.nanoTime();
+        ScatteringTable cached =
+                new ScatteringTable(numEntries, cacheDirectory);
+        elapsedNanos = System.nanoTime() - startTime;
+        boolean match = Arrays.equals(generated.entries, cached.entries);
+        System.out.printf("cache round-trip in %.1f msec: %s%n",
+                elapsedNanos * 1e-6, match);
+
+        ColorRGBA color = new ColorRGBA();
+        float[] sines = {-0.1f, 0f, 0.05f, 0.25f, 1f};
+        for (float sine : sines) {
+            System.out.printf("sine=%5.2f  sun=%s", sine,
+                    generated.sunColor(sine, color));
+            System.out.printf("  haze=%s", generated.hazeColor(sine, color));
+            System.out.printf("  sky=%s%n", generated.skyColor(sine, color));
+        }
+    }
+}
\ No newline at end of file
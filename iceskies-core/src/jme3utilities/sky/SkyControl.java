@@ -25,19 +25,33 @@
  */
 package jme3utilities.sky;
 
+import com.sun.management.ThreadMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.jme3.asset.AssetManager;
 import com.jme3.math.ColorRGBA;
 import com.jme3.math.FastMath;
-import com.jme3.math.Vector2f;
 import com.jme3.math.Vector3f;
 import com.jme3.renderer.Camera;
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.system.JmeSystem;
 import com.jme3.texture.Texture;
 
 import jme3utilities.Validate;
-import jme3utilities.math.MyColor;
 import jme3utilities.math.MyMath;
 
 /**
@@ -68,6 +82,19 @@ import jme3utilities.math.MyMath;
  * stars, one for southern stars, and an optional "bottom" dome which extends
  * the horizon haze for scenes with a low horizon.
  * <p>
+ * To render the same sky into other viewports (for instance, the reflection
+ * and refraction views of a WaterProcessor), register this control as a
+ * ViewPortListener: each such viewport gets a lightweight instance of the sky
+ * which is driven by this control's simulation.
+ * <p>
+ * By default, the colors of the sky and lighting are blended from a few fixed
+ * colors. For colors derived from atmospheric scattering, specify a
+ * ScatteringTable.
+ * <p>
+ * By default, the sky is recomputed on every frame. To save CPU time at high
+ * frame rates, invoke setTickInterval() to recompute it at a fixed rate. To
+ * move most of that work off the render thread, invoke setPipelined(true).
+ * <p>
  * This control is not serializable.
  *
  * @author Stephen Gold <sgold@sonic.net>
@@ -77,36 +104,6 @@ public class SkyControl
     // *************************************************************************
     // constants
 
-    /**
-     * base color of the daytime sky: pale blue
-     */
-    final private static ColorRGBA colorDay =
-            new ColorRGBA(0.4f, 0.6f, 1f, Constants.alphaMax);
-    /**
-     * light color and intensity for full moonlight: bluish gray
-     */
-    final private static ColorRGBA moonLight =
-            new ColorRGBA(0.4f, 0.4f, 0.6f, Constants.alphaMax);
-    /**
-     * light color and intensity for moonless night: nearly black
-     */
-    final private static ColorRGBA starLight =
-            new ColorRGBA(0.03f, 0.03f, 0.03f, Constants.alphaMax);
-    /**
-     * light color and intensity for full sunlight: yellowish white
-     */
-    final private static ColorRGBA sunLight =
-            new ColorRGBA(0.8f, 0.8f, 0.75f, Constants.alphaMax);
-    /**
-     * color blended in around sunrise and sunset: ruddy orange
-     */
-    final private static ColorRGBA twilight =
-            new ColorRGBA(0.6f, 0.3f, 0.15f, Constants.alphaMax);
-    /**
-     * extent of the twilight periods before sunrise and after sunset, expressed
-     * as the sine of the sun's angle below the horizon (&le;1, &ge;0)
-     */
-    final private static float limitOfTwilight = 0.1f;
     /**
      * object index for the moon
      */
@@ -115,17 +112,15 @@ public class SkyControl
      * object index for the sun
      */
     final public static int sunIndex = 0;
+    /**
+     * idle time after which the worker thread exits (in seconds)
+     */
+    final private static long workerKeepAlive = 5L;
     /**
      * message logger for this class
      */
     final private static Logger logger =
             Logger.getLogger(SkyControl.class.getName());
-    /**
-     * light direction for starlight: don't make this perfectly vertical because
-     * that might cause shadow map aliasing
-     */
-    final private static Vector3f starlightDirection =
-            new Vector3f(1f, 9f, 1f).normalize();
     // *************************************************************************
     // fields
     /**
@@ -133,6 +128,20 @@ public class SkyControl
      * default)
      */
     private boolean cloudModulationFlag = false;
+    /**
+     * true to recompute everything on the next update, without interpolating
+     * from the previous tick
+     */
+    private boolean forceUpdateFlag = true;
+    /**
+     * true to compute ticks on a worker thread, false to compute them on the
+     * render thread (the default)
+     */
+    private boolean pipelinedFlag = false;
+    /**
+     * reusable bottom dome color - not serialized
+     */
+    final private ColorRGBA tmpBottom = new ColorRGBA();
     /**
      * texture scale for moon images; larger value gives a larger moon
      * <p>
@@ -145,14 +154,78 @@ public class SkyControl
      * The default value (0.08) exaggerates the sun's size by a factor of 8.
      */
     private float sunScale = 0.08f;
+    /**
+     * interval between simulation ticks (in seconds, &ge;0; 0 &rarr; recompute
+     * on every update, the default)
+     */
+    private float tickInterval = 0f;
+    /**
+     * time elapsed since the most recent simulation tick (in seconds, &ge;0)
+     */
+    private float timeSinceTick = 0f;
+    /**
+     * extra astronomical objects, or null if none
+     */
+    private CelestialObjectLayer objectLayer = null;
+    /**
+     * task which computes the snapshot on the worker thread - not serialized
+     */
+    final private Callable<SkySnapshot> computeTask =
+            new Callable<SkySnapshot>() {
+        @Override
+        public SkySnapshot call() {
+            snapshot.compute(topMesh);
+            return snapshot;
+        }
+    };
+    /**
+     * executor for pipelined ticks, or null if not started - not serialized
+     */
+    private ExecutorService pipeline = null;
+    /**
+     * computation in progress on the worker thread, or null if none
+     */
+    private Future<SkySnapshot> pendingSnapshot = null;
     /**
      * off-screen renderer for the moon
      */
     private GlobeRenderer moonRenderer = null;
+    /**
+     * index of the pre-rendered phase frame applied to the moon, or -1 if
+     * none
+     */
+    private int phaseFrameIndex = -1;
+    /**
+     * pre-rendered phase frames to use instead of the moon renderer, or null
+     * to use the moon renderer
+     */
+    private LunarPhaseFrames phaseFrames = null;
+    /**
+     * precomputed scattering colors for the sky and lighting, or null to blend
+     * fixed colors (the default)
+     */
+    private ScatteringTable scatteringTable = null;
+    /**
+     * lighting applied to the updater between ticks - not serialized
+     */
+    final private LightingState blendedLighting = new LightingState();
+    /**
+     * lighting computed by the most recent tick - not serialized
+     */
+    final private LightingState latestLighting = new LightingState();
+    /**
+     * lighting computed by the tick before the most recent one - not
+     * serialized
+     */
+    final private LightingState previousLighting = new LightingState();
     /**
      * phase of the moon: default is FULL
      */
     private LunarPhase phase = LunarPhase.FULL;
+    /**
+     * sky state for the current tick, recycled on every tick - not serialized
+     */
+    final private SkySnapshot snapshot = new SkySnapshot();
     /**
      * orientations of the sun and stars relative to the observer
      */
@@ -193,6 +266,16 @@ public class SkyControl
     // *************************************************************************
     // new methods exposed
 
+    /**
+     * Recompute the sky and lighting on the next update, regardless of the
+     * tick interval and without interpolating from the previous tick. Invoke
+     * this after a discontinuous change, such as a big jump in the time of
+     * day.
+     */
+    public void forceUpdate() {
+        forceUpdateFlag = true;
+    }
+
     /**
      * Compute the direction to the center of the moon.
      *
@@ -208,6 +291,15 @@ public class SkyControl
         return worldDirection;
     }
 
+    /**
+     * Access the scattering table.
+     *
+     * @return the pre-existing instance, or null if none
+     */
+    public ScatteringTable getScatteringTable() {
+        return scatteringTable;
+    }
+
     /**
      * Access the orientations of the sun and stars.
      *
@@ -228,6 +320,15 @@ public class SkyControl
         return updater;
     }
 
+    /**
+     * Test whether ticks are computed on a worker thread.
+     *
+     * @return true if pipelined, false if computed on the render thread
+     */
+    public boolean isPipelined() {
+        return pipelinedFlag;
+    }
+
     /**
      * Alter the cloud modulation flag.
      *
@@ -253,10 +354,31 @@ public class SkyControl
         moonScale = newDiameter * topMesh.uvScale / FastMath.HALF_PI;
     }
 
+    /**
+     * Specify a layer of extra astronomical objects (planets, extra moons,
+     * comets, ...) to render in addition to the sun and moon. The layer is
+     * rendered behind the top dome, so its objects fade out during the day,
+     * like stars.
+     *
+     * @param newLayer (or null for none)
+     */
+    public void setObjectLayer(CelestialObjectLayer newLayer) {
+        if (objectLayer != null) {
+            subtree.detachChild(objectLayer.getGeometry());
+        }
+        objectLayer = newLayer;
+        if (newLayer != null) {
+            Geometry layerGeometry = newLayer.getGeometry();
+            int topIndex = subtree.getChildIndex(topDome);
+            subtree.attachChildAt(layerGeometry, topIndex);
+            newLayer.update(sunAndStars);
+        }
+    }
+
     /**
      * Alter the phase of the moon to a pre-set value.
      *
-     * @param newPreset (or null to hide the moon)
+     * @param newPreset (or null to remove the moon)
      */
     final public void setPhase(LunarPhase newPreset) {
         if (newPreset == LunarPhase.CUSTOM) {
@@ -267,8 +389,11 @@ public class SkyControl
         if (moonRenderer != null) {
             moonRenderer.setEnabled(false);
         }
+        phaseFrameIndex = -1;
         phase = newPreset;
-        if (newPreset != null) {
+        if (newPreset == null) {
+            topMaterial.removeObject(moonIndex);
+        } else {
             phaseAngle = newPreset.longitudeDifference();
             String assetPath = newPreset.imagePath();
             topMaterial.addObject(moonIndex, assetPath);
@@ -276,7 +401,9 @@ public class SkyControl
     }
 
     /**
-     * Customize the phase angle of the moon for off-screen rendering.
+     * Customize the phase angle of the moon for off-screen rendering. If
+     * pre-rendered phase frames have been specified, the nearest frame is
+     * used instead.
      *
      * @param newAngle (in radians, &le;2*Pi, &ge;0)
      */
@@ -286,18 +413,79 @@ public class SkyControl
             throw new IllegalArgumentException(
                     "angle should be between 0 and 2*Pi");
         }
-        if (moonRenderer == null) {
+        if (phaseFrames == null && moonRenderer == null) {
             throw new IllegalStateException("moon renderer not yet added");
         }
 
-        moonRenderer.setEnabled(true);
         phase = LunarPhase.CUSTOM;
         phaseAngle = newAngle;
+        if (phaseFrames != null) {
+            if (moonRenderer != null) {
+                moonRenderer.setEnabled(false);
+            }
+            selectPhaseFrame();
+            return;
+        }
+
+        moonRenderer.setEnabled(true);
 
         Texture dynamicTexture = moonRenderer.getTexture();
         topMaterial.addObject(moonIndex, dynamicTexture);
     }
 
+    /**
+     * Specify pre-rendered phase frames for the moon. While specified, custom
+     * phase angles select the nearest frame instead of enabling the moon
+     * renderer.
+     *
+     * @param newFrames (attached, or null to use the moon renderer)
+     */
+    public void setPhaseFrames(LunarPhaseFrames newFrames) {
+        if (phase == LunarPhase.CUSTOM && newFrames == null
+                && moonRenderer == null) {
+            throw new IllegalStateException("moon renderer not yet added");
+        }
+
+        phaseFrames = newFrames;
+        phaseFrameIndex = -1;
+        if (phase == LunarPhase.CUSTOM) {
+            setPhaseAngle(phaseAngle);
+        }
+    }
+
+    /**
+     * Enable or disable pipelined ticks. While pipelined, the positions of the
+     * sun, moon, and stars and the sky colors are computed on a worker thread
+     * into a snapshot, and the render thread merely applies each snapshot to
+     * the materials, domes, and updater on the following tick (which delays
+     * the sky by one tick). Cloud transmission is still sampled on the render
+     * thread.
+     * <p>
+     * The worker thread is started on demand. It's shut down when the control
+     * is disabled or removed, and it exits by itself after a few idle seconds.
+     *
+     * @param newState true to compute ticks on a worker thread, false to
+     * compute them on the render thread (the default)
+     */
+    public void setPipelined(boolean newState) {
+        if (pipelinedFlag && !newState) {
+            stopPipeline();
+            forceUpdateFlag = true;
+        }
+        pipelinedFlag = newState;
+    }
+
+    /**
+     * Specify a precomputed scattering table, to derive the colors of the
+     * sky, haze, and daylight from atmospheric scattering instead of blending
+     * a few fixed colors.
+     *
+     * @param newTable (or null to blend fixed colors)
+     */
+    public void setScatteringTable(ScatteringTable newTable) {
+        scatteringTable = newTable;
+    }
+
     /**
      * Alter the angular diameter of the sun.
      *
@@ -324,6 +512,54 @@ public class SkyControl
 
         topMaterial.addObject(sunIndex, assetPath);
     }
+
+    /**
+     * Alter the interval between simulation ticks. With a positive interval,
+     * the positions of the sun and moon, the sky colors, and the lighting are
+     * recomputed only on ticks, and the lighting passed to the updater is
+     * interpolated between the two most recent ticks (which delays it by one
+     * tick). Cloud motion and the placement of the sky node are still updated
+     * on every frame.
+     *
+     * @param newInterval interval in seconds (&ge;0; 0 &rarr; recompute on
+     * every update, 0.1 &rarr; 10 Hz)
+     */
+    public void setTickInterval(float newInterval) {
+        Validate.nonNegative(newInterval, "interval");
+
+        tickInterval = newInterval;
+        forceUpdateFlag = true;
+    }
+    // *************************************************************************
+    // AbstractControl methods
+
+    /**
+     * Enable or disable this control. Disabling it shuts down the worker
+     * thread (if any).
+     *
+     * @param newState true to enable, false to disable
+     */
+    @Override
+    public void setEnabled(boolean newState) {
+        if (!newState) {
+            stopPipeline();
+        }
+        super.setEnabled(newState);
+    }
+
+    /**
+     * Alter the controlled spatial. Removing this control from its spatial
+     * shuts down the worker thread (if any).
+     *
+     * @param newSpatial spatial to control (a node, or null)
+     */
+    @Override
+    public void setSpatial(Spatial newSpatial) {
+        if (newSpatial == null) {
+            stopPipeline();
+        }
+        super.setSpatial(newSpatial);
+    }
     // *************************************************************************
     // SkyControlCore methods
 
@@ -336,119 +572,299 @@ public class SkyControl
     @Override
     public void controlUpdate(float updateInterval) {
         super.controlUpdate(updateInterval);
-        updateAll();
+
+        if (forceUpdateFlag || tickInterval == 0f && !pipelinedFlag) {
+            if (pendingSnapshot != null) {
+                /*
+                 * Discard the computation in progress.
+                 */
+                awaitSnapshot();
+                pendingSnapshot = null;
+            }
+            tick();
+            previousLighting.set(latestLighting);
+            applyLighting(latestLighting);
+            forceUpdateFlag = false;
+            timeSinceTick = 0f;
+            updateViewNodes();
+            return;
+        }
+        if (tickInterval == 0f) {
+            pipelineTick();
+            applyLighting(latestLighting);
+            updateViewNodes();
+            return;
+        }
+
+        timeSinceTick += updateInterval;
+        if (timeSinceTick >= tickInterval) {
+            boolean ticked;
+            if (!pipelinedFlag) {
+                previousLighting.set(latestLighting);
+                tick();
+                ticked = true;
+            } else {
+                ticked = pipelineTick();
+            }
+            if (ticked) {
+                timeSinceTick = MyMath.modulo(timeSinceTick, tickInterval);
+            }
+        }
+        /*
+         * Interpolate the lighting between the two most recent ticks.
+         */
+        float fraction = FastMath.saturate(timeSinceTick / tickInterval);
+        blendedLighting.interpolate(fraction, previousLighting,
+                latestLighting);
+        applyLighting(blendedLighting);
+        updateViewNodes();
+    }
+
+    /**
+     * Enable or disable the lookup tables of the dome meshes, first waiting
+     * for any pipelined tick, since the worker thread reads the meshes.
+     *
+     * @param newState true to use lookup tables, false to compute exactly
+     */
+    @Override
+    public void setDirectionLookup(boolean newState) {
+        if (pendingSnapshot != null) {
+            awaitSnapshot();
+        }
+        super.setDirectionLookup(newState);
+    }
+
+    /**
+     * Alter the vertical angle of the top dome, first waiting for any
+     * pipelined tick, since the worker thread reads the top mesh.
+     *
+     * @param newAngle desired angle from the zenith to the rim of the top dome
+     * (in radians, &lt;1.785, &gt;0)
+     */
+    @Override
+    public void setTopVerticalAngle(float newAngle) {
+        if (pendingSnapshot != null) {
+            awaitSnapshot();
+        }
+        super.setTopVerticalAngle(newAngle);
+    }
+    // *************************************************************************
+    // ViewPortListener methods
+
+    /**
+     * Give a viewport its own instance of the sky, driven by this control's
+     * simulation, and have the updater manage its background color.
+     *
+     * @param viewPort (not null)
+     */
+    @Override
+    public void addViewPort(ViewPort viewPort) {
+        super.addViewPort(viewPort);
+        updater.addViewPort(viewPort);
+    }
+
+    /**
+     * Remove a viewport's instance of the sky, and stop updating its
+     * background color.
+     *
+     * @param viewPort (not null)
+     */
+    @Override
+    public void removeViewPort(ViewPort viewPort) {
+        super.removeViewPort(viewPort);
+        updater.removeViewPort(viewPort);
     }
     // *************************************************************************
     // private methods
 
     /**
-     * Compute where mainDirection intersects the cloud dome in the dome's local
-     * coordinates, accounting for the dome's flattening and vertical offset.
+     * Apply lighting values to the lights, filters, and viewports managed by
+     * the updater.
      *
-     * @param mainDirection (unit vector with non-negative y-component)
-     * @return new unit vector
+     * @param lighting values to apply (not null, unaffected)
      */
-    private Vector3f intersectCloudDome(Vector3f mainDirection) {
-        assert mainDirection != null;
-        assert mainDirection.isUnitVector() : mainDirection;
-        assert mainDirection.y >= 0f : mainDirection;
+    private void applyLighting(LightingState lighting) {
+        updater.update(lighting.ambientColor, lighting.backgroundColor,
+                lighting.mainColor, lighting.bloomIntensity,
+                lighting.shadowIntensity, lighting.direction);
+    }
 
-        double cosSquared = MyMath.sumOfSquares(mainDirection.x,
-                mainDirection.z);
-        if (cosSquared == 0.0) {
+    /**
+     * Apply the snapshot to the materials, domes, and extra objects, and
+     * compute the latest lighting for lights and shadows.
+     */
+    private void applySnapshot() {
+        if (snapshot.sunVisible) {
+            topMaterial.setObjectTransform(sunIndex, snapshot.sunUV, sunScale,
+                    null);
+        } else {
             /*
-             * Special case when the main light is directly overhead.
+             * The sun is below the horizon, so hide it.
              */
-            return Vector3f.UNIT_Y.clone();
+            topMaterial.hideObject(sunIndex);
         }
+        topMaterial.setClearColor(snapshot.clearColor);
+        updateMoon();
+        topMaterial.setObjectColor(sunIndex, snapshot.sunColor);
+        topMaterial.setObjectGlow(sunIndex, snapshot.sunColor);
+        topMaterial.setObjectColor(moonIndex, snapshot.moonColor);
 
-        float deltaY;
-        float semiMinorAxis;
-        if (cloudsOnlyDome == null) {
-            deltaY = 0f;
-            semiMinorAxis = 1f;
-        } else {
-            Vector3f offset = cloudsOnlyDome.getLocalTranslation();
-            assert offset.x == 0f : offset;
-            assert offset.y <= 0f : offset;
-            assert offset.z == 0f : offset;
-            deltaY = offset.y;
-
-            Vector3f scale = cloudsOnlyDome.getLocalScale();
-            assert scale.x == 1f : scale;
-            assert scale.y > 0f : scale;
-            assert scale.z == 1f : scale;
-            semiMinorAxis = scale.y;
+        topMaterial.setHazeColor(snapshot.baseColor);
+        if (bottomMaterial != null) {
+            tmpBottom.set(snapshot.baseColor);
+            bottomMaterial.setColor("Color", tmpBottom);
         }
+        setCloudsColor(snapshot.cloudsColor);
         /*
-         * Solve for the most positive root of a quadratic equation
-         * in w = sqrt(x^2 + z^2).  Use double precision arithmetic.
+         * Determine what fraction of the main light passes through the clouds.
+         * The cloud layers aren't thread-safe, so this is done here.
          */
-        double cosAltitude = Math.sqrt(cosSquared);
-        double tanAltitude = mainDirection.y / cosAltitude;
-        double smaSquared = semiMinorAxis * semiMinorAxis;
-        double a = tanAltitude * tanAltitude + smaSquared;
-        assert a > 0.0 : a;
-        double b = -2.0 * deltaY * tanAltitude;
-        double c = deltaY * deltaY - smaSquared;
-        double discriminant = MyMath.discriminant(a, b, c);
-        assert discriminant >= 0.0 : discriminant;
-        double w = (-b + Math.sqrt(discriminant)) / (2.0 * a);
-
-        double distance = w / cosAltitude;
-        if (distance > 1.0) {
-            /*
-             * Squash rounding errors.
-             */
-            distance = 1.0;
+        float transmit;
+        if (snapshot.cloudsSampled) {
+            transmit = cloudsMaterial.getTransmission(snapshot.cloudsUV);
+        } else {
+            transmit = 1f;
+        }
+        snapshot.finishLighting(transmit, latestLighting);
+
+        SunAndStars snapshotSky = snapshot.sunAndStars;
+        if (starMotionFlag) {
+            snapshotSky.orientStarDomes(northDome, southDome);
+        }
+        if (objectLayer != null) {
+            objectLayer.update(snapshotSky);
+        }
+    }
+
+    /**
+     * Wait for the computation in progress on the worker thread to complete.
+     * The computation remains pending (so that the next pipelined tick
+     * applies it) unless it failed.
+     */
+    private void awaitSnapshot() {
+        assert pendingSnapshot != null;
+
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    pendingSnapshot.get();
+                    break;
+                } catch (InterruptedException exception) {
+                    /*
+                     * The snapshot mustn't be touched until the worker is
+                     * done with it, so keep waiting.
+                     */
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException exception) {
+            pendingSnapshot = null;
+            Throwable cause = exception.getCause();
+            logger.log(Level.SEVERE, "sky computation failed", cause);
+            throw new IllegalStateException(cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Capture the inputs for the next tick into the snapshot.
+     */
+    private void captureInputs() {
+        if (cloudsOnlyDome != null) {
+            assert cloudsOnlyDome.getLocalTranslation().y == cloudsDeltaY;
+            assert cloudsOnlyDome.getLocalScale().y == cloudsSemiMinorAxis;
+        }
+
+        boolean moonPresent = phase != null;
+        float moonWeight = getMoonIllumination();
+        snapshot.setInputs(sunAndStars, moonPresent, phaseAngle, moonWeight,
+                cloudModulationFlag, cloudsDeltaY, cloudsSemiMinorAxis,
+                scatteringTable);
+    }
+
+    /**
+     * Count the shader-variant switches of the dome materials since their
+     * counts were last reset.
+     *
+     * @return count (&ge;0)
+     */
+    private long countVariantSwitches() {
+        long result = topMaterial.getVariantSwitches();
+        if (cloudsMaterial != topMaterial) {
+            result += cloudsMaterial.getVariantSwitches();
         }
-        float x = (float) (mainDirection.x * distance);
-        float y = (float) MyMath.circle(w);
-        float z = (float) (mainDirection.z * distance);
-        Vector3f result = new Vector3f(x, y, z);
 
-        assert result.isUnitVector() : result;
         return result;
     }
 
     /**
-     * Compute the clockwise (left-handed) rotation of the moon's texture
-     * relative to the sky's texture.
+     * Create an executor with a single worker thread for pipelined ticks. The
+     * thread is a daemon, and it exits whenever it's been idle for a while, so
+     * a control which is discarded without being disabled doesn't leak it.
      *
-     * @param longitude the moon's celestial longitude (in radians)
-     * @param uvCenter texture coordinates of the moon's center (not null)
-     * @return new unit vector with its x-component equal to the cosine of the
-     * rotation angle and its y-component equal to the sine of the rotation
-     * angle
-     */
-    private Vector2f lunarRotation(float longitude, Vector2f uvCenter) {
-        assert uvCenter != null;
-        /*
-         * Compute UV coordinates for 0.01 radians north of the center
-         * of the moon.
-         */
-        Vector3f north = sunAndStars.convertToWorld(1f, longitude);
-        Vector2f uvNorth = topMesh.directionUV(north);
-        if (uvNorth != null) {
-            Vector2f offset = uvNorth.subtract(uvCenter);
-            assert offset.length() > 0f : offset;
-            Vector2f result = offset.normalize();
-            return result;
+     * @return new instance
+     */
+    private static ExecutorService createPipeline() {
+        ThreadFactory factory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "SkyControl");
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        ThreadPoolExecutor result = new ThreadPoolExecutor(1, 1,
+                workerKeepAlive, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), factory);
+        result.allowCoreThreadTimeOut(true);
+
+        return result;
+    }
+
+    /**
+     * Perform a pipelined tick: apply the snapshot computed by the previous
+     * tick (if any), then start computing the next one on the worker thread.
+     *
+     * @return true if the tick was performed, false if the worker thread is
+     * still busy with the previous one
+     */
+    private boolean pipelineTick() {
+        assert pipelinedFlag;
+
+        if (pipeline == null) {
+            pipeline = createPipeline();
         }
-        /*
-         * Compute UV coordinates for 0.01 radians south of the center
-         * of the moon.
-         */
-        Vector3f south = sunAndStars.convertToWorld(-1f, longitude);
-        Vector2f uvSouth = topMesh.directionUV(south);
-        if (uvSouth != null) {
-            Vector2f offset = uvCenter.subtract(uvSouth);
-            assert offset.length() > 0f : offset;
-            Vector2f result = offset.normalize();
-            return result;
+        if (pendingSnapshot != null) {
+            if (!pendingSnapshot.isDone()) {
+                return false;
+            }
+            awaitSnapshot();
+            previousLighting.set(latestLighting);
+            applySnapshot();
+        }
+        captureInputs();
+        pendingSnapshot = pipeline.submit(computeTask);
+
+        return true;
+    }
+
+    /**
+     * Apply the pre-rendered phase frame nearest the current phase angle to
+     * the moon, unless it's already applied.
+     */
+    private void selectPhaseFrame() {
+        assert phaseFrames != null;
+
+        int frameIndex = phaseFrames.nearestFrame(phaseAngle);
+        if (frameIndex != phaseFrameIndex) {
+            Texture frameTexture = phaseFrames.getTexture(frameIndex);
+            topMaterial.addObject(moonIndex, frameTexture);
+            phaseFrameIndex = frameIndex;
         }
-        assert false : south;
-        return null;
     }
 
     /**
@@ -472,251 +888,171 @@ public class SkyControl
     }
 
     /**
-     * Update astronomical objects, sky color, lighting, and stars.
+     * Discard any computation in progress on the worker thread and shut the
+     * thread down. Pipelining remains selected, so the next pipelined tick
+     * starts a new thread.
      */
-    private void updateAll() {
-        Vector3f sunDirection = updateSun();
-        /*
-         * Daytime sky texture is phased in during the twilight periods
-         * before sunrise and after sunset. Update the sky material's
-         * clear color accordingly.
-         */
-        ColorRGBA clearColor = colorDay.clone();
-        clearColor.a = FastMath.saturate(1f + sunDirection.y / limitOfTwilight);
-        topMaterial.setClearColor(clearColor);
-
-        Vector3f moonDirection = updateMoon();
-        updateLighting(sunDirection, moonDirection);
-        if (starMotionFlag) {
-            sunAndStars.orientStarDomes(northDome, southDome);
+    private void stopPipeline() {
+        if (pendingSnapshot != null) {
+            awaitSnapshot();
+            pendingSnapshot = null;
+        }
+        if (pipeline != null) {
+            pipeline.shutdown();
+            pipeline = null;
         }
     }
 
     /**
-     * Update background colors, cloud colors, haze color, sun color, lights,
-     * and shadows.
-     *
-     * @param sunDirection world direction to the sun (length=1)
-     * @param moonDirection world direction to the moon (length=1 or null)
+     * Perform a tick on the render thread: update astronomical objects, sky
+     * color, lighting, and stars.
      */
-    private void updateLighting(Vector3f sunDirection, Vector3f moonDirection) {
-        assert sunDirection != null;
-        assert sunDirection.isUnitVector() : sunDirection;
-        if (moonDirection != null) {
-            assert moonDirection.isUnitVector() : moonDirection;
-        }
-
-        float sineSolarAltitude = sunDirection.y;
-        float sineLunarAltitude;
-        if (moonDirection != null) {
-            sineLunarAltitude = moonDirection.y;
-        } else {
-            sineLunarAltitude = -1f;
-        }
-        updateObjectColors(sineSolarAltitude, sineLunarAltitude);
-        /*
-         * Determine the world direction to the main light source.
-         */
-        boolean moonUp = sineLunarAltitude >= 0f;
-        boolean sunUp = sineSolarAltitude >= 0f;
-        float moonWeight = getMoonIllumination();
-        Vector3f mainDirection;
-        if (sunUp) {
-            mainDirection = sunDirection;
-        } else if (moonUp && moonWeight > 0f) {
-            assert moonDirection != null;
-            mainDirection = moonDirection;
-        } else {
-            mainDirection = starlightDirection;
-        }
-        assert mainDirection.isUnitVector() : mainDirection;
-        assert mainDirection.y >= 0f : mainDirection;
-        /*
-         * Determine the base color (applied to horizon haze, bottom dome, and
-         * viewport backgrounds) using the sun's altitude:
-         *  + sunlight when ssa >= 0.25,
-         *  + twilight when ssa = 0,
-         *  + blend of moonlight and starlight when ssa <= -0.04,
-         * with linearly interpolated transitions.
-         */
-        ColorRGBA baseColor;
-        if (sunUp) {
-            float dayWeight = FastMath.saturate(sineSolarAltitude / 0.25f);
-            baseColor =
-                    MyColor.interpolateLinear(dayWeight, twilight, sunLight);
-        } else {
-            ColorRGBA blend;
-            if (moonUp && moonWeight > 0f) {
-                blend = MyColor.interpolateLinear(moonWeight, starLight,
-                        moonLight);
-            } else {
-                blend = starLight;
-            }
-            float nightWeight = FastMath.saturate(-sineSolarAltitude / 0.04f);
-            baseColor = MyColor.interpolateLinear(nightWeight, twilight, blend);
-        }
-        topMaterial.setHazeColor(baseColor);
-        if (bottomMaterial != null) {
-            bottomMaterial.setColor("Color", baseColor);
-        }
-
-        ColorRGBA cloudsColor = updateCloudsColor(baseColor, sunUp, moonUp);
-        /*
-         * Determine what fraction of the main light passes through the clouds.
-         */
-        float transmit;
-        if (cloudModulationFlag && (sunUp || moonUp && moonWeight > 0f)) {
-            /*
-             * Modulate light intensity as clouds pass in front.
-             */
-            Vector3f intersection = intersectCloudDome(mainDirection);
-            Vector2f texCoord = cloudsMesh.directionUV(intersection);
-            transmit = cloudsMaterial.getTransmission(texCoord);
-
-        } else {
-            transmit = 1f;
-        }
-        /*
-         * Determine the color and intensity of the main light.
-         */
-        ColorRGBA main;
-        if (sunUp) {
-            /*
-             * By day, the main light has the base color, modulated by
-             * clouds and the cube root of the sine of the sun's altitude.
-             */
-            float sunFactor = transmit * MyMath.cubeRoot(sineSolarAltitude);
-            main = baseColor.mult(sunFactor);
-
-        } else if (moonUp) {
-            /*
-             * By night, the main light is a blend of moonlight and starlight,
-             * with the moon's portion modulated by clouds and the moon's phase.
-             */
-            float moonFactor = transmit * moonWeight;
-            main = MyColor.interpolateLinear(moonFactor, starLight, moonLight);
-
-        } else {
-            main = starLight.clone();
-        }
-        /*
-         * The ambient light color is based on the clouds color;
-         * its intensity is modulated by the "slack" left by
-         * strongest component of the main light.
-         */
-        float slack = 1f - MyMath.max(main.r, main.g, main.b);
-        assert slack >= 0f : slack;
-        ColorRGBA ambient = cloudsColor.mult(slack);
-        /*
-         * Compute the recommended shadow intensity as the fraction of
-         * the total light which is directional.
-         */
-        float mainAmount = main.r + main.g + main.b;
-        float ambientAmount = ambient.r + ambient.g + ambient.b;
-        float totalAmount = mainAmount + ambientAmount;
-        assert totalAmount > 0f : totalAmount;
-        float shadowIntensity = FastMath.saturate(mainAmount / totalAmount);
-        /*
-         * Determine the recommended bloom intensity using the sun's altitude.
-         */
-        float bloomIntensity = 6f * sineSolarAltitude;
-        bloomIntensity = FastMath.clamp(bloomIntensity, 0f, 1.7f);
-
-        updater.update(ambient, baseColor, main, bloomIntensity,
-                shadowIntensity, mainDirection);
+    private void tick() {
+        captureInputs();
+        snapshot.compute(topMesh);
+        applySnapshot();
     }
 
     /**
-     * Update the moon's position and size.
-     *
-     * @return world direction to the moon (new unit vector) or null if the moon
-     * is hidden
+     * Update the moon's image, position, and size.
      */
-    private Vector3f updateMoon() {
+    private void updateMoon() {
         if (phase == null) {
-            topMaterial.hideObject(moonIndex);
-            return null;
+            /*
+             * The moon was removed by setPhase().
+             */
+            return;
         }
-        if (phase == LunarPhase.CUSTOM) {
+        if (phase == LunarPhase.CUSTOM && phaseFrames != null) {
+            selectPhaseFrame();
+        } else if (phase == LunarPhase.CUSTOM) {
             assert moonRenderer != null;
             float intensity = 2f + FastMath.abs(phaseAngle - FastMath.PI);
             moonRenderer.setLightIntensity(intensity);
             moonRenderer.setPhase(phaseAngle);
         }
-        /*
-         * Compute the UV coordinates of the center of the moon.
-         */
-        float solarLongitude = sunAndStars.getSolarLongitude();
-        float celestialLongitude = solarLongitude + phaseAngle;
-        celestialLongitude = MyMath.modulo(celestialLongitude, FastMath.TWO_PI);
-        Vector3f worldDirection =
-                sunAndStars.convertToWorld(0f, celestialLongitude);
-        Vector2f uvCenter = topMesh.directionUV(worldDirection);
 
-        if (uvCenter != null) {
-            Vector2f rotation = lunarRotation(celestialLongitude, uvCenter);
+        if (snapshot.moonVisible) {
             /*
              * Reveal the object and update its texture transform.
              */
-            topMaterial.setObjectTransform(moonIndex, uvCenter, moonScale,
-                    rotation);
+            topMaterial.setObjectTransform(moonIndex, snapshot.moonUV,
+                    moonScale, snapshot.moonRotation);
         } else {
             topMaterial.hideObject(moonIndex);
         }
-
-        return worldDirection;
     }
+    // *************************************************************************
+    // test cases
 
     /**
-     * Update the colors of the sun and moon based on their altitudes.
+     * A console application to verify that, once warmed up, the per-frame
+     * update of this control doesn't allocate any heap memory.
      *
-     * @param sineSolarAltitude (&le;1, &ge:-1)
-     * @param sineLunarAltitude (&le;1, &ge:-1)
-     */
-    private void updateObjectColors(float sineSolarAltitude,
-            float sineLunarAltitude) {
-        assert sineSolarAltitude <= 1f : sineSolarAltitude;
-        assert sineSolarAltitude >= -1f : sineSolarAltitude;
-        assert sineLunarAltitude <= 1f : sineLunarAltitude;
-        assert sineLunarAltitude >= -1f : sineLunarAltitude;
+     * @param ignored
+     */
+    public static void main(String[] ignored) {
+        System.out.print("Test results for class SkyControl:\n\n");
+
         /*
-         * Update the sun's color.
+         * Without a configuration, the asset manager would have
+         * no locators or loaders.
          */
-        float green = FastMath.saturate(3f * sineSolarAltitude);
-        float blue = FastMath.saturate(sineSolarAltitude - 0.1f);
-        ColorRGBA sunColor = new ColorRGBA(1f, green, blue, Constants.alphaMax);
-        topMaterial.setObjectColor(sunIndex, sunColor);
-        topMaterial.setObjectGlow(sunIndex, sunColor);
+        URL assetConfig = JmeSystem.getPlatformAssetConfigURL();
+        AssetManager assetManager = JmeSystem.newAssetManager(assetConfig);
+        Camera camera = new Camera(640, 480);
+        SkyControl test = new SkyControl(assetManager, camera, 0.9f, true,
+                true);
+        test.setCloudiness(0.8f);
+        test.setCloudModulation(true);
+        Node rootNode = new Node("root node");
+        rootNode.addControl(test);
+        test.setEnabled(true);
+        SunAndStars sunAndStars = test.getSunAndStars();
         /*
-         * Update the moon's color.
+         * Warm up the update path, so that one-time allocations
+         * (class loading, lazy initialization, JIT) don't count. The warmup
+         * runs the same method as the measurement, and it's long enough for
+         * tiered compilation to settle: on a HotSpot JVM, the JIT's sporadic
+         * allocations stop after about 22 simulated days.
          */
-        green = FastMath.saturate(2f * sineLunarAltitude + 0.6f);
-        blue = FastMath.saturate(5f * sineLunarAltitude + 0.1f);
-        ColorRGBA moonColor =
-                new ColorRGBA(1f, green, blue, Constants.alphaMax);
-        topMaterial.setObjectColor(moonIndex, moonColor);
+        int numWarmups = 30;
+        int numUpdates = 2400;
+        float tpf = 0.01f;
+        for (int day = 0; day < numWarmups; day++) {
+            simulateDay(test, numUpdates, tpf);
+        }
+        /*
+         * Measure the heap memory allocated by this thread, and the
+         * shader-variant switches, during a full day of simulated updates,
+         * including sunrise, sunset, moonrise, and moonset.
+         */
+        ThreadMXBean threadBean =
+                (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long switchesBefore = test.countVariantSwitches();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        simulateDay(test, numUpdates, tpf);
+        long after = threadBean.getThreadAllocatedBytes(threadId);
+        long allocated = after - before;
+        long switches = test.countVariantSwitches() - switchesBefore;
+
+        System.out.printf("%d bytes allocated during %d updates:  %s%n",
+                allocated, numUpdates, allocated == 0L ? "pass" : "FAIL");
+        System.out.printf("%d shader-variant switches during %d updates:  "
+                + "%s%n", switches, numUpdates, switches == 0L ? "pass"
+                : "FAIL");
+        /*
+         * Verify that a pipelined control converges to the same lighting
+         * as one which computes its ticks on the render thread.
+         */
+        test.setPipelined(true);
+        sunAndStars.setHour(15f);
+        for (int iteration = 0; iteration < 10; iteration++) {
+            test.update(tpf);
+            while (!test.pendingSnapshot.isDone()) {
+                Thread.yield();
+            }
+        }
+        test.setPipelined(false);
+        Vector3f pipelined = test.latestLighting.direction.clone();
+        test.update(tpf);
+        Vector3f direct = test.latestLighting.direction;
+        boolean same = pipelined.distance(direct) < 1e-5f;
+        System.out.printf("pipelined lighting matches direct:  %s%n",
+                same ? "pass" : "FAIL");
+        /*
+         * Verify that altering a mesh waits for the worker thread, and
+         * that disabling the control shuts the thread down.
+         */
+        test.setPipelined(true);
+        test.update(tpf);
+        test.setTopVerticalAngle(1.7f);
+        boolean waited = test.pendingSnapshot.isDone();
+        test.setEnabled(false);
+        boolean stopped = test.pipeline == null && test.isPipelined();
+        System.out.printf("mesh change waits for the worker:  %s%n",
+                waited ? "pass" : "FAIL");
+        System.out.printf("disabling stops the worker:  %s%n",
+                stopped ? "pass" : "FAIL");
     }
 
     /**
-     * Update the sun's position and size.
+     * Update a control through a full day of simulated time, starting at
+     * midnight.
      *
-     * @return world direction to the sun (new unit vector)
+     * @param control control to update (not null)
+     * @param numUpdates number of updates in the day (&gt;0)
+     * @param tpf interval between updates (in seconds, &ge;0)
      */
-    private Vector3f updateSun() {
-        /*
-         * Compute the UV coordinates of the center of the sun.
-         */
-        Vector3f worldDirection = sunAndStars.getSunDirection();
-        Vector2f uv = topMesh.directionUV(worldDirection);
-        if (uv == null) {
-            /*
-             * The sun is below the horizon, so hide it.
-             */
-            topMaterial.hideObject(sunIndex);
-        } else {
-            topMaterial.setObjectTransform(sunIndex, uv, sunScale, null);
+    private static void simulateDay(SkyControl control, int numUpdates,
+            float tpf) {
+        SunAndStars sunAndStars = control.getSunAndStars();
+        float hoursPerUpdate = Constants.hoursPerDay / (float) numUpdates;
+        for (int iteration = 0; iteration < numUpdates; iteration++) {
+            float hour = hoursPerUpdate * iteration;
+            sunAndStars.setHour(hour);
+            control.update(tpf);
         }
-
-        return worldDirection;
     }
 }
\ No newline at end of file
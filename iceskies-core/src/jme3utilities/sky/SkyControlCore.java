@@ -25,6 +25,8 @@
  */
 package jme3utilities.sky;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -35,17 +37,21 @@ import com.jme3.math.FastMath;
 import com.jme3.math.Quaternion;
 import com.jme3.math.Vector3f;
 import com.jme3.renderer.Camera;
+import com.jme3.renderer.ViewPort;
 import com.jme3.renderer.queue.RenderQueue.Bucket;
 import com.jme3.renderer.queue.RenderQueue.ShadowMode;
 import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
 import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.Spatial.CullHint;
 import com.jme3.texture.Texture;
 
 import jme3utilities.MyAsset;
 import jme3utilities.MySpatial;
 import jme3utilities.SubtreeControl;
 import jme3utilities.Validate;
-import jme3utilities.math.MyColor;
+import jme3utilities.ViewPortListener;
 
 /**
  * Core fields and methods of a simple control to simulate a dynamic sky.
@@ -63,19 +69,29 @@ import jme3utilities.math.MyColor;
  * <p>
  * To simulate star motion, several more domes are added: one for northern
  * stars, one for southern stars, and an optional "bottom" dome which extends
- * the horizon haze for scenes with a low horizon.
+ * the horizon haze for scenes with a low horizon. Instead of star maps, the
+ * north dome can render stars from a compact catalog (see setStarCatalog()).
+ * <p>
+ * Additional viewports (such as the reflection and refraction views of a
+ * WaterProcessor) can share the simulation: each viewport added via
+ * addViewPort() gets its own instance of the sky node, which shares meshes and
+ * materials with the control's sky node and is merely re-positioned for the
+ * viewport's camera. If a viewport's own scenes already include the
+ * control's sky node (for instance a WaterProcessor whose reflection scene is
+ * the root node) its instance is hidden, so the sky isn't rendered twice.
  *
  * @author Stephen Gold <sgold@sonic.net>
  */
 public class SkyControlCore
-        extends SubtreeControl {
+        extends SubtreeControl
+        implements ViewPortListener {
     // *************************************************************************
     // constants
 
     /**
      * maximum number of cloud layers
      */
-    final protected static int numCloudLayers = 6;
+    final protected static int numCloudLayers = Constants.numCloudLayers;
     /**
      * number of samples in each longitudinal quadrant of a major dome,
      * including both its top and rim (&ge;2)
@@ -108,6 +124,15 @@ public class SkyControlCore
     final private static String southName = "south";
     // *************************************************************************
     // fields
+    /**
+     * root nodes of the sky instances, in the same order as viewPorts - not
+     * serialized
+     */
+    final private ArrayList<Node> viewNodes = new ArrayList<>(2);
+    /**
+     * viewports which have their own sky instances - not serialized
+     */
+    final private ArrayList<ViewPort> viewPorts = new ArrayList<>(2);
     /**
      * which asset manager to use for loading textures and material definitions:
      * set by constructor
@@ -157,6 +182,16 @@ public class SkyControlCore
      * rate of motion for cloud layer animations (1 &rarr; standard)
      */
     private float cloudsRelativeSpeed = 1f;
+    /**
+     * vertical offset of the clouds-only dome (&le;0), updated whenever the
+     * dome is moved
+     */
+    protected float cloudsDeltaY = 0f;
+    /**
+     * vertical scale of the clouds-only dome (&gt;0, &le;1), set when the
+     * dome is created
+     */
+    protected float cloudsSemiMinorAxis = 1f;
     /**
      * phase angle of the moon: default corresponds to a 100% full moon
      */
@@ -193,6 +228,14 @@ public class SkyControlCore
      * material of the top dome: set by constructor
      */
     final protected SkyMaterial topMaterial;
+    /**
+     * reusable rotation for positioning the sky node - not serialized
+     */
+    final private Quaternion tmpRotation = new Quaternion();
+    /**
+     * reusable location for positioning the sky node - not serialized
+     */
+    final private Vector3f tmpLocation = new Vector3f();
     // *************************************************************************
     // constructors
 
@@ -324,11 +367,7 @@ public class SkyControlCore
      * contribution
      */
     public float getMoonIllumination() {
-        float fullAngle = FastMath.abs(phaseAngle - FastMath.PI);
-        float weight = 1f - FastMath.saturate(fullAngle * 0.6f);
-
-        assert weight >= 0f : weight;
-        assert weight <= 1f : weight;
+        float weight = LunarPhase.illumination(phaseAngle);
         return weight;
     }
 
@@ -376,8 +415,47 @@ public class SkyControlCore
                     "offset should be between 0 and 1");
         }
 
-        float deltaY = -newYOffset * cloudsOnlyDome.getLocalScale().y;
-        cloudsOnlyDome.setLocalTranslation(0f, deltaY, 0f);
+        cloudsDeltaY = -newYOffset * cloudsSemiMinorAxis;
+        cloudsOnlyDome.setLocalTranslation(0f, cloudsDeltaY, 0f);
+    }
+
+    /**
+     * Enable or disable the lookup tables which speed up the conversion of
+     * directions to sky texture coordinates, at the cost of a small error (see
+     * DomeMesh.maxLookupError()).
+     *
+     * @param newState true to use lookup tables, false to compute exactly
+     */
+    public void setDirectionLookup(boolean newState) {
+        topMesh.setDirectionLookup(newState);
+        if (cloudsMesh != null) {
+            cloudsMesh.setDirectionLookup(newState);
+        }
+    }
+
+    /**
+     * Enable or disable GPU-side cloud animation. While enabled, the shaders
+     * compute each layer's offset from its motion, and the only per-frame
+     * write for the clouds is the animation time. Offsets for transmission
+     * estimates are computed on demand. Requires material definitions which
+     * declare the CloudsTime and Clouds#Motion parameters, such as the
+     * standard ones.
+     *
+     * @param newState true to animate on the GPU, false to write each
+     * layer's offset every frame
+     */
+    public void setGpuCloudAnimation(boolean newState) {
+        if (newState) {
+            for (int layer = 0; layer < numCloudLayers; layer++) {
+                cloudLayers[layer].updateMotion();
+            }
+            cloudsMaterial.setCloudsTime(cloudsAnimationTime);
+        } else {
+            cloudsMaterial.clearCloudsTime();
+            for (int layer = 0; layer < numCloudLayers; layer++) {
+                cloudLayers[layer].updateOffset(cloudsAnimationTime);
+            }
+        }
     }
 
     /**
@@ -403,6 +481,35 @@ public class SkyControlCore
         stabilizeFlag = newState;
     }
 
+    /**
+     * Replace the star maps with stars loaded from a binary catalog and
+     * rendered as point sprites on the north dome. Requires star motion.
+     *
+     * @param assetPath path to a star catalog asset (not null)
+     * @param limitingMagnitude stars dimmer than this are omitted
+     * @see StarCatalog
+     */
+    public void setStarCatalog(String assetPath, float limitingMagnitude) {
+        Validate.nonNull(assetPath, "path");
+        if (!starMotionFlag) {
+            throw new IllegalStateException(
+                    "star catalogs require star motion");
+        }
+
+        Mesh starsMesh = StarCatalog.loadMesh(assetManager, assetPath,
+                limitingMagnitude);
+        Material starsMaterial =
+                new Material(assetManager, StarCatalog.materialAssetPath);
+        northDome.setMesh(starsMesh);
+        northDome.setMaterial(starsMaterial);
+        /*
+         * The catalog covers both hemispheres, so the south dome
+         * becomes transparent.
+         */
+        Material clear = MyAsset.createInvisibleMaterial(assetManager);
+        southDome.setMaterial(clear);
+    }
+
     /**
      * Alter the star maps.
      *
@@ -418,6 +525,15 @@ public class SkyControlCore
             return;
         }
 
+        /*
+         * If a star catalog replaced the north dome's mesh, restore the
+         * hemisphere, which the south dome still uses.
+         */
+        Mesh hemisphere = southDome.getMesh();
+        if (northDome.getMesh() != hemisphere) {
+            northDome.setMesh(hemisphere);
+        }
+
         String northPath = String.format("%s/%sern.png", assetPath, northName);
         Material north =
                 MyAsset.createUnshadedMaterial(assetManager, northPath);
@@ -456,35 +572,58 @@ public class SkyControlCore
     // protected methods
 
     /**
-     * Apply a modified version of the base color to each cloud layer.
-     * <p>
-     * The return value is used in calculating ambient light intensity.
+     * Apply a color to each cloud layer.
      *
-     * @param baseColor (not null, unaffected, alpha is ignored)
-     * @param sunUp true if sun is above the horizon, otherwise false
-     * @param moonUp true if moon is above the horizon, otherwise false
-     * @return new instance (alpha is undefined)
+     * @param newColor (not null, unaffected, alpha is ignored)
      */
-    protected ColorRGBA updateCloudsColor(ColorRGBA baseColor, boolean sunUp,
-            boolean moonUp) {
-        assert baseColor != null;
+    protected void setCloudsColor(ColorRGBA newColor) {
+        assert newColor != null;
 
-        ColorRGBA cloudsColor = MyColor.saturate(baseColor);
-        if (!sunUp) {
-            /*
-             * At night, darken the clouds by 15%-75%.
-             */
-            float cloudBrightness = 0.25f;
-            if (moonUp) {
-                cloudBrightness += 0.6f * getMoonIllumination();
-            }
-            cloudsColor.multLocal(cloudBrightness);
-        }
         for (int layer = 0; layer < numCloudLayers; layer++) {
-            cloudLayers[layer].setColor(cloudsColor);
+            cloudLayers[layer].setColor(newColor);
         }
+    }
+
+    /**
+     * Re-position each viewport's sky instance for its camera and copy the
+     * current state of the control's sky node to it. Invoke this after the
+     * control's sky node has been fully updated for the frame.
+     */
+    protected void updateViewNodes() {
+        int numViews = viewPorts.size();
+        for (int viewIndex = 0; viewIndex < numViews; viewIndex++) {
+            ViewPort viewPort = viewPorts.get(viewIndex);
+            Node viewNode = viewNodes.get(viewIndex);
+            if (rendersSkyNode(viewPort)) {
+                /*
+                 * The viewport renders the control's sky node already,
+                 * so hide the instance. Checked on every update, since
+                 * scenes may be attached after the viewport was added.
+                 */
+                viewNode.setCullHint(CullHint.Always);
+            } else {
+                viewNode.setCullHint(CullHint.Inherit);
+                updateViewNode(viewPort.getCamera(), viewNode);
+            }
+        }
+    }
+    // *************************************************************************
+    // AbstractControl methods
 
-        return cloudsColor;
+    /**
+     * Enable or disable this control. Sky instances in added viewports are
+     * hidden while the control is disabled.
+     *
+     * @param newState true to enable, false to disable
+     */
+    @Override
+    public void setEnabled(boolean newState) {
+        super.setEnabled(newState);
+
+        CullHint hint = newState ? CullHint.Inherit : CullHint.Always;
+        for (Node viewNode : viewNodes) {
+            viewNode.setCullHint(hint);
+        }
     }
     // *************************************************************************
     // SimpleControl methods
@@ -504,7 +643,8 @@ public class SkyControlCore
          * Translate the sky node to center the sky on the camera.
          */
         Vector3f cameraLocation = camera.getLocation();
-        MySpatial.setWorldLocation(subtree, cameraLocation);
+        MySpatial.setWorldLocation(subtree, cameraLocation, tmpLocation,
+                tmpRotation);
         /*
          * Scale the sky node so that its furthest geometries are midway
          * between the near and far planes of the view frustum.
@@ -518,8 +658,60 @@ public class SkyControlCore
             /*
              * Counteract rotation of the controlled node.
              */
-            MySpatial.setWorldOrientation(subtree, Quaternion.IDENTITY);
+            MySpatial.setWorldOrientation(subtree, Quaternion.IDENTITY,
+                    tmpRotation);
+        }
+    }
+    // *************************************************************************
+    // ViewPortListener methods
+
+    /**
+     * Give a viewport its own instance of the sky. The instance shares meshes
+     * and materials with the control's sky node, so the sky is simulated only
+     * once; on each update the instance is merely re-positioned for the
+     * viewport's camera. While one of the viewport's own scenes includes the
+     * control's sky node (as when a WaterProcessor reflects the root node),
+     * the instance is hidden instead.
+     *
+     * @param viewPort (not null)
+     */
+    @Override
+    public void addViewPort(ViewPort viewPort) {
+        Validate.nonNull(viewPort, "view port");
+        if (viewPorts.contains(viewPort)) {
+            logger.log(Level.WARNING, "view port already added");
+            return;
+        }
+
+        Node viewNode = subtree.clone(false);
+        viewNode.setName("sky instance");
+        if (!isEnabled()) {
+            viewNode.setCullHint(CullHint.Always);
+        }
+        viewNodes.add(viewNode);
+        viewPorts.add(viewPort);
+
+        updateViewNode(viewPort.getCamera(), viewNode);
+        viewPort.attachScene(viewNode);
+    }
+
+    /**
+     * Remove a viewport's instance of the sky.
+     *
+     * @param viewPort (not null)
+     */
+    @Override
+    public void removeViewPort(ViewPort viewPort) {
+        Validate.nonNull(viewPort, "view port");
+
+        int viewIndex = viewPorts.indexOf(viewPort);
+        if (viewIndex == -1) {
+            logger.log(Level.WARNING, "not removed");
+            return;
         }
+        Node viewNode = viewNodes.remove(viewIndex);
+        viewPorts.remove(viewIndex);
+        viewPort.detachScene(viewNode);
     }
     // *************************************************************************
     // private methods
@@ -578,14 +770,35 @@ public class SkyControlCore
              * Flatten the clouds-only dome in order to foreshorten clouds
              * near the horizon -- even if cloudYOffset=0.
              */
-            float yScale = 1f - cloudFlattening;
-            cloudsOnlyDome.setLocalScale(1f, yScale, 1f);
+            cloudsSemiMinorAxis = 1f - cloudFlattening;
+            cloudsOnlyDome.setLocalScale(1f, cloudsSemiMinorAxis, 1f);
             cloudsOnlyDome.setMaterial(cloudsMaterial);
         } else {
             cloudsMesh = topMesh;
         }
     }
 
+    /**
+     * Test whether any of a viewport's scenes includes the control's sky node.
+     *
+     * @param viewPort (not null)
+     * @return true if the sky node is in one of its scenes, otherwise false
+     */
+    private boolean rendersSkyNode(ViewPort viewPort) {
+        List<Spatial> scenes = viewPort.getScenes();
+        int numScenes = scenes.size();
+        for (Spatial ancestor = subtree; ancestor != null;
+                ancestor = ancestor.getParent()) {
+            for (int sceneIndex = 0; sceneIndex < numScenes; sceneIndex++) {
+                if (scenes.get(sceneIndex) == ancestor) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
     /**
      * Update the cloud layers. (Invoked once per frame.)
      *
@@ -595,8 +808,68 @@ public class SkyControlCore
         assert elapsedTime >= 0f : elapsedTime;
 
         cloudsAnimationTime += elapsedTime * cloudsRelativeSpeed;
+        if (cloudsMaterial.isGpuCloudMotion()) {
+            cloudsMaterial.setCloudsTime(cloudsAnimationTime);
+            return;
+        }
         for (int layer = 0; layer < numCloudLayers; layer++) {
             cloudLayers[layer].updateOffset(cloudsAnimationTime);
         }
     }
+
+    /**
+     * Re-position a sky instance for a camera and copy the current state of
+     * the control's sky node to it.
+     *
+     * @param viewCamera the viewport's camera (not null)
+     * @param viewNode root node of the sky instance (not null)
+     */
+    private void updateViewNode(Camera viewCamera, Node viewNode) {
+        assert viewCamera != null;
+        assert viewNode != null;
+        /*
+         * Center the instance on the camera, scale it to fit the camera's
+         * frustum, and orient it like the control's sky node.
+         */
+        viewNode.setLocalTranslation(viewCamera.getLocation());
+        float far = viewCamera.getFrustumFar();
+        float near = viewCamera.getFrustumNear();
+        float radius = (near + far) / 2f;
+        viewNode.setLocalScale(radius);
+        viewNode.setLocalRotation(subtree.getWorldRotation());
+        /*
+         * Copy the transform, mesh, and material of each dome, since
+         * the star domes rotate and materials/meshes may be replaced.
+         */
+        List<Spatial> domes = subtree.getChildren();
+        List<Spatial> viewDomes = viewNode.getChildren();
+        int numDomes = domes.size();
+        if (viewDomes.size() != numDomes) {
+            /*
+             * Geometries were attached to or detached from the sky node
+             * since the instance was created, so re-populate it.
+             */
+            viewNode.detachAllChildren();
+            for (int domeIndex = 0; domeIndex < numDomes; domeIndex++) {
+                Spatial dome = domes.get(domeIndex);
+                viewNode.attachChild(dome.clone(false));
+            }
+        }
+        for (int domeIndex = 0; domeIndex < numDomes; domeIndex++) {
+            Geometry dome = (Geometry) domes.get(domeIndex);
+            Geometry viewDome = (Geometry) viewDomes.get(domeIndex);
+            viewDome.setLocalTransform(dome.getLocalTransform());
+            if (viewDome.getMesh() != dome.getMesh()) {
+                viewDome.setMesh(dome.getMesh());
+            }
+            if (viewDome.getMaterial() != dome.getMaterial()) {
+                viewDome.setMaterial(dome.getMaterial());
+            }
+        }
+        /*
+         * The instance is the root of its own scene,
+         * so update its geometric state here.
+         */
+        viewNode.updateGeometricState();
+    }
 }
\ No newline at end of file
@@ -25,12 +25,17 @@
  */
 package jme3utilities.sky;
 
+import java.net.URL;
+import java.util.Random;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.jme3.asset.AssetManager;
 import com.jme3.material.RenderState;
 import com.jme3.math.ColorRGBA;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector2f;
+import com.jme3.system.JmeSystem;
 import com.jme3.texture.Texture;
 
 import jme3utilities.MyAsset;
@@ -53,6 +58,8 @@ import jme3utilities.Validate;
  * Cloud layers can be added to the material by invoking addClouds(); once
  * added, their positions, sizes, and colors may be adjusted by invoking
  * setCloudsOffset(), setCloudsScale(), setCloudsColor(), and setCloudsGlow().
+ * Alternatively, the shaders can animate the layers: invoke setCloudsMotion()
+ * for each layer and then setCloudsTime() once per frame.
  * <p>
  * Horizon haze can be added to the material by invoking addHaze(); once added,
  * its color may be adjusted by invoking setHazeColor().
@@ -92,6 +99,16 @@ public class SkyMaterial
      */
     final public static String sunMapPath = "Textures/skies/suns/hazy-disc.png";
     // *************************************************************************
+    // fields
+    /**
+     * color of clear sky, as passed to the material parameter
+     */
+    final private ColorRGBA clearColor = new ColorRGBA();
+    /**
+     * color of the horizon haze, as passed to the material parameter
+     */
+    final private ColorRGBA hazeColor = new ColorRGBA();
+    // *************************************************************************
     // constructors
 
     /**
@@ -259,7 +276,7 @@ public class SkyMaterial
     public void setClearColor(ColorRGBA newColor) {
         Validate.nonNull(newColor, "color");
 
-        setColor("ClearColor", newColor);
+        writeColor("ClearColor", clearColor, newColor);
     }
 
     /**
@@ -281,7 +298,7 @@ public class SkyMaterial
     public void setHazeColor(ColorRGBA newColor) {
         Validate.nonNull(newColor, "color");
 
-        setColor("HazeColor", newColor);
+        writeColor("HazeColor", hazeColor, newColor);
     }
     // *************************************************************************
     // private methods
@@ -380,4 +397,69 @@ public class SkyMaterial
         logger.log(Level.INFO, "asset path={0}", MyString.quote(assetPath));
         return assetPath;
     }
+    // *************************************************************************
+    // test cases
+
+    /**
+     * A console application to compare the batched transmission query with a
+     * loop over the single-point query.
+     *
+     * @param ignored
+     */
+    public static void main(String[] ignored) {
+        System.out.print("Test results for class SkyMaterial:\n\n");
+
+        /*
+         * Without a configuration, the asset manager would have
+         * no locators or loaders.
+         */
+        URL assetConfig = JmeSystem.getPlatformAssetConfigURL();
+        AssetManager assetManager = JmeSystem.newAssetManager(assetConfig);
+        SkyMaterial test = new SkyMaterial(assetManager, 0, 2);
+        test.initialize();
+        test.addClouds(0);
+        test.addClouds(1);
+        test.setCloudsScale(1, 1.5f);
+        test.setCloudsOffset(1, 0.3f, 0.7f);
+
+        int numPoints = 4096;
+        Random random = new Random(12345L);
+        float[] skyUVs = new float[2 * numPoints];
+        for (int i = 0; i < skyUVs.length; i++) {
+            skyUVs[i] = random.nextFloat();
+        }
+        float[] batched = new float[numPoints];
+        float[] single = new float[numPoints];
+        Vector2f uv = new Vector2f();
+
+        int numRounds = 10;
+        int numPasses = 200;
+        for (int round = 0; round < numRounds; round++) {
+            long start = System.nanoTime();
+            for (int pass = 0; pass < numPasses; pass++) {
+                for (int i = 0; i < numPoints; i++) {
+                    uv.set(skyUVs[2 * i], skyUVs[2 * i + 1]);
+                    single[i] = test.getTransmission(uv);
+                }
+            }
+            long singleNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int pass = 0; pass < numPasses; pass++) {
+                test.getTransmission(skyUVs, numPoints, batched);
+            }
+            long batchedNanos = System.nanoTime() - start;
+
+            float maxError = 0f;
+            for (int i = 0; i < numPoints; i++) {
+                float error = FastMath.abs(batched[i] - single[i]);
+                maxError = Math.max(maxError, error);
+            }
+            float count = numPasses * numPoints;
+            System.out.printf(
+                    "round %d:  single %.1f ns/point, batched %.1f ns/point,"
+                    + " max difference %g%n", round, singleNanos / count,
+                    batchedNanos / count, maxError);
+        }
+    }
 }
\ No newline at end of file
@@ -35,10 +35,13 @@ import com.jme3.export.JmeExporter;
 import com.jme3.export.JmeImporter;
 import com.jme3.export.OutputCapsule;
 import com.jme3.export.Savable;
+import com.jme3.material.MatParam;
+import com.jme3.material.MatParamTexture;
 import com.jme3.material.Material;
 import com.jme3.math.ColorRGBA;
 import com.jme3.math.FastMath;
 import com.jme3.math.Vector2f;
+import com.jme3.math.Vector4f;
 import com.jme3.texture.Image;
 import com.jme3.texture.Texture;
 import com.jme3.texture.image.ImageRaster;
@@ -49,6 +52,22 @@ import jme3utilities.math.MyMath;
 
 /**
  * Core fields and methods of a material for a dynamic sky dome.
+ * <p>
+ * The material definitions compile each cloud layer and astronomical object
+ * into the shaders only if its texture parameter is set. To save fill rate,
+ * this class sets those parameters only while they matter: a cloud layer's
+ * alpha map is bound only while its opacity is positive and its map isn't
+ * blank, and an object's color map only from addObject() until
+ * removeObject(). The textures are retained, so the parameters can be
+ * restored whenever the active set changes, which selects another shader
+ * variant.
+ * <p>
+ * Unlike the other per-frame writes, a variant switch isn't allocation-free:
+ * Material creates a new parameter whenever a texture is bound to a cleared
+ * parameter, and the first use of a variant compiles its shaders. So hiding
+ * an object (for instance when the sun or moon sets) doesn't switch
+ * variants: it merely moves the object out of texture space. Switches are
+ * counted by getVariantSwitches().
  *
  * @author Stephen Gold <sgold@sonic.net>
  */
@@ -73,6 +92,35 @@ public class SkyMaterialCore
      * constructor
      */
     protected AssetManager assetManager;
+    /**
+     * true if the shaders compute each cloud layer's offset from its motion
+     * and the CloudsTime parameter, false if offsets are written by the CPU
+     * - not serialized
+     */
+    private boolean gpuCloudMotion = false;
+    /**
+     * color of each cloud layer, as passed to the material parameters
+     */
+    private ColorRGBA[] cloudColors;
+    /**
+     * color of each astronomical object, as passed to the material parameters
+     */
+    private ColorRGBA[] objectColors;
+    /**
+     * glow color of each astronomical object, as passed to the material
+     * parameters
+     */
+    private ColorRGBA[] objectGlows;
+    /**
+     * largest change (in any component) which a parameter write may skip
+     * (&ge;0) - not serialized
+     */
+    private float writeTolerance = 1e-5f;
+    /**
+     * animation time (in seconds) as passed to the CloudsTime parameter -
+     * not serialized
+     */
+    private float cloudsTime = 0f;
     /**
      * maximum opacity of each cloud layer (&le;1, &ge;0)
      */
@@ -89,17 +137,101 @@ public class SkyMaterialCore
      */
     private Image[] cloudImages;
     /**
-     * cached rasterization of each cloud layer
+     * raster for reading each cloud layer's image, created when the layer is
+     * decoded - not serialized
+     */
+    private ImageRaster[] cloudsRasters;
+    /**
+     * red intensity of each texel in each cloud layer, decoded once from its
+     * image and stored row by row (0 to 255) - not serialized
+     */
+    private byte[][] cloudsRed;
+    /**
+     * height (in texels) of each cloud layer - not serialized
+     */
+    private int[] cloudsHeight;
+    /**
+     * number of nonzero texels in each cloud layer's decoded red array, kept
+     * current as rows are decoded, so that a blank layer (zero everywhere)
+     * is detected without scanning the array - not serialized
+     */
+    private int[] cloudsNonzero;
+    /**
+     * width (in texels) of each cloud layer - not serialized
      */
-    private ImageRaster[] cloudsRaster;
+    private int[] cloudsWidth;
     /**
      * maximum number of cloud layers (&ge;0)
      */
     protected int maxCloudLayers;
+    /**
+     * number of per-frame parameter writes passed to the material since the
+     * counts were last reset - not serialized
+     */
+    private long issuedWrites = 0L;
+    /**
+     * number of per-frame parameter writes skipped as unchanged since the
+     * counts were last reset - not serialized
+     */
+    private long skippedWrites = 0L;
+    /**
+     * number of shader-variant switches (texture parameters bound or cleared)
+     * since the counts were last reset - not serialized
+     */
+    private long variantSwitches = 0L;
     /**
      * maximum number of astronomical objects (&ge;0)
      */
     protected int maxObjects;
+    /**
+     * name of the alpha-map parameter of each cloud layer
+     */
+    private String[] cloudsAlphaMapNames;
+    /**
+     * name of the color parameter of each cloud layer
+     */
+    private String[] cloudsColorNames;
+    /**
+     * name of the motion parameter of each cloud layer
+     */
+    private String[] cloudsMotionNames;
+    /**
+     * name of the offset parameter of each cloud layer
+     */
+    private String[] cloudsOffsetNames;
+    /**
+     * name of the center parameter of each astronomical object
+     */
+    private String[] objectCenterNames;
+    /**
+     * name of the color-map parameter of each astronomical object
+     */
+    private String[] objectColorMapNames;
+    /**
+     * name of the color parameter of each astronomical object
+     */
+    private String[] objectColorNames;
+    /**
+     * name of the glow parameter of each astronomical object
+     */
+    private String[] objectGlowNames;
+    /**
+     * name of the 1st transform parameter of each astronomical object
+     */
+    private String[] objectTransformUNames;
+    /**
+     * name of the 2nd transform parameter of each astronomical object
+     */
+    private String[] objectTransformVNames;
+    /**
+     * alpha map of each cloud layer, retained while its parameter is cleared
+     */
+    private Texture[] cloudAlphaMaps;
+    /**
+     * color map of each astronomical object, retained while its parameter is
+     * cleared
+     */
+    private Texture[] objectColorMaps;
     /**
      * UV offset of each cloud layer
      */
@@ -108,6 +240,53 @@ public class SkyMaterialCore
      * sky texture coordinates of the center of each astronomical object
      */
     private Vector2f[] objectCenters;
+    /**
+     * 1st row of the texture transform of each astronomical object, as passed
+     * to the material parameters
+     */
+    private Vector2f[] objectTransformUs;
+    /**
+     * 2nd row of the texture transform of each astronomical object, as passed
+     * to the material parameters
+     */
+    private Vector2f[] objectTransformVs;
+    /**
+     * motion of each cloud layer (u0, uRate, v0, vRate), as passed to the
+     * material parameters
+     */
+    private Vector4f[] cloudMotions;
+    /**
+     * reusable pixel for decoding cloud layers - not serialized
+     */
+    final private ColorRGBA tmpPixel = new ColorRGBA();
+    /**
+     * reusable offset for sampling cloud layers - not serialized
+     */
+    final private Vector2f tmpCloudsOffset = new Vector2f();
+    /**
+     * reusable offset for computing object transforms - not serialized
+     */
+    final private Vector2f tmpOffset = new Vector2f();
+    /**
+     * reusable vector for computing object transforms - not serialized
+     */
+    final private Vector2f tmpU = new Vector2f();
+    /**
+     * reusable vector for computing object transforms - not serialized
+     */
+    final private Vector2f tmpV = new Vector2f();
+    /**
+     * reusable center for object transforms - not serialized
+     */
+    final private Vector2f tmpCenter = new Vector2f();
+    /**
+     * reusable 1st row of an object transform - not serialized
+     */
+    final private Vector2f tmpTransformU = new Vector2f();
+    /**
+     * reusable 2nd row of an object transform - not serialized
+     */
+    final private Vector2f tmpTransformV = new Vector2f();
     // *************************************************************************
     // constructors
 
@@ -116,14 +295,26 @@ public class SkyMaterialCore
      */
     public SkyMaterialCore() {
         assetManager = null;
+        cloudAlphaMaps = null;
         cloudAlphas = null;
+        cloudColors = null;
         cloudImages = null;
+        cloudMotions = null;
         cloudScales = null;
-        cloudsRaster = null;
+        cloudsHeight = null;
+        cloudsNonzero = null;
+        cloudsRasters = null;
+        cloudsRed = null;
+        cloudsWidth = null;
         cloudOffsets = null;
         maxCloudLayers = 0;
         maxObjects = 0;
         objectCenters = null;
+        objectColorMaps = null;
+        objectColors = null;
+        objectGlows = null;
+        objectTransformUs = null;
+        objectTransformVs = null;
     }
 
     /**
@@ -147,12 +338,20 @@ public class SkyMaterialCore
         this.maxObjects = maxObjects;
         this.maxCloudLayers = maxCloudLayers;
 
+        cloudAlphaMaps = new Texture[maxCloudLayers];
         cloudAlphas = new float[maxCloudLayers];
         cloudImages = new Image[maxCloudLayers];
+        cloudMotions = new Vector4f[maxCloudLayers];
         cloudOffsets = new Vector2f[maxCloudLayers];
-        cloudsRaster = new ImageRaster[maxCloudLayers];
         cloudScales = new float[maxCloudLayers];
+        cloudsHeight = new int[maxCloudLayers];
+        cloudsNonzero = new int[maxCloudLayers];
+        cloudsRasters = new ImageRaster[maxCloudLayers];
+        cloudsRed = new byte[maxCloudLayers][];
+        cloudsWidth = new int[maxCloudLayers];
         objectCenters = new Vector2f[maxObjects];
+        objectColorMaps = new Texture[maxObjects];
+        initializeCaches();
     }
     // *************************************************************************
     // new methods exposed
@@ -168,22 +367,37 @@ public class SkyMaterialCore
         validateLayerIndex(layerIndex);
         Validate.nonNull(assetPath, "path");
 
-        boolean firstTime = (cloudsRaster[layerIndex] == null);
-
         Texture alphaMap = MyAsset.loadTexture(assetManager, assetPath);
+        addClouds(layerIndex, alphaMap);
+    }
+
+    /**
+     * Add a cloud layer to this material using the specified alpha map, for
+     * instance one produced by a CloudMapGenerator.
+     *
+     * @param layerIndex (&lt;maxCloudLayers, &ge;0)
+     * @param alphaMap alpha map to use (not null, wrap mode set to Repeat)
+     */
+    public void addClouds(int layerIndex, Texture alphaMap) {
+        validateLayerIndex(layerIndex);
+        Validate.nonNull(alphaMap, "texture");
+
+        boolean firstTime = (cloudsRed[layerIndex] == null);
+
         alphaMap.setWrap(Texture.WrapMode.Repeat);
-        String parameterName = String.format("Clouds%dAlphaMap", layerIndex);
-        setTexture(parameterName, alphaMap);
+        cloudAlphaMaps[layerIndex] = alphaMap;
 
         Image image = alphaMap.getImage();
         cloudImages[layerIndex] = image;
-        cloudsRaster[layerIndex] = ImageRaster.create(image);
+        decodeClouds(layerIndex);
 
         if (firstTime) {
             cloudOffsets[layerIndex] = new Vector2f();
             setCloudsColor(layerIndex, ColorRGBA.White);
             setCloudsOffset(layerIndex, 0f, 0f);
             setCloudsScale(layerIndex, 1f);
+        } else {
+            selectCloudsVariant(layerIndex);
         }
     }
 
@@ -198,17 +412,64 @@ public class SkyMaterialCore
         validateObjectIndex(objectIndex);
         Validate.nonNull(colorMap, "texture");
 
-        String parameterName = String.format("Object%dColorMap", objectIndex);
-        setTexture(parameterName, colorMap);
+        objectColorMaps[objectIndex] = colorMap;
 
         if (objectCenters[objectIndex] == null) {
             objectCenters[objectIndex] = new Vector2f();
             setObjectColor(objectIndex, ColorRGBA.White);
             setObjectGlow(objectIndex, ColorRGBA.Black);
             setObjectTransform(objectIndex, Constants.topUV, 1f, null);
+        } else {
+            selectObjectVariant(objectIndex);
+        }
+    }
+
+    /**
+     * Return to CPU-side cloud animation, in which the offset of each layer is
+     * written by setCloudsOffset().
+     */
+    public void clearCloudsTime() {
+        if (gpuCloudMotion) {
+            clearParam("CloudsTime");
+            gpuCloudMotion = false;
         }
     }
 
+    /**
+     * Read the number of per-frame parameter writes passed to the material
+     * since the counts were last reset.
+     *
+     * @return count (&ge;0)
+     */
+    public long getIssuedWrites() {
+        assert issuedWrites >= 0L : issuedWrites;
+        return issuedWrites;
+    }
+
+    /**
+     * Read the number of per-frame parameter writes skipped because the value
+     * hadn't changed (within the write tolerance) since the counts were last
+     * reset.
+     *
+     * @return count (&ge;0)
+     */
+    public long getSkippedWrites() {
+        assert skippedWrites >= 0L : skippedWrites;
+        return skippedWrites;
+    }
+
+    /**
+     * Read the number of shader-variant switches since the counts were last
+     * reset. Each switch binds or clears a texture parameter, which may
+     * allocate.
+     *
+     * @return count (&ge;0)
+     */
+    public long getVariantSwitches() {
+        assert variantSwitches >= 0L : variantSwitches;
+        return variantSwitches;
+    }
+
     /**
      * Estimate how much of an object's light is transmitted through the clouds.
      *
@@ -227,6 +488,68 @@ public class SkyMaterialCore
         return result;
     }
 
+    /**
+     * Estimate how much light is transmitted through the clouds at many sets of
+     * texture coordinates. The per-layer scale, offset, and sampling setup are
+     * shared by all the points. That saves only a little over invoking
+     * getTransmission(Vector2f) once per point, since the bilinear sampling
+     * dominates, but it needs no Vector2f per point.
+     *
+     * @param skyUVs packed texture coordinates: u0, v0, u1, v1, ... (not null,
+     * length&ge;2*numPoints, unaffected)
+     * @param numPoints number of sample points (&ge;0)
+     * @param storeResult array for the results (length&ge;numPoints, modified)
+     * or null
+     * @return fraction of light transmitted at each point (each &le;1, &ge;0),
+     * either storeResult or a new array
+     */
+    public float[] getTransmission(float[] skyUVs, int numPoints,
+            float[] storeResult) {
+        Validate.nonNull(skyUVs, "coordinates");
+        Validate.nonNegative(numPoints, "number of points");
+        if (skyUVs.length < 2 * numPoints) {
+            logger.log(Level.SEVERE, "length={0}, numPoints={1}",
+                    new Object[]{skyUVs.length, numPoints});
+            throw new IllegalArgumentException(
+                    "not enough coordinates for the number of points");
+        }
+        float[] result = storeResult;
+        if (result == null) {
+            result = new float[numPoints];
+        } else if (result.length < numPoints) {
+            logger.log(Level.SEVERE, "length={0}, numPoints={1}",
+                    new Object[]{result.length, numPoints});
+            throw new IllegalArgumentException(
+                    "result array too short for the number of points");
+        }
+
+        for (int pointIndex = 0; pointIndex < numPoints; pointIndex++) {
+            result[pointIndex] = Constants.alphaMax;
+        }
+        for (int layerIndex = 0; layerIndex < maxCloudLayers; layerIndex++) {
+            byte[] red = cloudsRed[layerIndex];
+            if (red == null) {
+                continue;
+            }
+            int width = cloudsWidth[layerIndex];
+            int height = cloudsHeight[layerIndex];
+            float alpha = cloudAlphas[layerIndex];
+            float scale = cloudScales[layerIndex];
+            Vector2f offset = computeCloudsOffset(layerIndex);
+
+            for (int pointIndex = 0; pointIndex < numPoints; pointIndex++) {
+                float u = skyUVs[2 * pointIndex] * scale + offset.x;
+                float v = skyUVs[2 * pointIndex + 1] * scale + offset.y;
+                u = MyMath.modulo(u, Constants.uvMax);
+                v = MyMath.modulo(v, Constants.uvMax);
+                float opacity = alpha * sampleRed(red, width, height, u, v);
+                result[pointIndex] *= Constants.alphaMax - opacity;
+            }
+        }
+
+        return result;
+    }
+
     /**
      * Estimate how much light is transmitted through the clouds at the
      * specified texture coordinates.
@@ -239,7 +562,7 @@ public class SkyMaterialCore
 
         float result = 1f;
         for (int layerIndex = 0; layerIndex < maxCloudLayers; layerIndex++) {
-            if (cloudsRaster[layerIndex] != null) {
+            if (cloudsRed[layerIndex] != null) {
                 float transparency =
                         getTransparency(layerIndex, skyCoordinates);
                 result *= transparency;
@@ -252,7 +575,8 @@ public class SkyMaterialCore
     }
 
     /**
-     * Hide an astronomical object temporarily.
+     * Hide an astronomical object temporarily, without compiling it out of
+     * the shaders.
      * <p>
      * Use setObjectTransform() to reveal an object which has been hidden.
      *
@@ -264,21 +588,138 @@ public class SkyMaterialCore
             throw new IllegalStateException("object not yet added");
         }
 
-        String objectParameterName =
-                String.format("Object%dCenter", objectIndex);
-        setVector2(objectParameterName, hidden);
-        objectCenters[objectIndex].set(hidden);
-
+        writeVector2(objectCenterNames[objectIndex], objectCenters[objectIndex],
+                hidden);
         /*
          * Scale down the object to occupies only a few pixels in texture space.
          */
         float scale = 1000f;
-        String transformUParameterName =
-                String.format("Object%dTransformU", objectIndex);
-        setVector2(transformUParameterName, new Vector2f(scale, scale));
-        String transformVParameterName =
-                String.format("Object%dTransformV", objectIndex);
-        setVector2(transformVParameterName, new Vector2f(scale, scale));
+        Vector2f transform = tmpTransformU.set(scale, scale);
+        writeVector2(objectTransformUNames[objectIndex],
+                objectTransformUs[objectIndex], transform);
+        writeVector2(objectTransformVNames[objectIndex],
+                objectTransformVs[objectIndex], transform);
+    }
+
+    /**
+     * Test whether the shaders animate the cloud layers.
+     *
+     * @return true if offsets are computed from motions and the CloudsTime
+     * parameter, false if they are written by setCloudsOffset()
+     */
+    public boolean isGpuCloudMotion() {
+        return gpuCloudMotion;
+    }
+
+    /**
+     * Re-decode a range of rows of a cloud layer's alpha map after its image
+     * data have been modified in place, for instance by a CloudEvolution, so
+     * that transmission estimates stay current.
+     *
+     * @param layerIndex (&lt;maxCloudLayers, &ge;0)
+     * @param firstRow index of the 1st modified row (&ge;0)
+     * @param numRows number of modified rows (&ge;0)
+     */
+    public void refreshClouds(int layerIndex, int firstRow, int numRows) {
+        validateLayerIndex(layerIndex);
+        Validate.nonNegative(firstRow, "row");
+        Validate.nonNegative(numRows, "number of rows");
+        if (cloudsRed[layerIndex] == null) {
+            throw new IllegalStateException("layer not yet added");
+        }
+        int height = cloudsHeight[layerIndex];
+        if (firstRow + numRows > height) {
+            logger.log(Level.SEVERE, "firstRow={0}, numRows={1}, height={2}",
+                    new Object[]{firstRow, numRows, height});
+            throw new IllegalArgumentException("rows out of range");
+        }
+
+        decodeRows(layerIndex, firstRow, numRows);
+        selectCloudsVariant(layerIndex);
+    }
+
+    /**
+     * Remove an astronomical object from this material, hiding it and
+     * compiling it out of the shaders. Use addObject() to restore it. Has no
+     * effect if the object hasn't been added.
+     *
+     * @param objectIndex (&lt;maxObjects, &ge;0)
+     */
+    public void removeObject(int objectIndex) {
+        validateObjectIndex(objectIndex);
+
+        if (objectCenters[objectIndex] != null) {
+            hideObject(objectIndex);
+        }
+        objectColorMaps[objectIndex] = null;
+        selectObjectVariant(objectIndex);
+    }
+
+    /**
+     * Zero the counts of issued and skipped parameter writes and of
+     * shader-variant switches.
+     */
+    public void resetWriteCounts() {
+        issuedWrites = 0L;
+        skippedWrites = 0L;
+        variantSwitches = 0L;
+    }
+
+    /**
+     * Sample the red component of a decoded cloud layer at the specified
+     * texture coordinates, using bilinear interpolation with wrapping.
+     *
+     * @param red red intensity of each texel, row by row (not null,
+     * unaffected)
+     * @param width width of the layer (in texels, &gt;0)
+     * @param height height of the layer (in texels, &gt;0)
+     * @param u 1st texture coordinate to sample (&lt;1, &ge;0)
+     * @param v 2nd texture coordinate to sample (&lt;1, &ge;0)
+     * @return red intensity (&le;1, &ge;0)
+     */
+    static float sampleRed(byte[] red, int width, int height,
+            float u, float v) {
+        assert red != null;
+        assert width > 0 : width;
+        assert height > 0 : height;
+        assert red.length >= width * height : red.length;
+        assert u >= Constants.uvMin : u;
+        assert u < Constants.uvMax : u;
+        assert v >= Constants.uvMin : v;
+        assert v < Constants.uvMax : v;
+
+        float x = u * width;
+        int x0 = Math.min((int) x, width - 1);
+        float xFraction1 = x - x0;
+        float xFraction0 = 1f - xFraction1;
+        int x1 = (x0 + 1) % width;
+
+        float y = v * height;
+        int y0 = Math.min((int) y, height - 1);
+        float yFraction1 = y - y0;
+        float yFraction0 = 1f - yFraction1;
+        int y1 = (y0 + 1) % height;
+        /*
+         * Get the red values of the four nearest texels.
+         */
+        int row0 = y0 * width;
+        int row1 = y1 * width;
+        int r00 = red[row0 + x0] & 0xff;
+        int r01 = red[row1 + x0] & 0xff;
+        int r10 = red[row0 + x1] & 0xff;
+        int r11 = red[row1 + x1] & 0xff;
+        /*
+         * Sample using bidirectional linear interpolation.
+         */
+        float sum = r00 * xFraction0 * yFraction0
+                + r01 * xFraction0 * yFraction1
+                + r10 * xFraction1 * yFraction0
+                + r11 * xFraction1 * yFraction1;
+        float result = FastMath.saturate(sum / 255f);
+
+        assert result >= Constants.alphaMin : result;
+        assert result <= Constants.alphaMax : result;
+        return result;
     }
 
     /**
@@ -290,13 +731,18 @@ public class SkyMaterialCore
     public void setCloudsColor(int layerIndex, ColorRGBA newColor) {
         validateLayerIndex(layerIndex);
         Validate.nonNull(newColor, "color");
-        if (cloudsRaster[layerIndex] == null) {
+        if (cloudsRed[layerIndex] == null) {
             throw new IllegalStateException("layer not yet added");
         }
 
-        String parameterName = String.format("Clouds%dColor", layerIndex);
-        setColor(parameterName, newColor);
+        ColorRGBA color = cloudColors[layerIndex];
+        if (color == null) {
+            color = new ColorRGBA();
+            cloudColors[layerIndex] = color;
+        }
+        writeColor(cloudsColorNames[layerIndex], color, newColor);
         cloudAlphas[layerIndex] = newColor.a;
+        selectCloudsVariant(layerIndex);
     }
 
     /**
@@ -308,7 +754,7 @@ public class SkyMaterialCore
     public void setCloudsGlow(int layerIndex, ColorRGBA newColor) {
         validateLayerIndex(layerIndex);
         Validate.nonNull(newColor, "color");
-        if (cloudsRaster[layerIndex] == null) {
+        if (cloudsRed[layerIndex] == null) {
             throw new IllegalStateException("layer not yet added");
         }
 
@@ -316,6 +762,33 @@ public class SkyMaterialCore
         setColor(parameterName, newColor);
     }
 
+    /**
+     * Alter the motion of a cloud layer, for use while the shaders animate
+     * the clouds (see setCloudsTime()). The material definitions must declare
+     * the Clouds#Motion parameters.
+     *
+     * @param layerIndex (&lt;maxCloudLayers, &ge;0)
+     * @param u0 U-component of the initial offset
+     * @param uRate U-component of the motion (cycles per second)
+     * @param v0 V-component of the initial offset
+     * @param vRate V-component of the motion (cycles per second)
+     */
+    public void setCloudsMotion(int layerIndex, float u0, float uRate,
+            float v0, float vRate) {
+        validateLayerIndex(layerIndex);
+        if (cloudsRed[layerIndex] == null) {
+            throw new IllegalStateException("layer not yet added");
+        }
+
+        Vector4f motion = cloudMotions[layerIndex];
+        if (motion == null) {
+            motion = new Vector4f();
+            cloudMotions[layerIndex] = motion;
+        }
+        motion.set(u0, uRate, v0, vRate);
+        setVector4(cloudsMotionNames[layerIndex], motion);
+    }
+
     /**
      * Alter the texture offset of a cloud layer.
      *
@@ -325,17 +798,15 @@ public class SkyMaterialCore
      */
     public void setCloudsOffset(int layerIndex, float newU, float newV) {
         validateLayerIndex(layerIndex);
-        if (cloudsRaster[layerIndex] == null) {
+        if (cloudsRed[layerIndex] == null) {
             throw new IllegalStateException("layer not yet added");
         }
 
         float uOffset = MyMath.modulo(newU, 1f);
         float vOffset = MyMath.modulo(newV, 1f);
-        Vector2f offset = new Vector2f(uOffset, vOffset);
-
-        String parameterName = String.format("Clouds%dOffset", layerIndex);
-        setVector2(parameterName, offset);
-        cloudOffsets[layerIndex].set(offset);
+        Vector2f offset = tmpOffset.set(uOffset, vOffset);
+        writeVector2(cloudsOffsetNames[layerIndex], cloudOffsets[layerIndex],
+                offset);
     }
 
     /**
@@ -347,7 +818,7 @@ public class SkyMaterialCore
     public void setCloudsScale(int layerIndex, float newScale) {
         validateLayerIndex(layerIndex);
         Validate.positive(newScale, "scale");
-        if (cloudsRaster[layerIndex] == null) {
+        if (cloudsRed[layerIndex] == null) {
             throw new IllegalStateException("layer not yet added");
         }
 
@@ -356,6 +827,22 @@ public class SkyMaterialCore
         cloudScales[layerIndex] = newScale;
     }
 
+    /**
+     * Alter the cloud animation time. The first invocation switches to
+     * GPU-side animation, in which the shaders compute the offset of each
+     * layer from its motion (see setCloudsMotion()), so that only this
+     * parameter need be written each frame. The material definitions must
+     * declare the CloudsTime parameter.
+     *
+     * @param newTime animation time (in seconds)
+     */
+    public void setCloudsTime(float newTime) {
+        cloudsTime = newTime;
+        setFloat("CloudsTime", newTime);
+        gpuCloudMotion = true;
+        issuedWrites++;
+    }
+
     /**
      * Alter the color of an astronomical object.
      *
@@ -369,8 +856,12 @@ public class SkyMaterialCore
             throw new IllegalStateException("object not yet added");
         }
 
-        String parameterName = String.format("Object%dColor", objectIndex);
-        setColor(parameterName, newColor);
+        ColorRGBA color = objectColors[objectIndex];
+        if (color == null) {
+            color = new ColorRGBA();
+            objectColors[objectIndex] = color;
+        }
+        writeColor(objectColorNames[objectIndex], color, newColor);
     }
 
     /**
@@ -386,8 +877,12 @@ public class SkyMaterialCore
             throw new IllegalStateException("object not yet added");
         }
 
-        String parameterName = String.format("Object%dGlow", objectIndex);
-        setColor(parameterName, newColor);
+        ColorRGBA color = objectGlows[objectIndex];
+        if (color == null) {
+            color = new ColorRGBA();
+            objectGlows[objectIndex] = color;
+        }
+        writeColor(objectGlowNames[objectIndex], color, newColor);
     }
 
     /**
@@ -417,21 +912,21 @@ public class SkyMaterialCore
             throw new IllegalStateException("object not yet added");
         }
 
-        String objectParameterName =
-                String.format("Object%dCenter", objectIndex);
-        setVector2(objectParameterName, centerUV);
-        objectCenters[objectIndex].set(centerUV);
+        Vector2f center = tmpCenter.set(centerUV);
+        writeVector2(objectCenterNames[objectIndex], objectCenters[objectIndex],
+                center);
 
-        Vector2f offset = centerUV.subtract(Constants.topUV);
+        Vector2f offset = tmpOffset.set(centerUV);
+        offset.subtractLocal(Constants.topUV);
         float topDist = offset.length();
         /*
          * The texture coordinate transforms are broken into pairs of
          * vectors because there is no Matrix2f class.
          */
-        Vector2f transformU = new Vector2f();
-        Vector2f transformV = new Vector2f();
-        Vector2f tU = new Vector2f();
-        Vector2f tV = new Vector2f();
+        Vector2f transformU = tmpTransformU;
+        Vector2f transformV = tmpTransformV;
+        Vector2f tU = tmpU;
+        Vector2f tV = tmpV;
 
         if (topDist > 0f) {
             /*
@@ -483,13 +978,23 @@ public class SkyMaterialCore
         transformU.divideLocal(newScale);
         transformV.divideLocal(newScale);
 
-        String transformUParameterName =
-                String.format("Object%dTransformU", objectIndex);
-        setVector2(transformUParameterName, transformU);
+        writeVector2(objectTransformUNames[objectIndex],
+                objectTransformUs[objectIndex], transformU);
+        writeVector2(objectTransformVNames[objectIndex],
+                objectTransformVs[objectIndex], transformV);
+
+        selectObjectVariant(objectIndex);
+    }
 
-        String transformVParameterName =
-                String.format("Object%dTransformV", objectIndex);
-        setVector2(transformVParameterName, transformV);
+    /**
+     * Alter the write tolerance: the largest change (in any component) for
+     * which a per-frame parameter write is skipped.
+     *
+     * @param newTolerance (&ge;0; 0 &rarr; skip only exact repeats)
+     */
+    public void setWriteTolerance(float newTolerance) {
+        Validate.nonNegative(newTolerance, "tolerance");
+        writeTolerance = newTolerance;
     }
     // *************************************************************************
     // protected methods
@@ -522,6 +1027,66 @@ public class SkyMaterialCore
             throw new IllegalArgumentException("object index out of range");
         }
     }
+
+    /**
+     * Write a color parameter, unless it already holds the specified value
+     * (within the write tolerance).
+     *
+     * @param parameterName name of the material parameter (not null)
+     * @param writtenValue instance to pass to the parameter, which retains it
+     * (not null, modified)
+     * @param newValue desired value (not null, unaffected)
+     */
+    protected void writeColor(String parameterName, ColorRGBA writtenValue,
+            ColorRGBA newValue) {
+        assert parameterName != null;
+        assert writtenValue != null;
+        assert newValue != null;
+
+        MatParam param = getParam(parameterName);
+        float tolerance = writeTolerance;
+        if (param != null && param.getValue() == writtenValue
+                && FastMath.abs(newValue.r - writtenValue.r) <= tolerance
+                && FastMath.abs(newValue.g - writtenValue.g) <= tolerance
+                && FastMath.abs(newValue.b - writtenValue.b) <= tolerance
+                && FastMath.abs(newValue.a - writtenValue.a) <= tolerance) {
+            skippedWrites++;
+            return;
+        }
+
+        writtenValue.set(newValue);
+        setColor(parameterName, writtenValue);
+        issuedWrites++;
+    }
+
+    /**
+     * Write a Vector2 parameter, unless it already holds the specified value
+     * (within the write tolerance).
+     *
+     * @param parameterName name of the material parameter (not null)
+     * @param writtenValue instance to pass to the parameter, which retains it
+     * (not null, modified)
+     * @param newValue desired value (not null, unaffected)
+     */
+    protected void writeVector2(String parameterName, Vector2f writtenValue,
+            Vector2f newValue) {
+        assert parameterName != null;
+        assert writtenValue != null;
+        assert newValue != null;
+
+        MatParam param = getParam(parameterName);
+        float tolerance = writeTolerance;
+        if (param != null && param.getValue() == writtenValue
+                && FastMath.abs(newValue.x - writtenValue.x) <= tolerance
+                && FastMath.abs(newValue.y - writtenValue.y) <= tolerance) {
+            skippedWrites++;
+            return;
+        }
+
+        writtenValue.set(newValue);
+        setVector2(parameterName, writtenValue);
+        issuedWrites++;
+    }
     // *************************************************************************
     // Savable methods
 
@@ -539,10 +1104,22 @@ public class SkyMaterialCore
 
         cloudAlphas = capsule.readFloatArray("cloudAlphas", null);
 
+        Savable[] cloudMaps = capsule.readSavableArray("cloudAlphaMaps", null);
+        Savable[] objectMaps =
+                capsule.readSavableArray("objectColorMaps", null);
+
         Savable[] sav = capsule.readSavableArray("cloudImages", null);
         cloudImages = new Image[sav.length];
         System.arraycopy(sav, 0, cloudImages, 0, sav.length);
 
+        sav = capsule.readSavableArray("cloudMotions", null);
+        if (sav == null) {
+            cloudMotions = new Vector4f[cloudImages.length];
+        } else {
+            cloudMotions = new Vector4f[sav.length];
+            System.arraycopy(sav, 0, cloudMotions, 0, sav.length);
+        }
+
         sav = capsule.readSavableArray("cloudOffsets", null);
         cloudOffsets = new Vector2f[sav.length];
         System.arraycopy(sav, 0, cloudOffsets, 0, sav.length);
@@ -559,15 +1136,49 @@ public class SkyMaterialCore
         maxCloudLayers = cloudImages.length;
         maxObjects = objectCenters.length;
 
-        cloudsRaster = new ImageRaster[maxCloudLayers];
+        cloudsHeight = new int[maxCloudLayers];
+        cloudsNonzero = new int[maxCloudLayers];
+        cloudsRasters = new ImageRaster[maxCloudLayers];
+        cloudsRed = new byte[maxCloudLayers][];
+        cloudsWidth = new int[maxCloudLayers];
+        for (int layerIndex = 0; layerIndex < maxCloudLayers; layerIndex++) {
+            if (cloudImages[layerIndex] != null) {
+                decodeClouds(layerIndex);
+            }
+        }
+        initializeCaches();
+        MatParam timeParam = getParam("CloudsTime");
+        gpuCloudMotion = (timeParam != null);
+        if (gpuCloudMotion) {
+            cloudsTime = (Float) timeParam.getValue();
+        }
+        /*
+         * Recover the retained textures. Older files lack them, so fall back
+         * on the texture parameters.
+         */
+        cloudAlphaMaps = new Texture[maxCloudLayers];
         for (int layerIndex = 0; layerIndex < maxCloudLayers; layerIndex++) {
-            Image image = cloudImages[layerIndex];
-            if (image == null) {
-                cloudsRaster[layerIndex] = null;
+            if (cloudMaps != null) {
+                cloudAlphaMaps[layerIndex] = (Texture) cloudMaps[layerIndex];
             } else {
-                cloudsRaster[layerIndex] = ImageRaster.create(image);
+                cloudAlphaMaps[layerIndex] =
+                        readTexture(cloudsAlphaMapNames[layerIndex]);
             }
         }
+        objectColorMaps = new Texture[maxObjects];
+        for (int objectIndex = 0; objectIndex < maxObjects; objectIndex++) {
+            String name = objectColorMapNames[objectIndex];
+            if (objectMaps != null) {
+                objectColorMaps[objectIndex] =
+                        (Texture) objectMaps[objectIndex];
+            } else {
+                objectColorMaps[objectIndex] = readTexture(name);
+            }
+            /*
+             * Earlier versions cleared the parameters of hidden objects.
+             */
+            selectObjectVariant(objectIndex);
+        }
     }
 
     /**
@@ -582,15 +1193,133 @@ public class SkyMaterialCore
 
         OutputCapsule capsule = exporter.getCapsule(this);
 
+        capsule.write(cloudAlphaMaps, "cloudAlphaMaps", null);
         capsule.write(cloudAlphas, "cloudAlphas", null);
         capsule.write(cloudImages, "cloudImages", null);
+        capsule.write(cloudMotions, "cloudMotions", null);
         capsule.write(cloudOffsets, "cloudOffsets", null);
         capsule.write(cloudScales, "cloudScales", null);
         capsule.write(objectCenters, "objectCenters", null);
+        capsule.write(objectColorMaps, "objectColorMaps", null);
     }
     // *************************************************************************
     // private methods
 
+    /**
+     * Bind a texture to a parameter, or clear the parameter, unless it's
+     * already in the desired state. Since the material definitions derive
+     * defines from texture parameters, a change selects another shader
+     * variant.
+     *
+     * @param parameterName name of the texture parameter (not null)
+     * @param texture texture to bind (or null to clear the parameter)
+     */
+    private void bindTexture(String parameterName, Texture texture) {
+        assert parameterName != null;
+
+        MatParam param = getParam(parameterName);
+        if (texture == null) {
+            if (param != null) {
+                clearParam(parameterName);
+                variantSwitches++;
+            }
+        } else if (param == null) {
+            setTexture(parameterName, texture);
+            variantSwitches++;
+        } else if (param.getValue() != texture) {
+            setTexture(parameterName, texture);
+        }
+    }
+
+    /**
+     * Compute the current texture offset of an indexed cloud layer, matching
+     * the calculation in the vertex shaders.
+     *
+     * @param layerIndex (&lt;maxCloudLayers, &ge;0)
+     * @return offset (either a pre-existing instance or tmpCloudsOffset)
+     */
+    private Vector2f computeCloudsOffset(int layerIndex) {
+        assert layerIndex >= 0 : layerIndex;
+        assert layerIndex < maxCloudLayers : layerIndex;
+
+        if (!gpuCloudMotion) {
+            return cloudOffsets[layerIndex];
+        }
+        Vector4f motion = cloudMotions[layerIndex];
+        if (motion == null) {
+            return tmpCloudsOffset.set(0f, 0f);
+        }
+        float u = motion.x + cloudsTime * motion.y;
+        float v = motion.z + cloudsTime * motion.w;
+        u = MyMath.modulo(u, 1f);
+        v = MyMath.modulo(v, 1f);
+        Vector2f result = tmpCloudsOffset.set(u, v);
+
+        return result;
+    }
+
+    /**
+     * Decode the red channel of an indexed cloud layer's image into a packed
+     * array, so that transmission estimates needn't access the image.
+     *
+     * @param layerIndex (&lt;maxCloudLayers, &ge;0)
+     */
+    private void decodeClouds(int layerIndex) {
+        assert layerIndex >= 0 : layerIndex;
+        assert layerIndex < maxCloudLayers : layerIndex;
+
+        Image image = cloudImages[layerIndex];
+        assert image != null : layerIndex;
+        ImageRaster raster = ImageRaster.create(image);
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+
+        cloudsHeight[layerIndex] = height;
+        cloudsNonzero[layerIndex] = 0;
+        cloudsRasters[layerIndex] = raster;
+        cloudsRed[layerIndex] = new byte[width * height];
+        cloudsWidth[layerIndex] = width;
+        decodeRows(layerIndex, 0, height);
+    }
+
+    /**
+     * Decode a range of rows of an indexed cloud layer's image into its
+     * packed array, updating the layer's count of nonzero texels.
+     *
+     * @param layerIndex (&lt;maxCloudLayers, &ge;0)
+     * @param firstRow index of the 1st row to decode (&ge;0)
+     * @param numRows number of rows to decode (&ge;0)
+     */
+    private void decodeRows(int layerIndex, int firstRow, int numRows) {
+        ImageRaster raster = cloudsRasters[layerIndex];
+        byte[] red = cloudsRed[layerIndex];
+        int width = cloudsWidth[layerIndex];
+        assert firstRow >= 0 : firstRow;
+        assert firstRow + numRows <= cloudsHeight[layerIndex] : numRows;
+
+        int nonzero = cloudsNonzero[layerIndex];
+        int texelIndex = firstRow * width;
+        for (int y = firstRow; y < firstRow + numRows; y++) {
+            for (int x = 0; x < width; x++) {
+                raster.getPixel(x, y, tmpPixel);
+                float intensity = FastMath.saturate(tmpPixel.r);
+                byte texel = (byte) Math.round(255f * intensity);
+                if (red[texelIndex] != 0) {
+                    --nonzero;
+                }
+                if (texel != 0) {
+                    ++nonzero;
+                }
+                red[texelIndex] = texel;
+                texelIndex++;
+            }
+        }
+
+        assert nonzero >= 0 : nonzero;
+        assert nonzero <= red.length : nonzero;
+        cloudsNonzero[layerIndex] = nonzero;
+    }
+
     /**
      * Estimate how much light is transmitted through an indexed cloud layer at
      * the specified texture coordinates.
@@ -603,13 +1332,16 @@ public class SkyMaterialCore
         assert layerIndex >= 0 : layerIndex;
         assert layerIndex < maxCloudLayers : layerIndex;
         assert skyCoordinates != null;
-        assert cloudsRaster[layerIndex] != null : layerIndex;
-
-        Vector2f coord = skyCoordinates.mult(cloudScales[layerIndex]);
-        coord.addLocal(cloudOffsets[layerIndex]);
-        coord.x = MyMath.modulo(coord.x, Constants.uvMax);
-        coord.y = MyMath.modulo(coord.y, Constants.uvMax);
-        float opacity = sampleRed(cloudsRaster[layerIndex], coord);
+        assert cloudsRed[layerIndex] != null : layerIndex;
+
+        float scale = cloudScales[layerIndex];
+        Vector2f offset = computeCloudsOffset(layerIndex);
+        float u = skyCoordinates.x * scale + offset.x;
+        float v = skyCoordinates.y * scale + offset.y;
+        u = MyMath.modulo(u, Constants.uvMax);
+        v = MyMath.modulo(v, Constants.uvMax);
+        float opacity = sampleRed(cloudsRed[layerIndex],
+                cloudsWidth[layerIndex], cloudsHeight[layerIndex], u, v);
         opacity *= cloudAlphas[layerIndex];
         float result = Constants.alphaMax - opacity;
 
@@ -619,54 +1351,104 @@ public class SkyMaterialCore
     }
 
     /**
-     * Sample the red component of a rasterized texture at the specified
-     * coordinates.
+     * Allocate the arrays of values passed to per-frame material parameters
+     * and pre-compute the names of those parameters, so that per-frame updates
+     * needn't allocate any objects.
+     */
+    private void initializeCaches() {
+        cloudColors = new ColorRGBA[maxCloudLayers];
+        cloudsAlphaMapNames = new String[maxCloudLayers];
+        cloudsColorNames = new String[maxCloudLayers];
+        cloudsMotionNames = new String[maxCloudLayers];
+        cloudsOffsetNames = new String[maxCloudLayers];
+        for (int layerIndex = 0; layerIndex < maxCloudLayers; layerIndex++) {
+            cloudsAlphaMapNames[layerIndex] =
+                    String.format("Clouds%dAlphaMap", layerIndex);
+            cloudsColorNames[layerIndex] =
+                    String.format("Clouds%dColor", layerIndex);
+            cloudsMotionNames[layerIndex] =
+                    String.format("Clouds%dMotion", layerIndex);
+            cloudsOffsetNames[layerIndex] =
+                    String.format("Clouds%dOffset", layerIndex);
+        }
+
+        objectColors = new ColorRGBA[maxObjects];
+        objectGlows = new ColorRGBA[maxObjects];
+        objectTransformUs = new Vector2f[maxObjects];
+        objectTransformVs = new Vector2f[maxObjects];
+        objectCenterNames = new String[maxObjects];
+        objectColorMapNames = new String[maxObjects];
+        objectColorNames = new String[maxObjects];
+        objectGlowNames = new String[maxObjects];
+        objectTransformUNames = new String[maxObjects];
+        objectTransformVNames = new String[maxObjects];
+        for (int objectIndex = 0; objectIndex < maxObjects; objectIndex++) {
+            objectTransformUs[objectIndex] = new Vector2f();
+            objectTransformVs[objectIndex] = new Vector2f();
+            objectCenterNames[objectIndex] =
+                    String.format("Object%dCenter", objectIndex);
+            objectColorMapNames[objectIndex] =
+                    String.format("Object%dColorMap", objectIndex);
+            objectColorNames[objectIndex] =
+                    String.format("Object%dColor", objectIndex);
+            objectGlowNames[objectIndex] =
+                    String.format("Object%dGlow", objectIndex);
+            objectTransformUNames[objectIndex] =
+                    String.format("Object%dTransformU", objectIndex);
+            objectTransformVNames[objectIndex] =
+                    String.format("Object%dTransformV", objectIndex);
+        }
+    }
+
+    /**
+     * Read the value of a texture parameter.
      *
-     * @param colorImage the texture to sample (not null, unaffected)
-     * @param uv texture coordinates to sample (not null, each component &lt;1
-     * and &ge;0, unaffected)
-     * @return red intensity (&le;1, &ge;0)
+     * @param parameterName name of the parameter (not null)
+     * @return pre-existing instance (or null if the parameter isn't set)
      */
-    private float sampleRed(ImageRaster colorImage, Vector2f uv) {
-        assert colorImage != null;
-        assert uv != null;
-        float u = uv.x;
-        float v = uv.y;
-        assert u >= Constants.uvMin : uv;
-        assert u < Constants.uvMax : uv;
-        assert v >= Constants.uvMin : uv;
-        assert v < Constants.uvMax : uv;
-
-        int width = colorImage.getWidth();
-        float x = u * width;
-        int x0 = (int) FastMath.floor(x);
-        float xFraction1 = x - x0;
-        float xFraction0 = 1 - xFraction1;
-        int x1 = (x0 + 1) % width;
+    private Texture readTexture(String parameterName) {
+        assert parameterName != null;
 
-        int height = colorImage.getHeight();
-        float y = v * width;
-        int y0 = (int) FastMath.floor(y);
-        float yFraction1 = y - y0;
-        float yFraction0 = 1 - yFraction1;
-        int y1 = (y0 + 1) % height;
-        /*
-         * Get the red values of the four nearest pixels.
-         */
-        float r00 = colorImage.getPixel(x0, y0).r;
-        float r01 = colorImage.getPixel(x1, y0).r;
-        float r10 = colorImage.getPixel(x0, y1).r;
-        float r11 = colorImage.getPixel(x1, y1).r;
-        /*
-         * Sample using bidirectional linear interpolation.
-         */
-        float result = r00 * xFraction0 * yFraction0
-                + r01 * xFraction0 * yFraction1
-                + r10 * xFraction1 * yFraction0
-                + r11 * xFraction1 * yFraction1;
+        MatParamTexture param = getTextureParam(parameterName);
+        if (param == null) {
+            return null;
+        }
+        Texture result = param.getTextureValue();
 
-        assert result >= Constants.alphaMin : result;
-        assert result <= Constants.alphaMax : result;
         return result;
     }
+
+    /**
+     * Bind or clear the alpha-map parameter of an indexed cloud layer, so that
+     * the layer is compiled into the shaders only while it can be seen.
+     *
+     * @param layerIndex (&lt;maxCloudLayers, &ge;0)
+     */
+    private void selectCloudsVariant(int layerIndex) {
+        assert layerIndex >= 0 : layerIndex;
+        assert layerIndex < maxCloudLayers : layerIndex;
+
+        Texture alphaMap = cloudAlphaMaps[layerIndex];
+        boolean active = alphaMap != null && cloudsNonzero[layerIndex] > 0
+                && cloudAlphas[layerIndex] > 0f;
+        if (active) {
+            bindTexture(cloudsAlphaMapNames[layerIndex], alphaMap);
+        } else {
+            bindTexture(cloudsAlphaMapNames[layerIndex], null);
+        }
+    }
+
+    /**
+     * Bind or clear the color-map parameter of an indexed astronomical object,
+     * so that the object is compiled into the shaders only while it's added.
+     *
+     * @param objectIndex (&lt;maxObjects, &ge;0)
+     */
+    private void selectObjectVariant(int objectIndex) {
+        assert objectIndex >= 0 : objectIndex;
+        assert objectIndex < maxObjects : objectIndex;
+
+        bindTexture(objectColorMapNames[objectIndex],
+                objectColorMaps[objectIndex]);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,1210 @@
+/*
+ Copyright (c) 2014, Stephen Gold
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+ * Stephen Gold's name may not be used to endorse or promote products
+ derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL STEPHEN GOLD BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3utilities.sky;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.jme3.math.FastMath;
+import com.jme3.math.Matrix3f;
+import com.jme3.math.Vector2f;
+import com.jme3.math.Vector3f;
+
+import jme3utilities.TimeOfDay;
+import jme3utilities.Validate;
+import jme3utilities.math.MyMath;
+
+/**
+ * Render-free simulation of the sky over many independent zones, for servers
+ * and tests which need the authoritative sun and moon directions, time of
+ * day, and cloud transmission without an AssetManager, a Camera, or
+ * materials.
+ * <p>
+ * Each zone has its own time of day and rate of time (as in TimeOfDay),
+ * observer latitude and solar longitude (as in SunAndStars), and lunar phase
+ * (as in SkyControl). Zones may be added and removed at any time. Zone state
+ * is held in primitive arrays (structure of arrays) indexed by zone, with no
+ * per-zone objects, and all zones are advanced together by update(),
+ * optionally in parallel.
+ * <p>
+ * The astronomy is shared with SunAndStars, and cloud transmission is sampled
+ * the same way as SkyMaterialCore.getTransmission(), using cloud maps decoded
+ * to red intensities (for instance by CloudMapGenerator.generateRows()). The
+ * cloud dome is located by DomeMesh.cloudDomeUV(), as in SkyControl, so to
+ * match a control, give the simulation the control's cloud flattening and
+ * vertical offset.
+ * <p>
+ * Not thread-safe, apart from the parallel update itself.
+ *
+ * @author Stephen Gold <sgold@sonic.net>
+ */
+public class SkySimulation {
+    // *************************************************************************
+    // constants
+
+    /**
+     * number of zones allocated when no larger number is requested
+     */
+    final private static int minCapacity = 16;
+    /**
+     * number of zones below which a parallel update task is not split further
+     */
+    final private static int zonesPerTask = 256;
+    /**
+     * maximum number of cloud layers
+     */
+    final public static int maxCloudLayers = Constants.numCloudLayers;
+    /**
+     * message logger for this class
+     */
+    final private static Logger logger =
+            Logger.getLogger(SkySimulation.class.getName());
+    // *************************************************************************
+    // fields
+    /**
+     * true to update the zones in parallel, false to update them on the
+     * calling thread
+     */
+    private boolean parallel = false;
+    /**
+     * ordinal of each zone's lunar phase, or -1 if its moon is hidden
+     */
+    private byte[] phaseOrdinals;
+    /**
+     * red intensity of each texel in each cloud layer, row by row, or null
+     * for an unused layer
+     */
+    final private byte[][] cloudsRed = new byte[maxCloudLayers][];
+    /**
+     * time of day in each zone (seconds since midnight, solar time, &lt;86400,
+     * &ge;0)
+     */
+    private double[] seconds;
+    /**
+     * maximum opacity of each cloud layer (&le;1, &ge;0)
+     */
+    final private float[] cloudAlphas = new float[maxCloudLayers];
+    /**
+     * U-component of the offset of each cloud layer as of the latest update
+     */
+    final private float[] cloudOffsetUs = new float[maxCloudLayers];
+    /**
+     * V-component of the offset of each cloud layer as of the latest update
+     */
+    final private float[] cloudOffsetVs = new float[maxCloudLayers];
+    /**
+     * texture scale of each cloud layer (&gt;0)
+     */
+    final private float[] cloudScales = new float[maxCloudLayers];
+    /**
+     * U-component of the initial offset of each cloud layer
+     */
+    final private float[] cloudU0s = new float[maxCloudLayers];
+    /**
+     * U-component of the standard motion of each cloud layer (cycles per
+     * second)
+     */
+    final private float[] cloudURates = new float[maxCloudLayers];
+    /**
+     * V-component of the initial offset of each cloud layer
+     */
+    final private float[] cloudV0s = new float[maxCloudLayers];
+    /**
+     * V-component of the standard motion of each cloud layer (cycles per
+     * second)
+     */
+    final private float[] cloudVRates = new float[maxCloudLayers];
+    /**
+     * elapsed time for cloud motion (in seconds)
+     */
+    private float cloudsAnimationTime = 0f;
+    /**
+     * vertical offset of the cloud dome's center (&le;0, &gt;-semi-minor
+     * axis)
+     */
+    private float cloudsDeltaY = 0f;
+    /**
+     * rate of cloud motion (relative to standard rate)
+     */
+    private float cloudsRelativeSpeed = 1f;
+    /**
+     * vertical scale of the cloud dome (&le;1, &gt;0)
+     */
+    private float cloudsSemiMinorAxis = 1f;
+    /**
+     * vertical offset of the cloud dome as a fraction of its height (&lt;1,
+     * &ge;0)
+     */
+    private float cloudYOffset = 0f;
+    /**
+     * rate of simulated time for zones added later (simulated seconds per
+     * second)
+     */
+    private float defaultRate = 1f;
+    /**
+     * equatorial direction to each zone's moon (length=1, packed as x, y, z
+     * triples)
+     */
+    private float[] moonEquatorials;
+    /**
+     * world direction to each zone's moon as of the latest update (length=1,
+     * packed as x, y, z triples)
+     */
+    private float[] moonDirections;
+    /**
+     * each zone's observer latitude (radians north of the equator, &le;Pi/2,
+     * &ge;-Pi/2)
+     */
+    private float[] observerLatitudes;
+    /**
+     * each zone's lunar phase angle (radians east of the sun, &le;2*Pi, &ge;0)
+     */
+    private float[] phaseAngles;
+    /**
+     * rate of simulated time in each zone (simulated seconds per second)
+     */
+    private float[] rates;
+    /**
+     * each zone's solar longitude (radians east of the vernal equinox,
+     * &le;2*Pi, &ge;0)
+     */
+    private float[] solarLongitudes;
+    /**
+     * right ascension of each zone's sun (hours east of the vernal equinox,
+     * &lt;24, &ge;0)
+     */
+    private float[] solarRaHours;
+    /**
+     * world direction to each zone's sun as of the latest update (length=1,
+     * packed as x, y, z triples)
+     */
+    private float[] sunDirections;
+    /**
+     * equatorial direction to each zone's sun (length=1, packed as x, y, z
+     * triples)
+     */
+    private float[] sunEquatorials;
+    /**
+     * fraction of each zone's main light transmitted through the clouds as of
+     * the latest update (&le;1, &ge;0)
+     */
+    private float[] transmissions;
+    /**
+     * height (in texels) of each cloud layer
+     */
+    final private int[] cloudsHeight = new int[maxCloudLayers];
+    /**
+     * width (in texels) of each cloud layer
+     */
+    final private int[] cloudsWidth = new int[maxCloudLayers];
+    /**
+     * number of zones in use (&ge;0)
+     */
+    private int numZones = 0;
+    /**
+     * reusable equatorial-to-world rotation for updates on the calling thread
+     */
+    final private Matrix3f tmpRotation = new Matrix3f();
+    /**
+     * reusable cloud-dome texture coordinates for updates on the calling
+     * thread
+     */
+    final private Vector2f tmpCloudsUV = new Vector2f();
+    /**
+     * reusable equatorial direction
+     */
+    final private Vector3f tmpEquatorial = new Vector3f();
+    // *************************************************************************
+    // constructors
+
+    /**
+     * Instantiate a simulation with the specified number of zones, each with
+     * the default settings of SunAndStars and a full moon, and no clouds.
+     *
+     * @param numZones initial number of zones (&ge;0)
+     */
+    public SkySimulation(int numZones) {
+        Validate.nonNegative(numZones, "number of zones");
+
+        int capacity = Math.max(numZones, minCapacity);
+        setCapacity(capacity);
+        for (int zoneIndex = 0; zoneIndex < numZones; zoneIndex++) {
+            addZone();
+        }
+    }
+    // *************************************************************************
+    // new methods exposed
+
+    /**
+     * Add a zone with the default settings of SunAndStars, a full moon, and
+     * the default rate of time. Its directions and transmission are valid
+     * immediately.
+     *
+     * @return index of the new zone (&ge;0)
+     */
+    public int addZone() {
+        int capacity = rates.length;
+        if (numZones == capacity) {
+            setCapacity(2 * capacity);
+        }
+
+        int zoneIndex = numZones;
+        ++numZones;
+        seconds[zoneIndex] = 0.0;
+        rates[zoneIndex] = defaultRate;
+        observerLatitudes[zoneIndex] = Constants.defaultLatitude;
+        phaseOrdinals[zoneIndex] = (byte) LunarPhase.FULL.ordinal();
+        phaseAngles[zoneIndex] = LunarPhase.FULL.longitudeDifference();
+        setSolarLongitude(zoneIndex, 0f);
+        updateZone(zoneIndex, tmpRotation, tmpCloudsUV);
+
+        return zoneIndex;
+    }
+
+    /**
+     * Read the time of day in a zone.
+     *
+     * @param zoneIndex (&lt;numZones, &ge;0)
+     * @return hours since midnight, solar time (&lt;24, &ge;0)
+     */
+    public float getHour(int zoneIndex) {
+        validateZoneIndex(zoneIndex);
+
+        float result = (float) (seconds[zoneIndex] / TimeOfDay.secondsPerHour);
+        if (result >= Constants.hoursPerDay) {
+            result = 0f;
+        }
+
+        return result;
+    }
+
+    /**
+     * Copy the direction to a zone's moon as of the latest update.
+     *
+     * @param zoneIndex (&lt;numZones, &ge;0)
+     * @param storeResult (modified if not null)
+     * @return unit vector in world (horizontal) coordinates (either
+     * storeResult or a new vector)
+     */
+    public Vector3f getMoonDirection(int zoneIndex, Vector3f storeResult) {
+        validateZoneIndex(zoneIndex);
+
+        Vector3f result = copyVector(moonDirections, zoneIndex, storeResult);
+        return result;
+    }
+
+    /**
+     * Compute the contribution of a zone's moon to the nighttime illumination
+     * mix, as in SkyControl.getMoonIllumination().
+     *
+     * @param zoneIndex (&lt;numZones, &ge;0)
+     * @return fraction (&le;1, &ge;0) 1 &rarr; full moon, 0 &rarr; no
+     * contribution
+     */
+    public float getMoonIllumination(int zoneIndex) {
+        validateZoneIndex(zoneIndex);
+
+        float phaseAngle = phaseAngles[zoneIndex];
+        float result = LunarPhase.illumination(phaseAngle);
+
+        return result;
+    }
+
+    /**
+     * Read the number of zones.
+     *
+     * @return count (&ge;0)
+     */
+    public int getNumZones() {
+        assert numZones >= 0 : numZones;
+        return numZones;
+    }
+
+    /**
+     * Read the observer's latitude in a zone.
+     *
+     * @param zoneIndex (&lt;numZones, &ge;0)
+     * @return radians north of the equator (&le;Pi/2, &ge;-Pi/2)
+     */
+    public float getObserverLatitude(int zoneIndex) {
+        validateZoneIndex(zoneIndex);
+        return observerLatitudes[zoneIndex];
+    }
+
+    /**
+     * Read the phase of the moon in a zone.
+     *
+     * @param zoneIndex (&lt;numZones, &ge;0)
+     * @return a pre-set phase, CUSTOM, or null if the moon is hidden
+     */
+    public LunarPhase getPhase(int zoneIndex) {
+        validateZoneIndex(zoneIndex);
+
+        int ordinal = phaseOrdinals[zoneIndex];
+        if (ordinal < 0) {
+            return null;
+        }
+        LunarPhase result = LunarPhase.values()[ordinal];
+
+        return result;
+    }
+
+    /**
+     * Read the lunar phase angle in a zone.
+     *
+     * @param zoneIndex (&lt;numZones, &ge;0)
+     * @return radians east of the sun (&le;2*Pi, &ge;0)
+     */
+    public float getPhaseAngle(int zoneIndex) {
+        validateZoneIndex(zoneIndex);
+        return phaseAngles[zoneIndex];
+    }
+
+    /**
+     * Read the rate of simulated time in a zone.
+     *
+     * @param zoneIndex (&lt;numZones, &ge;0)
+     * @return simulated seconds per second
+     */
+    public float getRate(int zoneIndex) {
+        validateZoneIndex(zoneIndex);
+        return rates[zoneIndex];
+    }
+
+    /**
+     * Read the solar longitude in a zone.
+     *
+     * @param zoneIndex (&lt;numZones, &ge;0)
+     * @return radians east of the vernal equinox (&le;2*Pi, &ge;0)
+     */
+    public float getSolarLongitude(int zoneIndex) {
+        validateZoneIndex(zoneIndex);
+        return solarLongitudes[zoneIndex];
+    }
+
+    /**
+     * Copy the direction to a zone's sun as of the latest update.
+     *
+     * @param zoneIndex (&lt;numZones, &ge;0)
+     * @param storeResult (modified if not null)
+     * @return unit vector in world (horizontal) coordinates (either
+     * storeResult or a new vector)
+     */
+    public Vector3f getSunDirection(int zoneIndex, Vector3f storeResult) {
+        validateZoneIndex(zoneIndex);
+
+        Vector3f result = copyVector(sunDirections, zoneIndex, storeResult);
+        return result;
+    }
+
+    /**
+     * Copy the directions to the sun in all zones as of the latest update.
+     *
+     * @param storeResult array for the results, packed as (x, y, z) triples
+     * (length&ge;3*numZones, modified if not null)
+     * @return array of unit vectors in world (horizontal) coordinates (either
+     * storeResult or a new array)
+     */
+    public float[] getSunDirections(float[] storeResult) {
+        float[] result = copyArray(sunDirections, 3 * numZones, storeResult);
+        return result;
+    }
+
+    /**
+     * Read the fraction of a zone's main light (sun or moon) transmitted
+     * through the clouds as of the latest update.
+     *
+     * @param zoneIndex (&lt;numZones, &ge;0)
+     * @return fraction (&le;1, &ge;0) 1 if there are no clouds or the main
+     * light is starlight
+     */
+    public float getTransmission(int zoneIndex) {
+        validateZoneIndex(zoneIndex);
+        return transmissions[zoneIndex];
+    }
+
+    /**
+     * Copy the cloud transmission in all zones as of the latest update.
+     *
+     * @param storeResult array for the results (length&ge;numZones, modified if
+     * not null)
+     * @return array of fractions (each &le;1, &ge;0), either storeResult or a
+     * new array
+     */
+    public float[] getTransmissions(float[] storeResult) {
+        float[] result = copyArray(transmissions, numZones, storeResult);
+        return result;
+    }
+
+    /**
+     * Test whether updates are performed in parallel.
+     *
+     * @return true if parallel, false if on the calling thread
+     */
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * Remove a zone. The last zone (unless it's the one removed) takes over
+     * the index of the removed zone.
+     *
+     * @param zoneIndex (&lt;numZones, &ge;0)
+     */
+    public void removeZone(int zoneIndex) {
+        validateZoneIndex(zoneIndex);
+
+        int lastIndex = numZones - 1;
+        if (zoneIndex != lastIndex) {
+            moveZone(lastIndex, zoneIndex);
+        }
+        numZones = lastIndex;
+    }
+
+    /**
+     * Alter an indexed cloud layer, in the manner of
+     * SkyMaterialCore.addClouds() and setCloudsScale(), and
+     * CloudLayer.setOpacity().
+     *
+     * @param layerIndex (&lt;maxCloudLayers, &ge;0)
+     * @param red red intensity of each texel, row by row (length&ge;width*
+     * height, not copied) or null to remove the layer
+     * @param width width of the layer (in texels, &gt;0)
+     * @param height height of the layer (in texels, &gt;0)
+     * @param opacity maximum opacity of the layer (&le;1, &ge;0)
+     * @param scale texture scale factor (&gt;0)
+     */
+    public void setCloudLayer(int layerIndex, byte[] red, int width,
+            int height, float opacity, float scale) {
+        validateLayerIndex(layerIndex);
+        Validate.positive(width, "width");
+        Validate.positive(height, "height");
+        Validate.fraction(opacity, "opacity");
+        Validate.positive(scale, "scale");
+        if (red != null && red.length < width * height) {
+            logger.log(Level.SEVERE, "length={0}, width={1}, height={2}",
+                    new Object[]{red.length, width, height});
+            throw new IllegalArgumentException("array too short for the layer");
+        }
+
+        cloudsRed[layerIndex] = red;
+        cloudsWidth[layerIndex] = width;
+        cloudsHeight[layerIndex] = height;
+        cloudAlphas[layerIndex] = opacity;
+        cloudScales[layerIndex] = scale;
+    }
+
+    /**
+     * Alter the flattening of the cloud dome, as specified when instantiating
+     * a SkyControl. The vertical offset is preserved as a fraction of the
+     * dome's height.
+     *
+     * @param newFlattening the oblateness (ellipticity) of the cloud dome
+     * (&ge;0, &lt;1, 0 &rarr; no flattening (hemisphere), default=0)
+     */
+    public void setCloudFlattening(float newFlattening) {
+        if (!(newFlattening >= 0f && newFlattening < 1f)) {
+            logger.log(Level.SEVERE, "flattening={0}", newFlattening);
+            throw new IllegalArgumentException(
+                    "flattening should be between 0 and 1");
+        }
+
+        cloudsSemiMinorAxis = 1f - newFlattening;
+        cloudsDeltaY = -cloudYOffset * cloudsSemiMinorAxis;
+    }
+
+    /**
+     * Alter the motion of an indexed cloud layer, in the manner of
+     * CloudLayer.setMotion().
+     *
+     * @param layerIndex (&lt;maxCloudLayers, &ge;0)
+     * @param u0 U-component of the initial offset
+     * @param uRate U-component of the standard motion (cycles per second)
+     * @param v0 V-component of the initial offset
+     * @param vRate V-component of the standard motion (cycles per second)
+     */
+    public void setCloudMotion(int layerIndex, float u0, float uRate,
+            float v0, float vRate) {
+        validateLayerIndex(layerIndex);
+
+        cloudU0s[layerIndex] = u0;
+        cloudURates[layerIndex] = uRate;
+        cloudV0s[layerIndex] = v0;
+        cloudVRates[layerIndex] = vRate;
+    }
+
+    /**
+     * Alter the speed of cloud motion in all zones.
+     *
+     * @param newRate rate relative to the standard (may be negative)
+     */
+    public void setCloudRate(float newRate) {
+        cloudsRelativeSpeed = newRate;
+    }
+
+    /**
+     * Alter the vertical position of the cloud dome, in the manner of
+     * SkyControlCore.setCloudYOffset().
+     *
+     * @param newYOffset desired vertical offset as a fraction of the dome
+     * height (&lt;1, &ge;0, default=0)
+     */
+    public void setCloudYOffset(float newYOffset) {
+        if (!(newYOffset >= 0f && newYOffset < 1f)) {
+            logger.log(Level.SEVERE, "offset={0}", newYOffset);
+            throw new IllegalArgumentException(
+                    "offset should be between 0 and 1");
+        }
+
+        cloudYOffset = newYOffset;
+        cloudsDeltaY = -newYOffset * cloudsSemiMinorAxis;
+    }
+
+    /**
+     * Alter the time of day in a zone.
+     *
+     * @param zoneIndex (&lt;numZones, &ge;0)
+     * @param newHour hours since midnight, solar time (&le;24, &ge;0)
+     */
+    public void setHour(int zoneIndex, float newHour) {
+        validateZoneIndex(zoneIndex);
+        if (!(newHour >= 0f && newHour <= Constants.hoursPerDay)) {
+            logger.log(Level.SEVERE, "hour={0}", newHour);
+            throw new IllegalArgumentException(
+                    "hour should be between 0 and 24, inclusive");
+        }
+
+        double newSeconds = newHour * (double) TimeOfDay.secondsPerHour;
+        seconds[zoneIndex] = MyMath.modulo(newSeconds, TimeOfDay.secondsPerDay);
+    }
+
+    /**
+     * Alter the observer's latitude in a zone.
+     *
+     * @param zoneIndex (&lt;numZones, &ge;0)
+     * @param latitude radians north of the equator (&le;Pi/2, &ge;-Pi/2)
+     */
+    public void setObserverLatitude(int zoneIndex, float latitude) {
+        validateZoneIndex(zoneIndex);
+        if (!(latitude >= -FastMath.HALF_PI && latitude <= FastMath.HALF_PI)) {
+            logger.log(Level.SEVERE, "latitude={0}", latitude);
+            throw new IllegalArgumentException(
+                    "latitude should be between -Pi/2 and Pi/2, inclusive");
+        }
+
+        observerLatitudes[zoneIndex] = latitude;
+    }
+
+    /**
+     * Enable or disable parallel updates. Parallel updates use the package's
+     * fork/join pool and only pay off for large numbers of zones.
+     *
+     * @param newState true to update in parallel, false to update on the
+     * calling thread
+     */
+    public void setParallel(boolean newState) {
+        parallel = newState;
+    }
+
+    /**
+     * Alter the phase of the moon in a zone, as in SkyControl.setPhase().
+     *
+     * @param zoneIndex (&lt;numZones, &ge;0)
+     * @param newPreset pre-set phase, CUSTOM to keep the current phase
+     * angle, or null to hide the moon
+     */
+    public void setPhase(int zoneIndex, LunarPhase newPreset) {
+        validateZoneIndex(zoneIndex);
+
+        if (newPreset == null) {
+            phaseOrdinals[zoneIndex] = -1;
+        } else if (newPreset == LunarPhase.CUSTOM) {
+            setPhaseAngle(zoneIndex, phaseAngles[zoneIndex]);
+        } else {
+            phaseOrdinals[zoneIndex] = (byte) newPreset.ordinal();
+            phaseAngles[zoneIndex] = newPreset.longitudeDifference();
+            updateMoonEquatorial(zoneIndex);
+        }
+    }
+
+    /**
+     * Customize the lunar phase angle in a zone.
+     *
+     * @param zoneIndex (&lt;numZones, &ge;0)
+     * @param newAngle radians east of the sun (&le;2*Pi, &ge;0)
+     */
+    public void setPhaseAngle(int zoneIndex, float newAngle) {
+        validateZoneIndex(zoneIndex);
+        if (!(newAngle >= 0f && newAngle <= FastMath.TWO_PI)) {
+            logger.log(Level.SEVERE, "angle={0}", newAngle);
+            throw new IllegalArgumentException(
+                    "angle should be between 0 and 2*Pi");
+        }
+
+        phaseOrdinals[zoneIndex] = (byte) LunarPhase.CUSTOM.ordinal();
+        phaseAngles[zoneIndex] = newAngle;
+        updateMoonEquatorial(zoneIndex);
+    }
+
+    /**
+     * Alter the rate of simulated time in all zones, including zones added
+     * later, as in TimeOfDay.setRate().
+     *
+     * @param newRate simulated seconds per second (may be negative)
+     */
+    public void setRate(float newRate) {
+        defaultRate = newRate;
+        Arrays.fill(rates, 0, numZones, newRate);
+    }
+
+    /**
+     * Alter the rate of simulated time in a zone, as in TimeOfDay.setRate().
+     *
+     * @param zoneIndex (&lt;numZones, &ge;0)
+     * @param newRate simulated seconds per second (may be negative)
+     */
+    public void setRate(int zoneIndex, float newRate) {
+        validateZoneIndex(zoneIndex);
+        rates[zoneIndex] = newRate;
+    }
+
+    /**
+     * Alter the sun's celestial longitude in a zone.
+     *
+     * @param zoneIndex (&lt;numZones, &ge;0)
+     * @param longitude radians east of the vernal equinox (&le;2*Pi, &ge;0)
+     */
+    public void setSolarLongitude(int zoneIndex, float longitude) {
+        validateZoneIndex(zoneIndex);
+        if (!(longitude >= 0f && longitude <= FastMath.TWO_PI)) {
+            logger.log(Level.SEVERE, "longitude={0}", longitude);
+            throw new IllegalArgumentException(
+                    "longitude should be between 0 and 2*Pi");
+        }
+
+        solarLongitudes[zoneIndex] = longitude;
+        solarRaHours[zoneIndex] = SunAndStars.solarRaHours(longitude);
+        SunAndStars.convertToEquatorial(0f, longitude, tmpEquatorial);
+        int base = 3 * zoneIndex;
+        sunEquatorials[base] = tmpEquatorial.x;
+        sunEquatorials[base + 1] = tmpEquatorial.y;
+        sunEquatorials[base + 2] = tmpEquatorial.z;
+
+        updateMoonEquatorial(zoneIndex);
+    }
+
+    /**
+     * Advance the time of day and the clouds in every zone, then recompute the
+     * sun and moon directions and the cloud transmission, in a single pass
+     * over the zones. Unless the update is parallel, allocates no objects.
+     *
+     * @param interval real time since the previous update (in seconds,
+     * &ge;0)
+     */
+    public void update(float interval) {
+        Validate.nonNegative(interval, "interval");
+        /*
+         * The cloud offsets are shared by all zones, so compute them
+         * before the pass.
+         */
+        cloudsAnimationTime += interval * cloudsRelativeSpeed;
+        for (int layerIndex = 0; layerIndex < maxCloudLayers; layerIndex++) {
+            float u = cloudU0s[layerIndex]
+                    + cloudsAnimationTime * cloudURates[layerIndex];
+            float v = cloudV0s[layerIndex]
+                    + cloudsAnimationTime * cloudVRates[layerIndex];
+            cloudOffsetUs[layerIndex] = MyMath.modulo(u, 1f);
+            cloudOffsetVs[layerIndex] = MyMath.modulo(v, 1f);
+        }
+
+        if (parallel && numZones > zonesPerTask) {
+            ZoneTask task = new ZoneTask(0, numZones, interval);
+            Constants.forkJoinPool.invoke(task);
+        } else {
+            updateZones(0, numZones, interval, tmpRotation, tmpCloudsUV);
+        }
+    }
+    // *************************************************************************
+    // private methods
+
+    /**
+     * Copy the leading elements of a packed array of results.
+     *
+     * @param source (not null, unaffected)
+     * @param length number of elements to copy (&ge;0)
+     * @param storeResult (modified if not null)
+     * @return either storeResult or a new array
+     */
+    private static float[] copyArray(float[] source, int length,
+            float[] storeResult) {
+        if (storeResult == null) {
+            storeResult = new float[length];
+        } else if (storeResult.length < length) {
+            logger.log(Level.SEVERE, "length={0}", storeResult.length);
+            throw new IllegalArgumentException(
+                    "storeResult too short for the number of zones");
+        }
+
+        System.arraycopy(source, 0, storeResult, 0, length);
+        return storeResult;
+    }
+
+    /**
+     * Copy a vector from a packed array.
+     *
+     * @param source packed (x, y, z) triples (not null, unaffected)
+     * @param zoneIndex (&lt;numZones, &ge;0)
+     * @param storeResult (modified if not null)
+     * @return either storeResult or a new vector
+     */
+    private static Vector3f copyVector(float[] source, int zoneIndex,
+            Vector3f storeResult) {
+        if (storeResult == null) {
+            storeResult = new Vector3f();
+        }
+        int base = 3 * zoneIndex;
+        storeResult.set(source[base], source[base + 1], source[base + 2]);
+
+        return storeResult;
+    }
+
+    /**
+     * Copy the entire state of one zone to another index.
+     *
+     * @param fromIndex index of the zone to copy (&lt;numZones, &ge;0)
+     * @param toIndex index to overwrite (&lt;numZones, &ge;0)
+     */
+    private void moveZone(int fromIndex, int toIndex) {
+        phaseOrdinals[toIndex] = phaseOrdinals[fromIndex];
+        seconds[toIndex] = seconds[fromIndex];
+        observerLatitudes[toIndex] = observerLatitudes[fromIndex];
+        phaseAngles[toIndex] = phaseAngles[fromIndex];
+        rates[toIndex] = rates[fromIndex];
+        solarLongitudes[toIndex] = solarLongitudes[fromIndex];
+        solarRaHours[toIndex] = solarRaHours[fromIndex];
+        transmissions[toIndex] = transmissions[fromIndex];
+
+        int fromBase = 3 * fromIndex;
+        int toBase = 3 * toIndex;
+        System.arraycopy(moonDirections, fromBase, moonDirections, toBase, 3);
+        System.arraycopy(moonEquatorials, fromBase, moonEquatorials, toBase, 3);
+        System.arraycopy(sunDirections, fromBase, sunDirections, toBase, 3);
+        System.arraycopy(sunEquatorials, fromBase, sunEquatorials, toBase, 3);
+    }
+
+    /**
+     * Allocate (or reallocate) the per-zone arrays, preserving any existing
+     * zones.
+     *
+     * @param capacity number of zones to allocate (&ge;numZones, &gt;0)
+     */
+    private void setCapacity(int capacity) {
+        assert capacity >= numZones : capacity;
+        assert capacity > 0 : capacity;
+
+        if (rates == null) {
+            phaseOrdinals = new byte[capacity];
+            seconds = new double[capacity];
+            moonEquatorials = new float[3 * capacity];
+            moonDirections = new float[3 * capacity];
+            observerLatitudes = new float[capacity];
+            phaseAngles = new float[capacity];
+            rates = new float[capacity];
+            solarLongitudes = new float[capacity];
+            solarRaHours = new float[capacity];
+            sunDirections = new float[3 * capacity];
+            sunEquatorials = new float[3 * capacity];
+            transmissions = new float[capacity];
+        } else {
+            phaseOrdinals = Arrays.copyOf(phaseOrdinals, capacity);
+            seconds = Arrays.copyOf(seconds, capacity);
+            moonEquatorials = Arrays.copyOf(moonEquatorials, 3 * capacity);
+            moonDirections = Arrays.copyOf(moonDirections, 3 * capacity);
+            observerLatitudes = Arrays.copyOf(observerLatitudes, capacity);
+            phaseAngles = Arrays.copyOf(phaseAngles, capacity);
+            rates = Arrays.copyOf(rates, capacity);
+            solarLongitudes = Arrays.copyOf(solarLongitudes, capacity);
+            solarRaHours = Arrays.copyOf(solarRaHours, capacity);
+            sunDirections = Arrays.copyOf(sunDirections, 3 * capacity);
+            sunEquatorials = Arrays.copyOf(sunEquatorials, 3 * capacity);
+            transmissions = Arrays.copyOf(transmissions, capacity);
+        }
+    }
+
+    /**
+     * Estimate how much light from the specified direction is transmitted
+     * through the clouds.
+     *
+     * @param x X-component of the direction (length=1, y&ge;0)
+     * @param y Y-component of the direction (length=1, y&ge;0)
+     * @param z Z-component of the direction (length=1, y&ge;0)
+     * @param cloudsUV storage for cloud-dome texture coordinates (not null,
+     * modified)
+     * @return fraction of light transmitted (&le;1, &ge;0)
+     */
+    private float transmission(float x, float y, float z, Vector2f cloudsUV) {
+        assert y >= 0f : y;
+        /*
+         * Locate the direction on the cloud dome, as SkyControl does.
+         */
+        DomeMesh.cloudDomeUV(x, y, z, cloudsDeltaY, cloudsSemiMinorAxis,
+                cloudsUV);
+        float skyU = cloudsUV.x;
+        float skyV = cloudsUV.y;
+
+        float result = Constants.alphaMax;
+        for (int layerIndex = 0; layerIndex < maxCloudLayers; layerIndex++) {
+            byte[] red = cloudsRed[layerIndex];
+            if (red == null) {
+                continue;
+            }
+            float scale = cloudScales[layerIndex];
+            float u = skyU * scale + cloudOffsetUs[layerIndex];
+            float v = skyV * scale + cloudOffsetVs[layerIndex];
+            u = MyMath.modulo(u, Constants.uvMax);
+            v = MyMath.modulo(v, Constants.uvMax);
+            float opacity = cloudAlphas[layerIndex]
+                    * SkyMaterialCore.sampleRed(red, cloudsWidth[layerIndex],
+                    cloudsHeight[layerIndex], u, v);
+            result *= Constants.alphaMax - opacity;
+        }
+
+        return result;
+    }
+
+    /**
+     * Recompute the equatorial direction to a zone's moon after a change to
+     * its solar longitude or phase angle.
+     *
+     * @param zoneIndex (&lt;numZones, &ge;0)
+     */
+    private void updateMoonEquatorial(int zoneIndex) {
+        float celestialLongitude =
+                solarLongitudes[zoneIndex] + phaseAngles[zoneIndex];
+        celestialLongitude = MyMath.modulo(celestialLongitude, FastMath.TWO_PI);
+        SunAndStars.convertToEquatorial(0f, celestialLongitude, tmpEquatorial);
+
+        int base = 3 * zoneIndex;
+        moonEquatorials[base] = tmpEquatorial.x;
+        moonEquatorials[base + 1] = tmpEquatorial.y;
+        moonEquatorials[base + 2] = tmpEquatorial.z;
+    }
+
+    /**
+     * Recompute the sun and moon directions and the cloud transmission of a
+     * zone from its current state. Touches no shared scratch, so distinct
+     * zones may be updated concurrently.
+     *
+     * @param zoneIndex (&lt;numZones, &ge;0)
+     * @param rotation storage for the equatorial-to-world rotation (not null,
+     * modified)
+     * @param cloudsUV storage for cloud-dome texture coordinates (not null,
+     * modified)
+     */
+    private void updateZone(int zoneIndex, Matrix3f rotation,
+            Vector2f cloudsUV) {
+        float hour = (float) (seconds[zoneIndex] / TimeOfDay.secondsPerHour);
+        float siderealAngle =
+                SunAndStars.siderealAngle(hour, solarRaHours[zoneIndex]);
+        SunAndStars.equatorialToWorld(siderealAngle,
+                observerLatitudes[zoneIndex], rotation);
+        float m00 = rotation.get(0, 0);
+        float m01 = rotation.get(0, 1);
+        float m02 = rotation.get(0, 2);
+        float m10 = rotation.get(1, 0);
+        float m11 = rotation.get(1, 1);
+        float m12 = rotation.get(1, 2);
+        float m20 = rotation.get(2, 0);
+        float m21 = rotation.get(2, 1);
+        float m22 = rotation.get(2, 2);
+
+        int base = 3 * zoneIndex;
+        float x = sunEquatorials[base];
+        float y = sunEquatorials[base + 1];
+        float z = sunEquatorials[base + 2];
+        float sunX = m00 * x + m01 * y + m02 * z;
+        float sunY = m10 * x + m11 * y + m12 * z;
+        float sunZ = m20 * x + m21 * y + m22 * z;
+        sunDirections[base] = sunX;
+        sunDirections[base + 1] = sunY;
+        sunDirections[base + 2] = sunZ;
+
+        x = moonEquatorials[base];
+        y = moonEquatorials[base + 1];
+        z = moonEquatorials[base + 2];
+        float moonX = m00 * x + m01 * y + m02 * z;
+        float moonY = m10 * x + m11 * y + m12 * z;
+        float moonZ = m20 * x + m21 * y + m22 * z;
+        moonDirections[base] = moonX;
+        moonDirections[base + 1] = moonY;
+        moonDirections[base + 2] = moonZ;
+        /*
+         * As in SkyControl, the main light is the sun by day and the moon (if
+         * present and lit) by night. Clouds don't modulate starlight.
+         */
+        float transmit = Constants.alphaMax;
+        if (sunY >= 0f) {
+            transmit = transmission(sunX, sunY, sunZ, cloudsUV);
+        } else if (phaseOrdinals[zoneIndex] >= 0 && moonY >= 0f
+                && LunarPhase.illumination(phaseAngles[zoneIndex]) > 0f) {
+            transmit = transmission(moonX, moonY, moonZ, cloudsUV);
+        }
+        transmissions[zoneIndex] = transmit;
+    }
+
+    /**
+     * Advance the time of day in a range of zones and recompute them.
+     *
+     * @param firstZone index of the first zone in the range (&ge;0)
+     * @param endZone index of the zone just past the range (&ge;firstZone,
+     * &le;numZones)
+     * @param interval real time since the previous update (in seconds,
+     * &ge;0)
+     * @param rotation storage for the equatorial-to-world rotation (not null,
+     * modified)
+     * @param cloudsUV storage for cloud-dome texture coordinates (not null,
+     * modified)
+     */
+    private void updateZones(int firstZone, int endZone, float interval,
+            Matrix3f rotation, Vector2f cloudsUV) {
+        for (int zoneIndex = firstZone; zoneIndex < endZone; zoneIndex++) {
+            double simulatedSeconds = rates[zoneIndex] * (double) interval;
+            double newSeconds = seconds[zoneIndex] + simulatedSeconds;
+            seconds[zoneIndex] =
+                    MyMath.modulo(newSeconds, TimeOfDay.secondsPerDay);
+            updateZone(zoneIndex, rotation, cloudsUV);
+        }
+    }
+
+    /**
+     * Validate a cloud layer index.
+     *
+     * @param layerIndex the index of a cloud layer
+     * @throws IllegalArgumentException if the index is out of range
+     */
+    private static void validateLayerIndex(int layerIndex) {
+        if (layerIndex < 0 || layerIndex >= maxCloudLayers) {
+            logger.log(Level.SEVERE, "layerIndex={0}, maxCloudLayers={1}",
+                    new Object[]{layerIndex, maxCloudLayers});
+            throw new IllegalArgumentException(
+                    "cloud layer index out of range");
+        }
+    }
+
+    /**
+     * Validate a zone index.
+     *
+     * @param zoneIndex the index of a zone
+     * @throws IllegalArgumentException if the index is out of range
+     */
+    private void validateZoneIndex(int zoneIndex) {
+        if (zoneIndex < 0 || zoneIndex >= numZones) {
+            logger.log(Level.SEVERE, "zoneIndex={0}, numZones={1}",
+                    new Object[]{zoneIndex, numZones});
+            throw new IllegalArgumentException("zone index out of range");
+        }
+    }
+    // *************************************************************************
+    // nested classes
+
+    /**
+     * Fork/join task to update a range of zones.
+     */
+    private class ZoneTask
+            extends RecursiveAction {
+        /**
+         * version number for serialization
+         */
+        static final long serialVersionUID = 1L;
+        /**
+         * real time since the previous update (in seconds, &ge;0)
+         */
+        final private float interval;
+        /**
+         * index of the zone just past the range
+         */
+        final private int endZone;
+        /**
+         * index of the first zone in the range
+         */
+        final private int firstZone;
+
+        /**
+         * Instantiate a task for the specified range of zones.
+         *
+         * @param firstZone index of the first zone (&ge;0)
+         * @param endZone index of the zone just past the range
+         * (&ge;firstZone)
+         * @param interval real time since the previous update (in seconds,
+         * &ge;0)
+         */
+        ZoneTask(int firstZone, int endZone, float interval) {
+            assert firstZone >= 0 : firstZone;
+            assert endZone >= firstZone : endZone;
+
+            this.firstZone = firstZone;
+            this.endZone = endZone;
+            this.interval = interval;
+        }
+
+        /**
+         * Update the range directly if it's small, otherwise split it in two.
+         */
+        @Override
+        protected void compute() {
+            int count = endZone - firstZone;
+            if (count <= zonesPerTask) {
+                Matrix3f rotation = new Matrix3f();
+                Vector2f cloudsUV = new Vector2f();
+                updateZones(firstZone, endZone, interval, rotation, cloudsUV);
+            } else {
+                int middleZone = firstZone + count / 2;
+                invokeAll(new ZoneTask(firstZone, middleZone, interval),
+                        new ZoneTask(middleZone, endZone, interval));
+            }
+        }
+    }
+    // *************************************************************************
+    // test cases
+
+    /**
+     * Console application to compare this class with SunAndStars, check that
+     * parallel and sequential updates agree, and measure the cost of an
+     * update.
+     *
+     * @param ignored
+     */
+    public static void main(String[] ignored) {
+        System.out.print("Test results for class SkySimulation:\n\n");
+
+        int numZones = 10_000;
+        byte[] red = new byte[64 * 64];
+        Random generator = new Random(1L);
+        generator.nextBytes(red);
+        SkySimulation sequential = new SkySimulation(0);
+        SkySimulation parallel = new SkySimulation(0);
+        parallel.setParallel(true);
+        SkySimulation[] simulations = {sequential, parallel};
+        for (SkySimulation simulation : simulations) {
+            generator.setSeed(1L);
+            for (int i = 0; i < numZones; i++) {
+                int zoneIndex = simulation.addZone();
+                simulation.setHour(zoneIndex, 24f * generator.nextFloat());
+                float latitude = FastMath.PI * (generator.nextFloat() - 0.5f);
+                simulation.setObserverLatitude(zoneIndex, latitude);
+                float longitude = FastMath.TWO_PI * generator.nextFloat();
+                simulation.setSolarLongitude(zoneIndex, longitude);
+                simulation.setRate(zoneIndex, 60f * generator.nextFloat());
+            }
+            simulation.setPhase(1, null);
+            simulation.removeZone(0);
+            simulation.setCloudLayer(0, red, 64, 64, 0.8f, 1f);
+            simulation.setCloudMotion(0, 0f, 0.003f, 0f, 0.001f);
+            simulation.update(0f);
+        }
+        numZones = sequential.getNumZones();
+        System.out.printf("%d zones, phase of zone 0 = %s%n", numZones,
+                sequential.getPhase(0));
+        /*
+         * Compare the sun directions with SunAndStars.
+         */
+        SunAndStars sunAndStars = new SunAndStars();
+        Vector3f expected = new Vector3f();
+        Vector3f actual = new Vector3f();
+        float maxError = 0f;
+        for (int zoneIndex = 0; zoneIndex < numZones; zoneIndex += 97) {
+            sunAndStars.setHour(sequential.getHour(zoneIndex));
+            sunAndStars.setObserverLatitude(
+                    sequential.getObserverLatitude(zoneIndex));
+            sunAndStars.setSolarLongitude(
+                    sequential.getSolarLongitude(zoneIndex));
+            sunAndStars.getSunDirection(expected);
+            sequential.getSunDirection(zoneIndex, actual);
+            maxError = Math.max(maxError, expected.distance(actual));
+        }
+        System.out.printf("max sun direction error = %g%n", maxError);
+        /*
+         * Time the updates, then compare the results.
+         */
+        int numUpdates = 100;
+        for (SkySimulation simulation : simulations) {
+            long start = System.nanoTime();
+            for (int i = 0; i < numUpdates; i++) {
+                simulation.update(1f / 60f);
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("parallel=%s: %.3f msec per update%n",
+                    simulation.isParallel(), elapsed * 1e-6 / numUpdates);
+        }
+        float[] sequentialSun = sequential.getSunDirections(null);
+        float[] parallelSun = parallel.getSunDirections(null);
+        float[] sequentialTransmit = sequential.getTransmissions(null);
+        float[] parallelTransmit = parallel.getTransmissions(null);
+        boolean match = Arrays.equals(sequentialSun, parallelSun)
+                && Arrays.equals(sequentialTransmit, parallelTransmit);
+        System.out.printf("parallel results match = %s%n", match);
+        /*
+         * Check DomeMesh.cloudDomeUV() against the geometry of a flattened,
+         * offset cloud dome like SkyControl's: find the mesh point with the
+         * computed texture coordinates, scale and translate it as the
+         * clouds-only dome is, and compare its direction with the original.
+         */
+        float semiMinorAxis = 1f - 0.9f;
+        float deltaY = -0.3f * semiMinorAxis;
+        Vector2f uv = new Vector2f();
+        maxError = 0f;
+        for (int i = 0; i < 10_000; i++) {
+            expected.set(generator.nextFloat() - 0.5f, generator.nextFloat(),
+                    generator.nextFloat() - 0.5f);
+            if (expected.lengthSquared() < 0.01f) {
+                continue;
+            }
+            expected.normalizeLocal();
+            DomeMesh.cloudDomeUV(expected.x, expected.y, expected.z, deltaY,
+                    semiMinorAxis, uv);
+            float du = uv.x - Constants.topU;
+            float dv = uv.y - Constants.topV;
+            float uvDistance = MyMath.hypotenuse(du, dv);
+            float angleFromTop =
+                    uvDistance / Constants.uvScale * FastMath.HALF_PI;
+            float sin = FastMath.sin(angleFromTop);
+            float cos = FastMath.cos(angleFromTop);
+            if (uvDistance > 0f) {
+                actual.set(sin * du / uvDistance, cos, -sin * dv / uvDistance);
+            } else {
+                actual.set(Vector3f.UNIT_Y);
+            }
+            actual.y = actual.y * semiMinorAxis + deltaY;
+            actual.normalizeLocal();
+            maxError = Math.max(maxError, expected.distance(actual));
+        }
+        System.out.printf("max cloud-dome direction error = %g:  %s%n",
+                maxError, maxError < 1e-4f ? "pass" : "FAIL");
+    }
+}
\ No newline at end of file
@@ -0,0 +1,572 @@
+/*
+ Copyright (c) 2014, Stephen Gold
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+ * Stephen Gold's name may not be used to endorse or promote products
+ derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL STEPHEN GOLD BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3utilities.sky;
+
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector2f;
+import com.jme3.math.Vector3f;
+
+import jme3utilities.math.MyColor;
+import jme3utilities.math.MyMath;
+
+/**
+ * The sky state for a single simulation tick: the directions, texture
+ * coordinates, and colors of the sun and moon, the sky and cloud colors, and
+ * the parts of the lighting which don't depend on cloud transmission.
+ * <p>
+ * SkyControl captures its inputs on the render thread, computes the snapshot
+ * either on the render thread or (when pipelined) on a worker thread, and then
+ * applies it to materials, lights, and domes on the render thread. Each
+ * snapshot owns a copy of the SunAndStars, so the computation never touches
+ * state which the application might alter concurrently.
+ * <p>
+ * Once compute() returns, the snapshot is read-only until SkyControl captures
+ * new inputs into it. Instances are recycled rather than re-allocated, so that
+ * steady-state ticks don't allocate heap memory.
+ *
+ * @author Stephen Gold <sgold@sonic.net>
+ */
+class SkySnapshot {
+    // *************************************************************************
+    // constants
+
+    /**
+     * base color of the daytime sky: pale blue
+     */
+    final private static ColorRGBA colorDay =
+            new ColorRGBA(0.4f, 0.6f, 1f, Constants.alphaMax);
+    /**
+     * light color and intensity for full moonlight: bluish gray
+     */
+    final private static ColorRGBA moonLight =
+            new ColorRGBA(0.4f, 0.4f, 0.6f, Constants.alphaMax);
+    /**
+     * light color and intensity for moonless night: nearly black
+     */
+    final private static ColorRGBA starLight =
+            new ColorRGBA(0.03f, 0.03f, 0.03f, Constants.alphaMax);
+    /**
+     * light color and intensity for full sunlight: yellowish white
+     */
+    final private static ColorRGBA sunLight =
+            new ColorRGBA(0.8f, 0.8f, 0.75f, Constants.alphaMax);
+    /**
+     * color blended in around sunrise and sunset: ruddy orange
+     */
+    final private static ColorRGBA twilight =
+            new ColorRGBA(0.6f, 0.3f, 0.15f, Constants.alphaMax);
+    /**
+     * extent of the twilight periods before sunrise and after sunset, expressed
+     * as the sine of the sun's angle below the horizon (&le;1, &ge;0)
+     */
+    final private static float limitOfTwilight = 0.1f;
+    /**
+     * largest change in any component of the main light direction for which
+     * the cached cloud-dome texture coordinates are reused (&ge;0)
+     */
+    final private static float intersectionTolerance = 0.0002f;
+    /**
+     * light direction for starlight: don't make this perfectly vertical because
+     * that might cause shadow map aliasing
+     */
+    final private static Vector3f starlightDirection =
+            new Vector3f(1f, 9f, 1f).normalize();
+    // *************************************************************************
+    // fields
+    /**
+     * input: true if clouds modulate the main light
+     */
+    private boolean cloudModulation = false;
+    /**
+     * true if cloudsUV and intersectionDirection are valid for the current
+     * cloud dome
+     */
+    private boolean intersectionCached = false;
+    /**
+     * input: true if the moon is present, false if it's hidden
+     */
+    private boolean moonPresent = false;
+    /**
+     * true if the main light should be sampled through the clouds
+     */
+    boolean cloudsSampled = false;
+    /**
+     * true if the moon's center is on the top dome
+     */
+    boolean moonVisible = false;
+    /**
+     * true if the sun's center is on the top dome
+     */
+    boolean sunVisible = false;
+    /**
+     * base color for the horizon haze, bottom dome, and viewport backgrounds
+     */
+    final ColorRGBA baseColor = new ColorRGBA();
+    /**
+     * clear color for the top dome
+     */
+    final ColorRGBA clearColor = new ColorRGBA();
+    /**
+     * color of the main light by day, before cloud modulation (valid only if
+     * the sun is above the horizon)
+     */
+    final ColorRGBA daylightColor = new ColorRGBA();
+    /**
+     * color for the cloud layers (alpha is undefined)
+     */
+    final ColorRGBA cloudsColor = new ColorRGBA();
+    /**
+     * color of the moon
+     */
+    final ColorRGBA moonColor = new ColorRGBA();
+    /**
+     * color and glow of the sun
+     */
+    final ColorRGBA sunColor = new ColorRGBA();
+    /**
+     * reusable blend of moonlight and starlight
+     */
+    final private ColorRGBA tmpBlend = new ColorRGBA();
+    /**
+     * input: vertical offset of the cloud dome (&le;0)
+     */
+    private float cloudsDeltaY = 0f;
+    /**
+     * input: vertical scale of the cloud dome (&gt;0)
+     */
+    private float cloudsSemiMinorAxis = 1f;
+    /**
+     * input: contribution of the moon to the nighttime illumination mix
+     * (&le;1, &ge;0)
+     */
+    private float moonIllumination = 0f;
+    /**
+     * input: celestial longitude of the moon relative to the sun (in radians)
+     */
+    private float phaseAngle = FastMath.PI;
+    /**
+     * input: precomputed scattering colors, or null to blend fixed colors
+     */
+    private ScatteringTable scatteringTable = null;
+    /**
+     * sine of the sun's altitude (&le;1, &ge;-1)
+     */
+    float sineSolarAltitude = 0f;
+    /**
+     * input: orientations of the sun and stars, copied from the control
+     */
+    final SunAndStars sunAndStars = new SunAndStars();
+    /**
+     * texture coordinates of the main light on the cloud dome (valid only if
+     * cloudsSampled is true)
+     */
+    final Vector2f cloudsUV = new Vector2f();
+    /**
+     * rotation of the moon's texture (valid only if moonVisible is true)
+     */
+    final Vector2f moonRotation = new Vector2f();
+    /**
+     * texture coordinates of the moon's center (valid only if moonVisible is
+     * true)
+     */
+    final Vector2f moonUV = new Vector2f();
+    /**
+     * texture coordinates of the sun's center (valid only if sunVisible is
+     * true)
+     */
+    final Vector2f sunUV = new Vector2f();
+    /**
+     * reusable texture coordinates near the moon
+     */
+    final private Vector2f tmpOffsetUV = new Vector2f();
+    /**
+     * world direction to the main light source (length=1)
+     */
+    final Vector3f mainDirection = new Vector3f(Vector3f.UNIT_Y);
+    /**
+     * world direction to the moon (length=1, valid only if moonPresent is
+     * true)
+     */
+    final Vector3f moonDirection = new Vector3f(Vector3f.UNIT_Y);
+    /**
+     * world direction to the sun (length=1)
+     */
+    final Vector3f sunDirection = new Vector3f(Vector3f.UNIT_Y);
+    /**
+     * main light direction for which cloudsUV was last computed (length=1,
+     * valid only if intersectionCached is true)
+     */
+    final private Vector3f intersectionDirection = new Vector3f();
+    /**
+     * reusable direction near the moon
+     */
+    final private Vector3f tmpOffsetDirection = new Vector3f();
+    // *************************************************************************
+    // new methods exposed
+
+    /**
+     * Compute the sky state from the captured inputs. Safe to invoke from any
+     * thread, provided the top mesh isn't altered concurrently.
+     *
+     * @param topMesh the mesh of the top dome (not null, unaffected)
+     */
+    void compute(DomeMesh topMesh) {
+        assert topMesh != null;
+        /*
+         * Compute the UV coordinates of the center of the sun.
+         */
+        sunAndStars.getSunDirection(sunDirection);
+        sunVisible = topMesh.directionUV(sunDirection, sunUV) != null;
+        /*
+         * Daytime sky texture is phased in during the twilight periods
+         * before sunrise and after sunset.
+         */
+        if (scatteringTable == null) {
+            clearColor.set(colorDay);
+        } else {
+            scatteringTable.skyColor(sunDirection.y, clearColor);
+        }
+        clearColor.a = FastMath.saturate(1f + sunDirection.y / limitOfTwilight);
+
+        float sineLunarAltitude;
+        if (moonPresent) {
+            computeMoon(topMesh);
+            sineLunarAltitude = moonDirection.y;
+        } else {
+            moonVisible = false;
+            sineLunarAltitude = -1f;
+        }
+        sineSolarAltitude = sunDirection.y;
+        computeObjectColors(sineLunarAltitude);
+        /*
+         * Determine the world direction to the main light source.
+         */
+        boolean moonUp = sineLunarAltitude >= 0f;
+        boolean sunUp = sineSolarAltitude >= 0f;
+        float moonWeight = moonUp ? moonIllumination : 0f;
+        if (sunUp) {
+            mainDirection.set(sunDirection);
+        } else if (moonWeight > 0f) {
+            mainDirection.set(moonDirection);
+        } else {
+            mainDirection.set(starlightDirection);
+        }
+        assert mainDirection.isUnitVector() : mainDirection;
+        assert mainDirection.y >= 0f : mainDirection;
+        /*
+         * Determine the base color (applied to horizon haze, bottom dome, and
+         * viewport backgrounds) using the sun's altitude. With a scattering
+         * table, the haze color is looked up and blended into moonlight and
+         * starlight as it fades after sunset. Otherwise the blend is:
+         *  + sunlight when ssa >= 0.25,
+         *  + twilight when ssa = 0,
+         *  + blend of moonlight and starlight when ssa <= -0.04,
+         * with linearly interpolated transitions.
+         */
+        ColorRGBA nightColor;
+        if (moonWeight > 0f) {
+            nightColor = MyColor.interpolateLinear(moonWeight, starLight,
+                    moonLight, tmpBlend);
+        } else {
+            nightColor = starLight;
+        }
+        if (scatteringTable != null) {
+            scatteringTable.hazeColor(sineSolarAltitude, baseColor);
+            float nightWeight =
+                    FastMath.saturate(-sineSolarAltitude / limitOfTwilight);
+            MyColor.interpolateLinear(nightWeight, baseColor, nightColor,
+                    baseColor);
+        } else if (sunUp) {
+            float dayWeight = FastMath.saturate(sineSolarAltitude / 0.25f);
+            MyColor.interpolateLinear(dayWeight, twilight, sunLight,
+                    baseColor);
+        } else {
+            float nightWeight = FastMath.saturate(-sineSolarAltitude / 0.04f);
+            MyColor.interpolateLinear(nightWeight, twilight, nightColor,
+                    baseColor);
+        }
+        if (sunUp && scatteringTable == null) {
+            /*
+             * By day, the main light has the base color, modulated by
+             * the cube root of the sine of the sun's altitude.
+             */
+            daylightColor.set(baseColor);
+            daylightColor.multLocal(MyMath.cubeRoot(sineSolarAltitude));
+        } else if (sunUp) {
+            /*
+             * By day, the main light is sunlight as filtered by
+             * the atmosphere.
+             */
+            scatteringTable.sunColor(sineSolarAltitude, daylightColor);
+            daylightColor.r *= sunLight.r;
+            daylightColor.g *= sunLight.g;
+            daylightColor.b *= sunLight.b;
+        }
+        /*
+         * The clouds take a saturated version of the base color;
+         * at night, darken them by 15%-75%.
+         */
+        MyColor.saturate(baseColor, cloudsColor);
+        if (!sunUp) {
+            float cloudBrightness = 0.25f;
+            if (moonUp) {
+                cloudBrightness += 0.6f * moonIllumination;
+            }
+            cloudsColor.multLocal(cloudBrightness);
+        }
+        /*
+         * Locate the main light on the cloud dome, so that the render thread
+         * can sample the clouds' transmission there. The main light moves
+         * slowly, so reuse the previous location unless it has moved
+         * noticeably.
+         */
+        cloudsSampled = cloudModulation && (sunUp || moonWeight > 0f);
+        if (cloudsSampled && !isIntersectionCached()) {
+            DomeMesh.cloudDomeUV(mainDirection.x, mainDirection.y,
+                    mainDirection.z, cloudsDeltaY, cloudsSemiMinorAxis,
+                    cloudsUV);
+            intersectionDirection.set(mainDirection);
+            intersectionCached = true;
+        }
+    }
+
+    /**
+     * Compute the lighting from this snapshot and the fraction of the main
+     * light which passes through the clouds.
+     *
+     * @param transmit fraction of the main light transmitted (&le;1, &ge;0)
+     * @param storeResult (not null, modified)
+     */
+    void finishLighting(float transmit, LightingState storeResult) {
+        assert transmit >= 0f : transmit;
+        assert transmit <= 1f : transmit;
+        assert storeResult != null;
+        /*
+         * Determine the color and intensity of the main light.
+         */
+        boolean moonUp = moonPresent && moonDirection.y >= 0f;
+        ColorRGBA main = storeResult.mainColor;
+        if (sineSolarAltitude >= 0f) {
+            /*
+             * By day, the main light is modulated by clouds.
+             */
+            main.set(daylightColor);
+            main.multLocal(transmit);
+
+        } else if (moonUp) {
+            /*
+             * By night, the main light is a blend of moonlight and starlight,
+             * with the moon's portion modulated by clouds and the moon's phase.
+             */
+            float moonFactor = transmit * moonIllumination;
+            MyColor.interpolateLinear(moonFactor, starLight, moonLight, main);
+
+        } else {
+            main.set(starLight);
+        }
+        /*
+         * The ambient light color is based on the clouds color;
+         * its intensity is modulated by the "slack" left by
+         * strongest component of the main light.
+         */
+        float slack = 1f - MyMath.max(main.r, main.g, main.b);
+        assert slack >= 0f : slack;
+        ColorRGBA ambient = storeResult.ambientColor.set(cloudsColor);
+        ambient.multLocal(slack);
+        /*
+         * Compute the recommended shadow intensity as the fraction of
+         * the total light which is directional.
+         */
+        float mainAmount = main.r + main.g + main.b;
+        float ambientAmount = ambient.r + ambient.g + ambient.b;
+        float totalAmount = mainAmount + ambientAmount;
+        assert totalAmount > 0f : totalAmount;
+        storeResult.shadowIntensity =
+                FastMath.saturate(mainAmount / totalAmount);
+        /*
+         * Determine the recommended bloom intensity using the sun's altitude.
+         */
+        float bloomIntensity = 6f * sineSolarAltitude;
+        storeResult.bloomIntensity = FastMath.clamp(bloomIntensity, 0f, 1.7f);
+
+        storeResult.backgroundColor.set(baseColor);
+        storeResult.direction.set(mainDirection);
+    }
+
+    /**
+     * Capture the inputs for the next computation. Invoke only on the render
+     * thread, and only while no computation is in progress.
+     *
+     * @param source orientations of the sun and stars to copy (not null,
+     * unaffected)
+     * @param moonPresent true if the moon is present, false if it's hidden
+     * @param phaseAngle celestial longitude of the moon relative to the sun (in
+     * radians)
+     * @param moonIllumination contribution of the moon to the nighttime
+     * illumination mix (&le;1, &ge;0)
+     * @param cloudModulation true if clouds modulate the main light
+     * @param cloudsDeltaY vertical offset of the cloud dome (&le;0)
+     * @param cloudsSemiMinorAxis vertical scale of the cloud dome (&gt;0)
+     * @param scatteringTable precomputed scattering colors, or null to blend
+     * fixed colors
+     */
+    void setInputs(SunAndStars source, boolean moonPresent, float phaseAngle,
+            float moonIllumination, boolean cloudModulation,
+            float cloudsDeltaY, float cloudsSemiMinorAxis,
+            ScatteringTable scatteringTable) {
+        assert source != null;
+        assert moonIllumination >= 0f : moonIllumination;
+        assert moonIllumination <= 1f : moonIllumination;
+        assert cloudsDeltaY <= 0f : cloudsDeltaY;
+        assert cloudsSemiMinorAxis > 0f : cloudsSemiMinorAxis;
+
+        /*
+         * Copy only the values which have changed, since altering the solar
+         * longitude is costly and any change invalidates the ephemeris.
+         */
+        float hour = source.getHour();
+        if (sunAndStars.getHour() != hour) {
+            sunAndStars.setHour(hour);
+        }
+        float latitude = source.getObserverLatitude();
+        if (sunAndStars.getObserverLatitude() != latitude) {
+            sunAndStars.setObserverLatitude(latitude);
+        }
+        float longitude = source.getSolarLongitude();
+        if (sunAndStars.getSolarLongitude() != longitude) {
+            sunAndStars.setSolarLongitude(longitude);
+        }
+        this.moonPresent = moonPresent;
+        this.phaseAngle = phaseAngle;
+        this.moonIllumination = moonIllumination;
+        this.cloudModulation = cloudModulation;
+        if (this.cloudsDeltaY != cloudsDeltaY
+                || this.cloudsSemiMinorAxis != cloudsSemiMinorAxis) {
+            /*
+             * The cloud dome has changed: discard the cached location.
+             */
+            this.cloudsDeltaY = cloudsDeltaY;
+            this.cloudsSemiMinorAxis = cloudsSemiMinorAxis;
+            intersectionCached = false;
+        }
+        this.scatteringTable = scatteringTable;
+    }
+    // *************************************************************************
+    // private methods
+
+    /**
+     * Compute the moon's direction, texture coordinates, and texture rotation.
+     *
+     * @param topMesh the mesh of the top dome (not null, unaffected)
+     */
+    private void computeMoon(DomeMesh topMesh) {
+        float solarLongitude = sunAndStars.getSolarLongitude();
+        float celestialLongitude = solarLongitude + phaseAngle;
+        celestialLongitude = MyMath.modulo(celestialLongitude, FastMath.TWO_PI);
+        sunAndStars.convertToWorld(0f, celestialLongitude, moonDirection);
+        moonVisible = topMesh.directionUV(moonDirection, moonUV) != null;
+        if (moonVisible) {
+            lunarRotation(topMesh, celestialLongitude);
+        }
+    }
+
+    /**
+     * Compute the colors of the sun and moon based on their altitudes.
+     *
+     * @param sineLunarAltitude (&le;1, &ge:-1)
+     */
+    private void computeObjectColors(float sineLunarAltitude) {
+        assert sineSolarAltitude <= 1f : sineSolarAltitude;
+        assert sineSolarAltitude >= -1f : sineSolarAltitude;
+        assert sineLunarAltitude <= 1f : sineLunarAltitude;
+        assert sineLunarAltitude >= -1f : sineLunarAltitude;
+
+        float green = FastMath.saturate(3f * sineSolarAltitude);
+        float blue = FastMath.saturate(sineSolarAltitude - 0.1f);
+        sunColor.set(1f, green, blue, Constants.alphaMax);
+
+        green = FastMath.saturate(2f * sineLunarAltitude + 0.6f);
+        blue = FastMath.saturate(5f * sineLunarAltitude + 0.1f);
+        moonColor.set(1f, green, blue, Constants.alphaMax);
+    }
+
+    /**
+     * Test whether the cached cloud-dome texture coordinates are still valid
+     * for the main light direction.
+     *
+     * @return true if valid, otherwise false
+     */
+    private boolean isIntersectionCached() {
+        if (!intersectionCached) {
+            return false;
+        }
+        float dx = FastMath.abs(mainDirection.x - intersectionDirection.x);
+        float dy = FastMath.abs(mainDirection.y - intersectionDirection.y);
+        float dz = FastMath.abs(mainDirection.z - intersectionDirection.z);
+        boolean result = MyMath.max(dx, dy, dz) <= intersectionTolerance;
+
+        return result;
+    }
+
+    /**
+     * Compute the clockwise (left-handed) rotation of the moon's texture
+     * relative to the sky's texture, storing a unit vector with its
+     * x-component equal to the cosine of the rotation angle and its
+     * y-component equal to the sine of the rotation angle.
+     *
+     * @param topMesh the mesh of the top dome (not null, unaffected)
+     * @param longitude the moon's celestial longitude (in radians)
+     */
+    private void lunarRotation(DomeMesh topMesh, float longitude) {
+        /*
+         * Compute UV coordinates for 0.01 radians north of the center
+         * of the moon.
+         */
+        Vector3f north = sunAndStars.convertToWorld(1f, longitude,
+                tmpOffsetDirection);
+        Vector2f uvNorth = topMesh.directionUV(north, tmpOffsetUV);
+        if (uvNorth != null) {
+            Vector2f offset = moonRotation.set(uvNorth);
+            offset.subtractLocal(moonUV);
+            assert offset.length() > 0f : offset;
+            offset.normalizeLocal();
+            return;
+        }
+        /*
+         * Compute UV coordinates for 0.01 radians south of the center
+         * of the moon.
+         */
+        Vector3f south = sunAndStars.convertToWorld(-1f, longitude,
+                tmpOffsetDirection);
+        Vector2f uvSouth = topMesh.directionUV(south, tmpOffsetUV);
+        assert uvSouth != null : south;
+        Vector2f offset = moonRotation.set(moonUV);
+        offset.subtractLocal(uvSouth);
+        assert offset.length() > 0f : offset;
+        offset.normalizeLocal();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,316 @@
+/*
+ Copyright (c) 2014, Stephen Gold
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright
+ notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright
+ notice, this list of conditions and the following disclaimer in the
+ documentation and/or other materials provided with the distribution.
+ * Stephen Gold's name may not be used to endorse or promote products
+ derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL STEPHEN GOLD BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jme3utilities.sky;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.jme3.asset.AssetInfo;
+import com.jme3.asset.AssetKey;
+import com.jme3.asset.AssetLoadException;
+import com.jme3.asset.AssetManager;
+import com.jme3.asset.AssetNotFoundException;
+import com.jme3.math.FastMath;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.util.BufferUtils;
+
+import jme3utilities.Validate;
+import jme3utilities.math.Noise;
+
+/**
+ * Utility methods to load a binary star catalog into a point-sprite mesh, as
+ * a compact alternative to pre-rendered star maps. Aside from test cases, all
+ * methods here should be public and static.
+ * <p>
+ * A catalog consists of a 12-byte header followed by one 16-byte record per
+ * star, all in big-endian byte order. The header holds the magic number
+ * 0x53544152 ("STAR"), the format version (1), and the number of records.
+ * Each record holds:<ul>
+ * <li>right ascension (float, radians east of the vernal equinox)
+ * <li>declination (float, radians north of the celestial equator)
+ * <li>apparent visual magnitude (float)
+ * <li>color (4 unsigned bytes: red, green, blue, alpha)
+ * </ul>
+ * <p>
+ * The mesh's vertices lie on the unit sphere in the local coordinates of the
+ * north star dome, so a geometry using the mesh is oriented correctly by
+ * SunAndStars.orientStarDomes().
+ *
+ * @author Stephen Gold <sgold@sonic.net>
+ */
+final public class StarCatalog {
+    // *************************************************************************
+    // constants
+
+    /**
+     * number of bytes in the catalog header
+     */
+    final private static int headerBytes = 12;
+    /**
+     * magic number which begins every catalog ("STAR")
+     */
+    final public static int magic = 0x53544152;
+    /**
+     * maximum point size of a star (in pixels)
+     */
+    final private static float maxPointSize = 8f;
+    /**
+     * number of records read per chunk
+     */
+    final private static int recordsPerChunk = 1_024;
+    /**
+     * number of bytes in each star record
+     */
+    final private static int recordBytes = 16;
+    /**
+     * catalog format version supported by this class
+     */
+    final public static int version = 1;
+    /**
+     * message logger for this class
+     */
+    final private static Logger logger =
+            Logger.getLogger(StarCatalog.class.getName());
+    /**
+     * asset path of the material definition for catalog meshes
+     */
+    final public static String materialAssetPath =
+            "MatDefs/skies/stars/stars.j3md";
+    // *************************************************************************
+    // constructors
+
+    /**
+     * A private constructor to inhibit instantiation of this class.
+     */
+    private StarCatalog() {
+    }
+    // *************************************************************************
+    // new methods exposed
+
+    /**
+     * Load a star catalog asset into a new point-sprite mesh.
+     *
+     * @param assetManager (not null)
+     * @param assetPath path to the catalog asset (not null)
+     * @param limitingMagnitude stars dimmer than this are omitted
+     * @return new mesh
+     */
+    public static Mesh loadMesh(AssetManager assetManager, String assetPath,
+            float limitingMagnitude) {
+        Validate.nonNull(assetManager, "asset manager");
+        Validate.nonNull(assetPath, "path");
+
+        AssetKey<Object> key = new AssetKey<>(assetPath);
+        AssetInfo info = assetManager.locateAsset(key);
+        if (info == null) {
+            throw new AssetNotFoundException(assetPath);
+        }
+
+        Mesh result;
+        try (InputStream stream = info.openStream();
+                ReadableByteChannel channel = Channels.newChannel(stream)) {
+            result = loadMesh(channel, limitingMagnitude);
+        } catch (IOException exception) {
+            throw new AssetLoadException(
+                    "failed to load star catalog " + assetPath, exception);
+        }
+
+        return result;
+    }
+
+    /**
+     * Stream a star catalog from a channel into a new point-sprite mesh. The
+     * records are read in fixed-size chunks and written directly into the
+     * mesh's vertex buffers.
+     *
+     * @param channel source of catalog data, positioned at the header (not
+     * null)
+     * @param limitingMagnitude stars dimmer than this are omitted
+     * @return new mesh
+     * @throws IOException if the channel can't be read or the data aren't a
+     * valid catalog
+     */
+    public static Mesh loadMesh(ReadableByteChannel channel,
+            float limitingMagnitude)
+            throws IOException {
+        Validate.nonNull(channel, "channel");
+        /*
+         * Read and check the header.
+         */
+        ByteBuffer header = ByteBuffer.allocate(headerBytes);
+        readFully(channel, header);
+        header.flip();
+        int fileMagic = header.getInt();
+        int fileVersion = header.getInt();
+        int numRecords = header.getInt();
+        if (fileMagic != magic) {
+            throw new IOException("not a star catalog");
+        }
+        if (fileVersion != version) {
+            throw new IOException(String.format(
+                    "unsupported star catalog version %d", fileVersion));
+        }
+        if (numRecords < 0) {
+            throw new IOException(String.format(
+                    "invalid star count %d", numRecords));
+        }
+        /*
+         * Allocate vertex buffers large enough for every star.
+         */
+        FloatBuffer positions = BufferUtils.createFloatBuffer(3 * numRecords);
+        ByteBuffer colors = BufferUtils.createByteBuffer(4 * numRecords);
+        FloatBuffer sizes = BufferUtils.createFloatBuffer(numRecords);
+        /*
+         * Stream the records in chunks.
+         */
+        ByteBuffer chunk = ByteBuffer.allocate(recordsPerChunk * recordBytes);
+        int recordsRemaining = numRecords;
+        int numStars = 0;
+        while (recordsRemaining > 0) {
+            int numInChunk = Math.min(recordsRemaining, recordsPerChunk);
+            chunk.clear();
+            chunk.limit(numInChunk * recordBytes);
+            readFully(channel, chunk);
+            chunk.flip();
+
+            for (int i = 0; i < numInChunk; i++) {
+                float rightAscension = chunk.getFloat();
+                float declination = chunk.getFloat();
+                float magnitude = chunk.getFloat();
+                byte red = chunk.get();
+                byte green = chunk.get();
+                byte blue = chunk.get();
+                int alpha = chunk.get() & 0xff;
+                if (magnitude > limitingMagnitude) {
+                    continue;
+                }
+                /*
+                 * Convert to equatorial coordinates, then permute the axes
+                 * to match the north star dome.
+                 */
+                float cosDec = FastMath.cos(declination);
+                float x = cosDec * FastMath.cos(rightAscension);
+                float y = cosDec * FastMath.sin(rightAscension);
+                float z = FastMath.sin(declination);
+                positions.put(-x).put(z).put(y);
+                /*
+                 * Brighter stars get bigger, more opaque points.
+                 */
+                float excess = limitingMagnitude - magnitude;
+                float opacity = FastMath.saturate(0.3f + 0.35f * excess);
+                alpha = Math.round(alpha * opacity);
+                colors.put(red).put(green).put(blue).put((byte) alpha);
+
+                float size = 1f + 0.75f * excess;
+                size = Math.min(size, maxPointSize);
+                sizes.put(size);
+
+                numStars++;
+            }
+            recordsRemaining -= numInChunk;
+        }
+        logger.log(Level.INFO, "loaded {0} of {1} stars", new Object[]{
+            numStars, numRecords
+        });
+
+        positions.flip();
+        colors.flip();
+        sizes.flip();
+
+        Mesh result = new Mesh();
+        result.setMode(Mesh.Mode.Points);
+        result.setBuffer(VertexBuffer.Type.Position, 3, positions);
+        result.setBuffer(VertexBuffer.Type.Color, 4, colors);
+        result.getBuffer(VertexBuffer.Type.Color).setNormalized(true);
+        result.setBuffer(VertexBuffer.Type.Size, 1, sizes);
+        result.updateBound();
+        result.setStatic();
+
+        return result;
+    }
+    // *************************************************************************
+    // private methods
+
+    /**
+     * Read from a channel until a buffer is full.
+     *
+     * @param channel source (not null)
+     * @param buffer destination (not null)
+     * @throws IOException if the channel ends before the buffer is full
+     */
+    private static void readFully(ReadableByteChannel channel,
+            ByteBuffer buffer)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            int numBytes = channel.read(buffer);
+            if (numBytes < 0) {
+                throw new IOException("star catalog is truncated");
+            }
+        }
+    }
+    // *************************************************************************
+    // test cases
+
+    /**
+     * A console application to test this class: load a synthetic catalog
+     * from memory.
+     *
+     * @param ignored
+     * @throws IOException if the catalog can't be loaded
+     */
+    public static void main(String[] ignored)
+            throws IOException {
+        logger.setLevel(Level.INFO);
+        System.out.print("Test results for class StarCatalog:\n\n");
+
+        int numRecords = 5_000;
+        ByteBuffer data =
+                ByteBuffer.allocate(headerBytes + numRecords * recordBytes);
+        data.putInt(magic).putInt(version).putInt(numRecords);
+        for (int i = 0; i < numRecords; i++) {
+            float rightAscension = FastMath.TWO_PI * i / numRecords;
+            float declination = FastMath.asin(2f * Noise.nextFloat() - 1f);
+            float magnitude = -1f + 8f * Noise.nextFloat();
+            data.putFloat(rightAscension).putFloat(declination);
+            data.putFloat(magnitude).putInt(0xffffffff);
+        }
+        data.flip();
+
+        InputStream stream = new ByteArrayInputStream(data.array());
+        ReadableByteChannel channel = Channels.newChannel(stream);
+        Mesh mesh = loadMesh(channel, 6f);
+        System.out.printf("%d of %d stars brighter than magnitude 6%n",
+                mesh.getVertexCount(), numRecords);
+    }
+}
\ No newline at end of file
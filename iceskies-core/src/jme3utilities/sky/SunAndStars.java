@@ -37,6 +37,7 @@ import com.jme3.export.JmeImporter;
 import com.jme3.export.OutputCapsule;
 import com.jme3.export.Savable;
 import com.jme3.math.FastMath;
+import com.jme3.math.Matrix3f;
 import com.jme3.math.Quaternion;
 import com.jme3.math.Vector3f;
 import com.jme3.scene.Spatial;
@@ -44,6 +45,7 @@ import com.jme3.scene.Spatial;
 import jme3utilities.MySpatial;
 import jme3utilities.Validate;
 import jme3utilities.math.MyMath;
+import jme3utilities.math.Noise;
 
 /**
  * Component of SkyControl to model the orientations of the sun and stars
@@ -90,8 +92,24 @@ public class SunAndStars
      */
     final private static Logger logger =
             Logger.getLogger(SunAndStars.class.getName());
+    /**
+     * rotation from ecliptical coordinates to equatorial coordinates: a
+     * rotation about the +X (vernal equinox) axis
+     */
+    final private static Quaternion eclipticToEquatorial =
+            new Quaternion().fromAngleNormalAxis(obliquity, Vector3f.UNIT_X);
+    /**
+     * matrix form of eclipticToEquatorial, for bulk conversions
+     */
+    final private static Matrix3f eclipticToEquatorialMatrix =
+            eclipticToEquatorial.toRotationMatrix();
     // *************************************************************************
     // fields
+    /**
+     * true if the cached ephemeris matches the current hour, latitude, and
+     * solar longitude - not serialized
+     */
+    private boolean ephemerisValid = false;
     /**
      * local solar time (hours since midnight, &lt;24, &ge;0)
      */
@@ -110,6 +128,40 @@ public class SunAndStars
      * &ge;0)
      */
     private float solarRaHours = 0f;
+    /**
+     * cached rotation from ecliptical coordinates to world coordinates - not
+     * serialized
+     */
+    private Matrix3f eclipticToWorld = new Matrix3f();
+    /**
+     * cached rotation from equatorial coordinates to world coordinates - not
+     * serialized
+     */
+    private Matrix3f equatorialToWorld = new Matrix3f();
+    /**
+     * cached world orientation of the north star dome - not serialized
+     */
+    private Quaternion northDomeOrientation = new Quaternion();
+    /**
+     * cached world orientation of the south star dome - not serialized
+     */
+    private Quaternion southDomeOrientation = new Quaternion();
+    /**
+     * reusable local rotation for star domes - not serialized
+     */
+    private Quaternion tmpRotation = new Quaternion();
+    /**
+     * reusable Y-axis rotation for star domes - not serialized
+     */
+    private Quaternion tmpYRotation = new Quaternion();
+    /**
+     * reusable Z-axis rotation for star domes - not serialized
+     */
+    private Quaternion tmpZRotation = new Quaternion();
+    /**
+     * cached world direction to the sun - not serialized
+     */
+    private Vector3f sunDirection = new Vector3f();
     // *************************************************************************
     // new methods exposed
 
@@ -124,6 +176,24 @@ public class SunAndStars
      */
     public static Vector3f convertToEquatorial(float latitude,
             float longitude) {
+        Vector3f result = convertToEquatorial(latitude, longitude, null);
+        return result;
+    }
+
+    /**
+     * Convert ecliptical angles into an equatorial direction vector, storing
+     * the result in an optional existing vector.
+     *
+     * @param latitude celestial latitude (radians north of the ecliptic,
+     * &le;Pi/2, &ge;-Pi/2)
+     * @param longitude celestial longitude (radians east of the vernal equinox,
+     * &le;2*Pi, &ge;0)
+     * @param storeResult (modified if not null)
+     * @return unit vector in equatorial coordinates (either storeResult or a
+     * new vector)
+     */
+    public static Vector3f convertToEquatorial(float latitude,
+            float longitude, Vector3f storeResult) {
         if (!(latitude >= -FastMath.HALF_PI && latitude <= FastMath.HALF_PI)) {
             logger.log(Level.SEVERE, "latitude={0}", latitude);
             throw new IllegalArgumentException(
@@ -141,16 +211,38 @@ public class SunAndStars
         float sinLat = FastMath.sin(latitude);
         float cosLon = FastMath.cos(longitude);
         float sinLon = FastMath.sin(longitude);
-        Vector3f ecliptical =
-                new Vector3f(cosLat * cosLon, cosLat * sinLon, sinLat);
-        assert ecliptical.isUnitVector();
+        if (storeResult == null) {
+            storeResult = new Vector3f();
+        }
+        storeResult.set(cosLat * cosLon, cosLat * sinLon, sinLat);
+        assert storeResult.isUnitVector();
         /*
          * Convert to equatorial coordinates.
          */
-        Vector3f equatorial = convertToEquatorial(ecliptical);
+        convertToEquatorial(storeResult, storeResult);
 
-        assert equatorial.isUnitVector();
-        return equatorial;
+        assert storeResult.isUnitVector();
+        return storeResult;
+    }
+
+    /**
+     * Convert arrays of ecliptical angles into equatorial direction vectors.
+     *
+     * @param latitudes celestial latitudes (radians north of the ecliptic, each
+     * &le;Pi/2, &ge;-Pi/2, not null, unaffected)
+     * @param longitudes celestial longitudes (radians east of the vernal
+     * equinox, each &le;2*Pi, &ge;0, not null, unaffected)
+     * @param numPoints number of points to convert (&ge;0)
+     * @param storeResult array for the results, packed as (x, y, z) triples
+     * (length&ge;3*numPoints, modified if not null)
+     * @return array of unit vectors in equatorial coordinates (either
+     * storeResult or a new array)
+     */
+    public static float[] convertToEquatorial(float[] latitudes,
+            float[] longitudes, int numPoints, float[] storeResult) {
+        float[] result = convertArrays(eclipticToEquatorialMatrix, latitudes,
+                longitudes, numPoints, storeResult);
+        return result;
     }
 
     /**
@@ -160,14 +252,29 @@ public class SunAndStars
      * @return new vector in equatorial coordinates
      */
     public static Vector3f convertToEquatorial(Vector3f ecliptical) {
+        Vector3f result = convertToEquatorial(ecliptical, null);
+        return result;
+    }
+
+    /**
+     * Convert ecliptical coordinates to equatorial coordinates, storing the
+     * result in an optional existing vector.
+     *
+     * @param ecliptical coordinates (not null, unaffected unless it's also
+     * storeResult)
+     * @param storeResult (modified if not null)
+     * @return vector in equatorial coordinates (either storeResult or a new
+     * vector)
+     */
+    public static Vector3f convertToEquatorial(Vector3f ecliptical,
+            Vector3f storeResult) {
         Validate.nonNull(ecliptical, "coordinates");
         /*
          * The conversion consists of a rotation about the +X
          * (vernal equinox) axis.
          */
-        Quaternion rotate = new Quaternion();
-        rotate.fromAngleNormalAxis(obliquity, Vector3f.UNIT_X);
-        Vector3f equatorial = rotate.mult(ecliptical);
+        Vector3f equatorial =
+                eclipticToEquatorial.mult(ecliptical, storeResult);
 
         return equatorial;
     }
@@ -182,6 +289,24 @@ public class SunAndStars
      * @return new unit vector in world (horizontal) coordinates
      */
     public Vector3f convertToWorld(float latitude, float longitude) {
+        Vector3f result = convertToWorld(latitude, longitude, null);
+        return result;
+    }
+
+    /**
+     * Convert ecliptical angles into a world direction vector, storing the
+     * result in an optional existing vector.
+     *
+     * @param latitude celestial latitude (radians north of the ecliptic,
+     * &le;Pi/2, &ge;-Pi/2)
+     * @param longitude celestial longitude (radians east of the vernal equinox,
+     * &le;2*Pi, &ge;0)
+     * @param storeResult (modified if not null)
+     * @return unit vector in world (horizontal) coordinates (either
+     * storeResult or a new vector)
+     */
+    public Vector3f convertToWorld(float latitude, float longitude,
+            Vector3f storeResult) {
         if (!(latitude >= -FastMath.HALF_PI && latitude <= FastMath.HALF_PI)) {
             logger.log(Level.SEVERE, "latitude={0}", latitude);
             throw new IllegalArgumentException(
@@ -193,13 +318,36 @@ public class SunAndStars
                     "longitude should be between 0 and 2*Pi, inclusive");
         }
 
-        Vector3f equatorial = convertToEquatorial(latitude, longitude);
-        Vector3f world = convertToWorld(equatorial);
+        Vector3f equatorial =
+                convertToEquatorial(latitude, longitude, storeResult);
+        Vector3f world = convertToWorld(equatorial, equatorial);
 
         assert world.isUnitVector();
         return world;
     }
 
+    /**
+     * Convert arrays of ecliptical angles into world direction vectors.
+     *
+     * @param latitudes celestial latitudes (radians north of the ecliptic, each
+     * &le;Pi/2, &ge;-Pi/2, not null, unaffected)
+     * @param longitudes celestial longitudes (radians east of the vernal
+     * equinox, each &le;2*Pi, &ge;0, not null, unaffected)
+     * @param numPoints number of points to convert (&ge;0)
+     * @param storeResult array for the results, packed as (x, y, z) triples
+     * (length&ge;3*numPoints, modified if not null)
+     * @return array of unit vectors in world (horizontal) coordinates (either
+     * storeResult or a new array)
+     */
+    public float[] convertToWorld(float[] latitudes, float[] longitudes,
+            int numPoints, float[] storeResult) {
+        updateEphemeris();
+        float[] result = convertArrays(eclipticToWorld, latitudes, longitudes,
+                numPoints, storeResult);
+
+        return result;
+    }
+
     /**
      * Convert equatorial coordinates to world (horizontal) coordinates.
      *
@@ -207,26 +355,62 @@ public class SunAndStars
      * @return new vector in a world coordinates
      */
     public Vector3f convertToWorld(Vector3f equatorial) {
+        Vector3f result = convertToWorld(equatorial, null);
+        return result;
+    }
+
+    /**
+     * Convert equatorial coordinates to world (horizontal) coordinates,
+     * storing the result in an optional existing vector.
+     *
+     * @param equatorial coordinates (not null, unaffected unless it's also
+     * storeResult)
+     * @param storeResult (modified if not null)
+     * @return vector in world coordinates (either storeResult or a new vector)
+     */
+    public Vector3f convertToWorld(Vector3f equatorial, Vector3f storeResult) {
         Validate.nonNull(equatorial, "coordinates");
 
-        float siderealAngle = getSiderealAngle();
+        updateEphemeris();
+        Vector3f result = equatorialToWorld.mult(equatorial, storeResult);
+
+        return result;
+    }
+
+    /**
+     * Compute the rotation from equatorial coordinates to world (horizontal)
+     * coordinates for the specified sidereal angle and latitude. Thread-safe.
+     *
+     * @param siderealAngle angle between the meridian and the vernal equinox
+     * (in radians)
+     * @param observerLatitude radians north of the equator (&le;Pi/2,
+     * &ge;-Pi/2)
+     * @param storeResult (not null, modified)
+     */
+    static void equatorialToWorld(float siderealAngle, float observerLatitude,
+            Matrix3f storeResult) {
+        assert observerLatitude >= -FastMath.HALF_PI : observerLatitude;
+        assert observerLatitude <= FastMath.HALF_PI : observerLatitude;
         /*
-         * The conversion consists of a (-siderealAngle) rotation about the Z
-         * (north celestial pole) axis followed by a (latitude - Pi/2) rotation
-         * about the Y (east) axis followed by a permutation of the axes.
+         * The conversion consists of a (-siderealAngle) rotation about the
+         * Z (north celestial pole) axis followed by a (latitude - Pi/2)
+         * rotation about the Y (east) axis followed by a permutation of
+         * the axes.
          */
-        Quaternion zRotation = new Quaternion();
-        zRotation.fromAngleNormalAxis(-siderealAngle, Vector3f.UNIT_Z);
-        Vector3f rotated = zRotation.mult(equatorial);
-
+        float cosSidereal = FastMath.cos(siderealAngle);
+        float sinSidereal = FastMath.sin(siderealAngle);
         float coLatitude = FastMath.HALF_PI - observerLatitude;
-        Quaternion yRotation = new Quaternion();
-        yRotation.fromAngleNormalAxis(-coLatitude, Vector3f.UNIT_Y);
-        rotated = yRotation.mult(rotated);
-
-        Vector3f world = new Vector3f(-rotated.x, rotated.z, rotated.y);
-
-        return world;
+        float cosCoLatitude = FastMath.cos(coLatitude);
+        float sinCoLatitude = FastMath.sin(coLatitude);
+        storeResult.set(0, 0, -cosCoLatitude * cosSidereal);
+        storeResult.set(0, 1, -cosCoLatitude * sinSidereal);
+        storeResult.set(0, 2, sinCoLatitude);
+        storeResult.set(1, 0, sinCoLatitude * cosSidereal);
+        storeResult.set(1, 1, sinCoLatitude * sinSidereal);
+        storeResult.set(1, 2, cosCoLatitude);
+        storeResult.set(2, 0, -sinSidereal);
+        storeResult.set(2, 1, cosSidereal);
+        storeResult.set(2, 2, 0f);
     }
 
     /**
@@ -259,11 +443,7 @@ public class SunAndStars
      * @return angle (in radians, &lt;2*Pi, &ge;0)
      */
     public float getSiderealAngle() {
-        float siderealHour = getSiderealHour();
-        float siderealAngle = siderealHour * radiansPerHour;
-
-        assert siderealAngle >= 0f : siderealAngle;
-        assert siderealAngle < FastMath.TWO_PI : siderealAngle;
+        float siderealAngle = siderealAngle(hour, solarRaHours);
         return siderealAngle;
     }
 
@@ -273,10 +453,7 @@ public class SunAndStars
      * @return time (in hours, &lt;24, &ge;0)
      */
     public float getSiderealHour() {
-        float noon = 12f;
-        float siderealHour = hour - noon - solarRaHours;
-        siderealHour = MyMath.modulo(siderealHour, Constants.hoursPerDay);
-
+        float siderealHour = siderealHour(hour, solarRaHours);
         return siderealHour;
     }
 
@@ -298,7 +475,26 @@ public class SunAndStars
      * @return new unit vector in world (horizontal) coordinates
      */
     public Vector3f getSunDirection() {
-        Vector3f result = convertToWorld(0f, solarLongitude);
+        Vector3f result = getSunDirection(null);
+        return result;
+    }
+
+    /**
+     * Compute the direction to the center of the sun, storing the result in an
+     * optional existing vector.
+     *
+     * @param storeResult (modified if not null)
+     * @return unit vector in world (horizontal) coordinates (either
+     * storeResult or a new vector)
+     */
+    public Vector3f getSunDirection(Vector3f storeResult) {
+        updateEphemeris();
+        Vector3f result;
+        if (storeResult == null) {
+            result = sunDirection.clone();
+        } else {
+            result = storeResult.set(sunDirection);
+        }
 
         assert result.isUnitVector();
         return result;
@@ -329,28 +525,14 @@ public class SunAndStars
      * @param southDome (ignored if null)
      */
     public void orientStarDomes(Spatial northDome, Spatial southDome) {
-        float siderealAngle = getSiderealAngle();
-        Quaternion yRotation = new Quaternion();
-        Quaternion zRotation = new Quaternion();
+        updateEphemeris();
         if (northDome != null) {
-            /*
-             * Orient the north dome.
-             */
-            yRotation.fromAngleNormalAxis(-siderealAngle, Vector3f.UNIT_Y);
-            float coLatitude = FastMath.HALF_PI - observerLatitude;
-            zRotation.fromAngleNormalAxis(-coLatitude, Vector3f.UNIT_Z);
-            Quaternion orientation = zRotation.mult(yRotation);
-            MySpatial.setWorldOrientation(northDome, orientation);
+            MySpatial.setWorldOrientation(northDome, northDomeOrientation,
+                    tmpRotation);
         }
         if (southDome != null) {
-            /*
-             * Orient the south dome.
-             */
-            yRotation.fromAngleNormalAxis(siderealAngle, Vector3f.UNIT_Y);
-            float angle = FastMath.HALF_PI + observerLatitude;
-            zRotation.fromAngleNormalAxis(angle, Vector3f.UNIT_Z);
-            Quaternion orientation = zRotation.mult(yRotation);
-            MySpatial.setWorldOrientation(southDome, orientation);
+            MySpatial.setWorldOrientation(southDome, southDomeOrientation,
+                    tmpRotation);
         }
     }
 
@@ -367,6 +549,7 @@ public class SunAndStars
         }
 
         this.hour = newHour;
+        ephemerisValid = false;
     }
 
     /**
@@ -382,6 +565,7 @@ public class SunAndStars
         }
 
         this.observerLatitude = latitude;
+        ephemerisValid = false;
     }
 
     /**
@@ -397,15 +581,11 @@ public class SunAndStars
         }
 
         solarLongitude = longitude;
+        ephemerisValid = false;
         /*
          * Update the cached solar right ascension.
          */
-        Vector3f equatorial = convertToEquatorial(0f, longitude);
-        float ra = -FastMath.atan2(equatorial.y, equatorial.x);
-        solarRaHours =
-                MyMath.modulo(ra / radiansPerHour, Constants.hoursPerDay);
-        assert solarRaHours >= 0f : solarRaHours;
-        assert solarRaHours < Constants.hoursPerDay : solarRaHours;
+        solarRaHours = solarRaHours(longitude);
     }
 
     /**
@@ -449,6 +629,60 @@ public class SunAndStars
         longitude = MyMath.modulo(longitude, FastMath.TWO_PI);
         setSolarLongitude(longitude);
     }
+
+    /**
+     * Compute the angle between the meridian and the vernal equinox for the
+     * specified solar time and solar right ascension. Thread-safe.
+     *
+     * @param hour hours since midnight, solar time (&le;24, &ge;0)
+     * @param solarRaHours right ascension of the sun (hours east of the vernal
+     * equinox, &lt;24, &ge;0)
+     * @return angle (in radians, &lt;2*Pi, &ge;0)
+     */
+    static float siderealAngle(float hour, float solarRaHours) {
+        float siderealHour = siderealHour(hour, solarRaHours);
+        float siderealAngle = siderealHour * radiansPerHour;
+
+        assert siderealAngle >= 0f : siderealAngle;
+        assert siderealAngle < FastMath.TWO_PI : siderealAngle;
+        return siderealAngle;
+    }
+
+    /**
+     * Compute the sidereal time for the specified solar time and solar right
+     * ascension. Thread-safe.
+     *
+     * @param hour hours since midnight, solar time (&le;24, &ge;0)
+     * @param solarRaHours right ascension of the sun (hours east of the vernal
+     * equinox, &lt;24, &ge;0)
+     * @return time (in hours, &lt;24, &ge;0)
+     */
+    static float siderealHour(float hour, float solarRaHours) {
+        float noon = 12f;
+        float siderealHour = hour - noon - solarRaHours;
+        siderealHour = MyMath.modulo(siderealHour, Constants.hoursPerDay);
+
+        return siderealHour;
+    }
+
+    /**
+     * Compute the right ascension of the sun for the specified solar
+     * longitude. Thread-safe.
+     *
+     * @param solarLongitude radians east of the vernal equinox (&le;2*Pi,
+     * &ge;0)
+     * @return hours east of the vernal equinox (&lt;24, &ge;0)
+     */
+    static float solarRaHours(float solarLongitude) {
+        Vector3f equatorial = convertToEquatorial(0f, solarLongitude);
+        float ra = -FastMath.atan2(equatorial.y, equatorial.x);
+        float result =
+                MyMath.modulo(ra / radiansPerHour, Constants.hoursPerDay);
+
+        assert result >= 0f : result;
+        assert result < Constants.hoursPerDay : result;
+        return result;
+    }
     // *************************************************************************
     // Object methods
 
@@ -461,6 +695,18 @@ public class SunAndStars
     public SunAndStars clone() {
         try {
             SunAndStars clone = (SunAndStars) super.clone();
+            /*
+             * Don't share temporary storage with the original.
+             */
+            clone.eclipticToWorld = eclipticToWorld.clone();
+            clone.equatorialToWorld = equatorialToWorld.clone();
+            clone.northDomeOrientation = northDomeOrientation.clone();
+            clone.southDomeOrientation = southDomeOrientation.clone();
+            clone.sunDirection = sunDirection.clone();
+            clone.tmpRotation = new Quaternion();
+            clone.tmpYRotation = new Quaternion();
+            clone.tmpZRotation = new Quaternion();
+
             return clone;
         } catch (CloneNotSupportedException exception) {
             throw new AssertionError();
@@ -520,6 +766,120 @@ public class SunAndStars
         capsule.write(solarLongitude, "observerLatitude", 0f);
     }
     // *************************************************************************
+    // private methods
+
+    /**
+     * Convert arrays of ecliptical angles into direction vectors using the
+     * specified rotation.
+     *
+     * @param rotation from ecliptical coordinates (not null, unaffected)
+     * @param latitudes celestial latitudes (radians north of the ecliptic, each
+     * &le;Pi/2, &ge;-Pi/2, not null, unaffected)
+     * @param longitudes celestial longitudes (radians east of the vernal
+     * equinox, each &le;2*Pi, &ge;0, not null, unaffected)
+     * @param numPoints number of points to convert (&ge;0)
+     * @param storeResult array for the results, packed as (x, y, z) triples
+     * (length&ge;3*numPoints, modified if not null)
+     * @return array of unit vectors (either storeResult or a new array)
+     */
+    private static float[] convertArrays(Matrix3f rotation, float[] latitudes,
+            float[] longitudes, int numPoints, float[] storeResult) {
+        Validate.nonNull(latitudes, "latitudes");
+        Validate.nonNull(longitudes, "longitudes");
+        Validate.nonNegative(numPoints, "number of points");
+        if (latitudes.length < numPoints || longitudes.length < numPoints) {
+            logger.log(Level.SEVERE, "numPoints={0}", numPoints);
+            throw new IllegalArgumentException(
+                    "input arrays should have at least numPoints elements");
+        }
+        if (storeResult == null) {
+            storeResult = new float[3 * numPoints];
+        } else if (storeResult.length < 3 * numPoints) {
+            logger.log(Level.SEVERE, "length={0}", storeResult.length);
+            throw new IllegalArgumentException(
+                    "storeResult should have at least 3*numPoints elements");
+        }
+
+        float m00 = rotation.get(0, 0);
+        float m01 = rotation.get(0, 1);
+        float m02 = rotation.get(0, 2);
+        float m10 = rotation.get(1, 0);
+        float m11 = rotation.get(1, 1);
+        float m12 = rotation.get(1, 2);
+        float m20 = rotation.get(2, 0);
+        float m21 = rotation.get(2, 1);
+        float m22 = rotation.get(2, 2);
+
+        for (int pointIndex = 0; pointIndex < numPoints; pointIndex++) {
+            float latitude = latitudes[pointIndex];
+            float longitude = longitudes[pointIndex];
+            if (!(latitude >= -FastMath.HALF_PI
+                    && latitude <= FastMath.HALF_PI)) {
+                logger.log(Level.SEVERE, "latitude={0}", latitude);
+                throw new IllegalArgumentException(
+                        "latitude should be between -Pi/2 and Pi/2, inclusive");
+            }
+            if (!(longitude >= 0f && longitude <= FastMath.TWO_PI)) {
+                logger.log(Level.SEVERE, "longitude={0}", longitude);
+                throw new IllegalArgumentException(
+                        "longitude should be between 0 and 2*Pi, inclusive");
+            }
+            /*
+             * Convert angles to Cartesian ecliptical coordinates,
+             * then rotate.
+             */
+            float cosLat = FastMath.cos(latitude);
+            float x = cosLat * FastMath.cos(longitude);
+            float y = cosLat * FastMath.sin(longitude);
+            float z = FastMath.sin(latitude);
+
+            int base = 3 * pointIndex;
+            storeResult[base] = m00 * x + m01 * y + m02 * z;
+            storeResult[base + 1] = m10 * x + m11 * y + m12 * z;
+            storeResult[base + 2] = m20 * x + m21 * y + m22 * z;
+        }
+
+        return storeResult;
+    }
+
+    /**
+     * Recompute the cached rotations, sun direction, and star-dome
+     * orientations, unless they are already up to date.
+     */
+    private void updateEphemeris() {
+        if (ephemerisValid) {
+            return;
+        }
+        float siderealAngle = getSiderealAngle();
+        equatorialToWorld(siderealAngle, observerLatitude, equatorialToWorld);
+        float coLatitude = FastMath.HALF_PI - observerLatitude;
+
+        equatorialToWorld.mult(eclipticToEquatorialMatrix, eclipticToWorld);
+        /*
+         * The sun lies on the ecliptic.
+         */
+        float cosLon = FastMath.cos(solarLongitude);
+        float sinLon = FastMath.sin(solarLongitude);
+        sunDirection.set(cosLon, sinLon, 0f);
+        eclipticToWorld.mult(sunDirection, sunDirection);
+        sunDirection.normalizeLocal();
+        /*
+         * Orient the north dome.
+         */
+        tmpYRotation.fromAngleNormalAxis(-siderealAngle, Vector3f.UNIT_Y);
+        tmpZRotation.fromAngleNormalAxis(-coLatitude, Vector3f.UNIT_Z);
+        tmpZRotation.mult(tmpYRotation, northDomeOrientation);
+        /*
+         * Orient the south dome.
+         */
+        tmpYRotation.fromAngleNormalAxis(siderealAngle, Vector3f.UNIT_Y);
+        float angle = FastMath.HALF_PI + observerLatitude;
+        tmpZRotation.fromAngleNormalAxis(angle, Vector3f.UNIT_Z);
+        tmpZRotation.mult(tmpYRotation, southDomeOrientation);
+
+        ephemerisValid = true;
+    }
+    // *************************************************************************
     // test cases
 
     /**
@@ -563,5 +923,30 @@ public class SunAndStars
 
         test.setHour(23f + (59f + 59f / 60f) / 60f);
         System.out.printf(" at 23:59:59 LST:  %s%n", test.toString());
+        /*
+         * Compare the bulk conversion with point-by-point conversions.
+         */
+        int numPoints = 1_000;
+        float[] latitudes = new float[numPoints];
+        float[] longitudes = new float[numPoints];
+        for (int i = 0; i < numPoints; i++) {
+            latitudes[i] = (Noise.nextFloat() - 0.5f) * FastMath.PI;
+            longitudes[i] = Noise.nextFloat() * FastMath.TWO_PI;
+        }
+        float[] bulk = test.convertToWorld(latitudes, longitudes, numPoints,
+                null);
+        float maxError = 0f;
+        Vector3f single = new Vector3f();
+        for (int i = 0; i < numPoints; i++) {
+            test.convertToWorld(latitudes[i], longitudes[i], single);
+            maxError = Math.max(maxError,
+                    FastMath.abs(single.x - bulk[3 * i]));
+            maxError = Math.max(maxError,
+                    FastMath.abs(single.y - bulk[3 * i + 1]));
+            maxError = Math.max(maxError,
+                    FastMath.abs(single.z - bulk[3 * i + 2]));
+        }
+        System.out.printf("Bulk conversion of %d points:  max error=%g%n",
+                numPoints, maxError);
     }
 }
\ No newline at end of file
@@ -32,6 +32,7 @@ import java.util.logging.Logger;
 import com.jme3.light.AmbientLight;
 import com.jme3.light.DirectionalLight;
 import com.jme3.math.ColorRGBA;
+import com.jme3.math.FastMath;
 import com.jme3.math.Vector3f;
 import com.jme3.post.filters.BloomFilter;
 import com.jme3.renderer.ViewPort;
@@ -45,6 +46,12 @@ import jme3utilities.ViewPortListener;
  * Component of SkyControl to keep track of all the lights, shadows, and
  * viewports updated by the control. It also keeps track of the values applied
  * during the most recent update.
+ * <p>
+ * To avoid needlessly touching lights, filters, renderers, and viewports
+ * (some of which rebuild state when touched), each kind of downstream object
+ * is updated only when its value has changed by more than a configurable
+ * tolerance since it was last updated. Objects added between updates receive
+ * the most recently applied values right away.
  *
  * @author Stephen Gold <sgold@sonic.net>
  */
@@ -64,6 +71,14 @@ public class Updater
      * which ambient light to update (or null for none)
      */
     private AmbientLight ambientLight = null;
+    /**
+     * true if the ambient light needs updating regardless of tolerance
+     */
+    private boolean ambientStale = true;
+    /**
+     * true if the main light needs updating regardless of tolerance
+     */
+    private boolean mainStale = true;
     /**
      * shadow filters whose intensities are updated by the control - not
      * synchronized
@@ -99,6 +114,27 @@ public class Updater
      * most recent color for main directional light (or null if not updated yet)
      */
     private ColorRGBA mainColor = null;
+    /**
+     * ambient light color as last applied to the ambient light - not
+     * serialized
+     */
+    final private ColorRGBA appliedAmbientColor = new ColorRGBA();
+    /**
+     * background color as last applied to the viewports - not serialized
+     */
+    final private ColorRGBA appliedBackgroundColor = new ColorRGBA();
+    /**
+     * main light color as last applied to the main light - not serialized
+     */
+    final private ColorRGBA appliedMainColor = new ColorRGBA();
+    /**
+     * reusable color for the ambient light - not serialized
+     */
+    final private ColorRGBA tmpAmbientColor = new ColorRGBA();
+    /**
+     * reusable color for the main directional light - not serialized
+     */
+    final private ColorRGBA tmpMainColor = new ColorRGBA();
     /**
      * which directional light to update (or null for none)
      */
@@ -107,10 +143,35 @@ public class Updater
      * multiplier when applying the ambient light color (1 &rarr; default)
      */
     private float ambientMultiplier = 1f;
+    /**
+     * bloom intensity as last applied to the bloom filters, or NaN if not
+     * applied yet
+     */
+    private float appliedBloomIntensity = Float.NaN;
+    /**
+     * shadow intensity as last applied to the shadow filters and renderers, or
+     * NaN if not applied yet
+     */
+    private float appliedShadowIntensity = Float.NaN;
     /**
      * most recent bloom intensity
      */
     private float bloomIntensity = 0f;
+    /**
+     * largest change (in any component) of a color which may be skipped
+     * (&ge;0)
+     */
+    private float colorTolerance = 0.002f;
+    /**
+     * largest change (in any component) of the main light's direction which
+     * may be skipped (&ge;0)
+     */
+    private float directionTolerance = 0.0001f;
+    /**
+     * largest change of a bloom or shadow intensity which may be skipped
+     * (&ge;0)
+     */
+    private float intensityTolerance = 0.002f;
     /**
      * multiplier when applying the main light color (1 &rarr; default)
      */
@@ -119,11 +180,29 @@ public class Updater
      * most recent shadow intensity
      */
     private float shadowIntensity = 0f;
+    /**
+     * number of downstream updates issued since the counts were last reset
+     */
+    private long issuedUpdates = 0L;
+    /**
+     * number of downstream updates skipped as unchanged (within tolerance)
+     * since the counts were last reset
+     */
+    private long skippedUpdates = 0L;
     /**
      * most recent direction for main directional light (length=1, or null if
      * not updated yet)
      */
     private Vector3f direction = null;
+    /**
+     * propagation direction as last applied to the main light - not
+     * serialized
+     */
+    final private Vector3f appliedPropagation = new Vector3f();
+    /**
+     * reusable propagation direction for the main light - not serialized
+     */
+    final private Vector3f tmpPropagation = new Vector3f();
     // *************************************************************************
     // new methods exposed
 
@@ -137,6 +216,9 @@ public class Updater
         Validate.nonNull(filter, "filter");
 
         bloomFilters.add(filter);
+        if (!Float.isNaN(appliedBloomIntensity)) {
+            filter.setBloomIntensity(appliedBloomIntensity);
+        }
     }
 
     /**
@@ -150,6 +232,9 @@ public class Updater
         Validate.nonNull(filter, "filter");
 
         shadowFilters.add(filter);
+        if (!Float.isNaN(appliedShadowIntensity)) {
+            filter.setShadowIntensity(appliedShadowIntensity);
+        }
     }
 
     /**
@@ -162,6 +247,9 @@ public class Updater
         Validate.nonNull(renderer, "renderer");
 
         shadowRenderers.add(renderer);
+        if (!Float.isNaN(appliedShadowIntensity)) {
+            renderer.setShadowIntensity(appliedShadowIntensity);
+        }
     }
 
     /**
@@ -197,6 +285,17 @@ public class Updater
         return bloomIntensity;
     }
 
+    /**
+     * Read the number of downstream updates (to lights, filters, renderers,
+     * and viewports) issued since the counts were last reset.
+     *
+     * @return count (&ge;0)
+     */
+    public long getIssuedUpdates() {
+        assert issuedUpdates >= 0L : issuedUpdates;
+        return issuedUpdates;
+    }
+
     /**
      * Copy the most recent direction for the main directional light.
      *
@@ -230,6 +329,18 @@ public class Updater
         return shadowIntensity;
     }
 
+    /**
+     * Read the number of downstream updates (to lights, filters, renderers,
+     * and viewports) skipped because the value hadn't changed (within
+     * tolerance) since the counts were last reset.
+     *
+     * @return count (&ge;0)
+     */
+    public long getSkippedUpdates() {
+        assert skippedUpdates >= 0L : skippedUpdates;
+        return skippedUpdates;
+    }
+
     /**
      * Remove a bloom filter from the list of filters whose intensities are
      * updated by the control. Note that the list is not serialized.
@@ -276,6 +387,14 @@ public class Updater
         }
     }
 
+    /**
+     * Zero the counts of issued and skipped downstream updates.
+     */
+    public void resetUpdateCounts() {
+        issuedUpdates = 0L;
+        skippedUpdates = 0L;
+    }
+
     /**
      * Save a reference to the scene's ambient light. As long as the reference
      * has a non-null value, the control will continuously update the light's
@@ -285,6 +404,7 @@ public class Updater
      */
     public void setAmbientLight(AmbientLight ambientLight) {
         this.ambientLight = ambientLight;
+        ambientStale = true;
     }
 
     /**
@@ -295,6 +415,7 @@ public class Updater
     public void setAmbientMultiplier(float factor) {
         Validate.nonNegative(factor, "factor");
         ambientMultiplier = factor;
+        ambientStale = true;
     }
 
     /**
@@ -308,6 +429,39 @@ public class Updater
         }
     }
 
+    /**
+     * Alter the color tolerance: the largest change (in any component) of the
+     * ambient, main, or background color for which an update is skipped.
+     *
+     * @param newTolerance (&ge;0; 0 &rarr; skip only exact repeats)
+     */
+    public void setColorTolerance(float newTolerance) {
+        Validate.nonNegative(newTolerance, "tolerance");
+        colorTolerance = newTolerance;
+    }
+
+    /**
+     * Alter the direction tolerance: the largest change (in any component) of
+     * the main light's direction for which an update is skipped.
+     *
+     * @param newTolerance (&ge;0; 0 &rarr; skip only exact repeats)
+     */
+    public void setDirectionTolerance(float newTolerance) {
+        Validate.nonNegative(newTolerance, "tolerance");
+        directionTolerance = newTolerance;
+    }
+
+    /**
+     * Alter the intensity tolerance: the largest change of the bloom or shadow
+     * intensity for which an update is skipped.
+     *
+     * @param newTolerance (&ge;0; 0 &rarr; skip only exact repeats)
+     */
+    public void setIntensityTolerance(float newTolerance) {
+        Validate.nonNegative(newTolerance, "tolerance");
+        intensityTolerance = newTolerance;
+    }
+
     /**
      * Save a reference to the scene's main directional light. As long as the
      * reference has a non-null value, the control will continuously update the
@@ -317,6 +471,7 @@ public class Updater
      */
     public void setMainLight(DirectionalLight mainLight) {
         this.mainLight = mainLight;
+        mainStale = true;
     }
 
     /**
@@ -327,6 +482,7 @@ public class Updater
     public void setMainMultiplier(float factor) {
         Validate.nonNegative(factor, "factor");
         mainMultiplier = factor;
+        mainStale = true;
     }
 
     /**
@@ -366,6 +522,7 @@ public class Updater
         assert shadowIntensity <= 1f : shadowIntensity;
         assert direction != null;
         assert direction.isUnitVector() : direction;
+        boolean firstUpdate = this.direction == null;
         /*
          * Copy new values to the corresponding "most recent" fields.
          */
@@ -393,32 +550,83 @@ public class Updater
         }
 
         if (mainLight != null) {
-            ColorRGBA color = ambientColor.mult(mainMultiplier);
-            mainLight.setColor(color);
+            tmpMainColor.set(ambientColor);
+            tmpMainColor.multLocal(mainMultiplier);
             /*
              * The direction of the main light is the direction in which it
              * propagates, which is the opposite of the direction to the
              * light source.
              */
-            Vector3f propagationDirection = direction.negate();
-            mainLight.setDirection(propagationDirection);
+            tmpPropagation.set(direction);
+            tmpPropagation.negateLocal();
+            if (mainStale
+                    || differs(appliedMainColor, tmpMainColor, colorTolerance)
+                    || differs(appliedPropagation, tmpPropagation,
+                    directionTolerance)) {
+                appliedMainColor.set(tmpMainColor);
+                appliedPropagation.set(tmpPropagation);
+                mainLight.setColor(tmpMainColor);
+                mainLight.setDirection(tmpPropagation);
+                mainStale = false;
+                issuedUpdates++;
+            } else {
+                skippedUpdates++;
+            }
         }
         if (ambientLight != null) {
-            ColorRGBA color = ambientColor.mult(ambientMultiplier);
-            ambientLight.setColor(color);
-        }
-        for (BloomFilter filter : bloomFilters) {
-            filter.setBloomIntensity(bloomIntensity);
+            tmpAmbientColor.set(ambientColor);
+            tmpAmbientColor.multLocal(ambientMultiplier);
+            if (ambientStale || differs(appliedAmbientColor, tmpAmbientColor,
+                    colorTolerance)) {
+                appliedAmbientColor.set(tmpAmbientColor);
+                ambientLight.setColor(tmpAmbientColor);
+                ambientStale = false;
+                issuedUpdates++;
+            } else {
+                skippedUpdates++;
+            }
         }
-        for (@SuppressWarnings("rawtypes") AbstractShadowFilter filter
-                : shadowFilters) {
-            filter.setShadowIntensity(shadowIntensity);
+        /*
+         * Index the lists instead of iterating, to avoid allocating
+         * an iterator for each list on every frame.
+         */
+        int numBloomFilters = bloomFilters.size();
+        if (FastMath.abs(bloomIntensity - appliedBloomIntensity)
+                <= intensityTolerance) {
+            skippedUpdates += numBloomFilters;
+        } else {
+            appliedBloomIntensity = bloomIntensity;
+            for (int i = 0; i < numBloomFilters; i++) {
+                bloomFilters.get(i).setBloomIntensity(bloomIntensity);
+            }
+            issuedUpdates += numBloomFilters;
         }
-        for (AbstractShadowRenderer renderer : shadowRenderers) {
-            renderer.setShadowIntensity(shadowIntensity);
+
+        int numShadows = shadowFilters.size() + shadowRenderers.size();
+        if (FastMath.abs(shadowIntensity - appliedShadowIntensity)
+                <= intensityTolerance) {
+            skippedUpdates += numShadows;
+        } else {
+            appliedShadowIntensity = shadowIntensity;
+            for (int i = 0; i < shadowFilters.size(); i++) {
+                shadowFilters.get(i).setShadowIntensity(shadowIntensity);
+            }
+            for (int i = 0; i < shadowRenderers.size(); i++) {
+                shadowRenderers.get(i).setShadowIntensity(shadowIntensity);
+            }
+            issuedUpdates += numShadows;
         }
-        for (ViewPort viewPort : viewPorts) {
-            viewPort.setBackgroundColor(backgroundColor);
+
+        int numViewPorts = viewPorts.size();
+        if (!firstUpdate && !differs(appliedBackgroundColor, backgroundColor,
+                colorTolerance)) {
+            skippedUpdates += numViewPorts;
+        } else {
+            appliedBackgroundColor.set(backgroundColor);
+            for (int i = 0; i < numViewPorts; i++) {
+                viewPorts.get(i).setBackgroundColor(appliedBackgroundColor);
+            }
+            issuedUpdates += numViewPorts;
         }
     }
     // *************************************************************************
@@ -434,6 +642,9 @@ public class Updater
     public void addViewPort(ViewPort viewPort) {
         Validate.nonNull(viewPort, "view port");
         viewPorts.add(viewPort);
+        if (backgroundColor != null) {
+            viewPort.setBackgroundColor(appliedBackgroundColor);
+        }
     }
 
     /**
@@ -451,4 +662,43 @@ public class Updater
             logger.log(Level.WARNING, "not removed");
         }
     }
+    // *************************************************************************
+    // private methods
+
+    /**
+     * Test whether two colors differ by more than a tolerance in any
+     * component.
+     *
+     * @param color1 (not null, unaffected)
+     * @param color2 (not null, unaffected)
+     * @param tolerance (&ge;0)
+     * @return true if they differ, false if they match within the tolerance
+     */
+    private static boolean differs(ColorRGBA color1, ColorRGBA color2,
+            float tolerance) {
+        boolean result = FastMath.abs(color1.r - color2.r) > tolerance
+                || FastMath.abs(color1.g - color2.g) > tolerance
+                || FastMath.abs(color1.b - color2.b) > tolerance
+                || FastMath.abs(color1.a - color2.a) > tolerance;
+
+        return result;
+    }
+
+    /**
+     * Test whether two vectors differ by more than a tolerance in any
+     * component.
+     *
+     * @param vector1 (not null, unaffected)
+     * @param vector2 (not null, unaffected)
+     * @param tolerance (&ge;0)
+     * @return true if they differ, false if they match within the tolerance
+     */
+    private static boolean differs(Vector3f vector1, Vector3f vector2,
+            float tolerance) {
+        boolean result = FastMath.abs(vector1.x - vector2.x) > tolerance
+                || FastMath.abs(vector1.y - vector2.y) > tolerance
+                || FastMath.abs(vector1.z - vector2.z) > tolerance;
+
+        return result;
+    }
 }
\ No newline at end of file